@@ -0,0 +1,62 @@
+package de.spinscale.restclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suggests products for prefixes of different length out of 100,000 products, with and without
+ * pending changes, that are searched one by one until the next rebuild. {@code rebuild} measures
+ * building the compact index from products already in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AutocompleteBenchmark {
+
+    @Param({"n", "name of 4", "name of 4711 product"})
+    public String prefix;
+
+    @Param({"0", "1000"})
+    public int pendingChanges;
+
+    private List<Product> products;
+    private ProductAutocomplete autocomplete;
+
+    @Setup
+    public void setup() {
+        products = ProductServiceBenchmark.createProducts(100_000);
+        autocomplete = ProductAutocomplete.builder().maxPendingChanges(pendingChanges).build();
+        autocomplete.rebuild(products.stream());
+        autocomplete.put(products.subList(0, pendingChanges));
+    }
+
+    @Benchmark
+    public List<ProductSummary> suggestByStock() {
+        return autocomplete.suggest(prefix, 10, ProductAutocomplete.Ranking.STOCK);
+    }
+
+    @Benchmark
+    public List<ProductSummary> suggestByPrice() {
+        return autocomplete.suggest(prefix, 10, ProductAutocomplete.Ranking.PRICE);
+    }
+
+    @Benchmark
+    public AutocompleteIndex rebuild() {
+        return AutocompleteIndex.build(products, 8);
+    }
+}
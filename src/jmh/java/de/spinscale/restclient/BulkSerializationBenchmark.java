@@ -0,0 +1,196 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.json.NdJsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building bulk bodies and parsing sources through the Elasticsearch client with the
+ * {@link ProductCodec} and the columnar {@link ProductBatch}. Run with {@code -PjmhArgs='BulkSerialization -prof gc'} to see the
+ * allocations per operation, which is the main difference between the two.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkSerializationBenchmark {
+
+    private static final Projection<ProductSummary> SUMMARIES = Projection.summaries();
+
+    @Param({"10", "1000"})
+    public int batchSize;
+
+    private StubElasticsearchServer server;
+    private ProductServiceImpl clientProductService;
+    private ProductServiceImpl codecProductService;
+    private JacksonJsonpMapper jsonpMapper;
+    private ObjectMapper objectMapper;
+    private JsonFactory jsonFactory;
+    private ProductCodec codec;
+    private NdjsonBulkWriter<Product> bulkWriter;
+    private List<Product> products;
+    private ProductBatch batch;
+    private byte[] source;
+    private final DiscardingOutputStream discard = new DiscardingOutputStream();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new StubElasticsearchServer(10);
+        clientProductService = new ProductServiceImpl("products", server.createClient());
+        codec = new ProductCodec();
+        codecProductService = ProductServiceImpl.builder("products", server.createClient()).codec(codec).build();
+        objectMapper = ElasticsearchClientFactory.createObjectMapper();
+        jsonpMapper = new JacksonJsonpMapper(objectMapper);
+        jsonFactory = objectMapper.getFactory();
+        bulkWriter = new NdjsonBulkWriter<>(null, codec);
+        products = ProductServiceBenchmark.createProducts(batchSize);
+        batch = ProductBatch.of(products);
+        source = StubElasticsearchServer.productSource(1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Builds the bulk request and serializes it the same way the transport of the client does
+     */
+    @Benchmark
+    public long clientBulkBody() {
+        final BulkRequest request = BulkRequest.of(builder -> {
+            for (Product product : products) {
+                builder.index("products").operations(ob -> ob.index(ib -> ib.document(product).id(product.getId())));
+            }
+            return builder;
+        });
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeNdJson(request, output);
+        return output.toByteArray().length;
+    }
+
+    @Benchmark
+    public long codecBulkBody() throws IOException {
+        discard.count = 0;
+        bulkWriter.writeBody(products, discard);
+        return discard.count;
+    }
+
+    @Benchmark
+    public long batchBulkBody() throws IOException {
+        discard.count = 0;
+        bulkWriter.writeBody(batch, discard);
+        return discard.count;
+    }
+
+    @Benchmark
+    public Product objectMapperReadSource() throws IOException {
+        return objectMapper.readValue(source, Product.class);
+    }
+
+    @Benchmark
+    public Product codecReadSource() throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(source)) {
+            parser.nextToken();
+            return codec.read(parser);
+        }
+    }
+
+    @Benchmark
+    public List<Product> clientSave() throws IOException {
+        clientProductService.save(products);
+        return products;
+    }
+
+    @Benchmark
+    public List<Product> codecSave() throws IOException {
+        codecProductService.save(products);
+        return products;
+    }
+
+    @Benchmark
+    public ProductBatch batchSave() throws IOException {
+        clientProductService.save(batch);
+        return batch;
+    }
+
+    @Benchmark
+    public ProductBatch batchSearch() throws IOException {
+        final ProductBatch results = new ProductBatch(10);
+        clientProductService.search("name", 0, 10, results);
+        return results;
+    }
+
+    @Benchmark
+    public Page<Product> search() throws IOException {
+        return clientProductService.search("name");
+    }
+
+    // the stub ignores the source filter, so this only shows the cost of decoding
+    @Benchmark
+    public Page<ProductSummary> summarySearch() throws IOException {
+        return clientProductService.search("name", SUMMARIES);
+    }
+
+    private void writeNdJson(NdJsonpSerializable value, ByteArrayOutputStream output) {
+        final Iterator<?> values = value._serializables();
+        while (values.hasNext()) {
+            final Object item = values.next();
+            if (item instanceof NdJsonpSerializable ndJson && item != value) {
+                writeNdJson(ndJson, output);
+            } else {
+                try (JsonGenerator generator = jsonpMapper.jsonProvider().createGenerator(output)) {
+                    if (item instanceof JsonpSerializable serializable) {
+                        serializable.serialize(generator, jsonpMapper);
+                    } else {
+                        jsonpMapper.serialize(item, generator);
+                    }
+                }
+                output.write('\n');
+            }
+        }
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and parses a single product, once with the plain object mapper and once through
+ * the jsonp mapper the Elasticsearch client uses, which wraps the very same object mapper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductSerializationBenchmark {
+
+    private ObjectMapper objectMapper;
+    private JacksonJsonpMapper jsonpMapper;
+    private Product product;
+    private byte[] json;
+
+    @Setup
+    public void setup() {
+        objectMapper = ElasticsearchClientFactory.createObjectMapper();
+        jsonpMapper = new JacksonJsonpMapper(objectMapper);
+        product = ProductServiceBenchmark.createProducts(2).get(1);
+        product.setId(null);
+        json = StubElasticsearchServer.productSource(1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] objectMapperSerialize() throws IOException {
+        return objectMapper.writeValueAsBytes(product);
+    }
+
+    @Benchmark
+    public Product objectMapperDeserialize() throws IOException {
+        return objectMapper.readValue(json, Product.class);
+    }
+
+    @Benchmark
+    public byte[] jsonpMapperSerialize() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = jsonpMapper.jsonProvider().createGenerator(output)) {
+            jsonpMapper.serialize(product, generator);
+        }
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public Product jsonpMapperDeserialize() {
+        try (JsonParser parser = jsonpMapper.jsonProvider().createParser(new ByteArrayInputStream(json))) {
+            return jsonpMapper.deserialize(parser, Product.class);
+        }
+    }
+}
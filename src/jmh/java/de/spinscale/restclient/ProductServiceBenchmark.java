@@ -0,0 +1,99 @@
+package de.spinscale.restclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the client side cost of the product service hot paths. All requests go to a
+ * {@link StubElasticsearchServer} on localhost, so the numbers contain the HTTP round trip
+ * over loopback, request serialization and response parsing, but no Elasticsearch work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductServiceBenchmark {
+
+    private StubElasticsearchServer server;
+    private ProductServiceImpl productService;
+    private Page<Product> firstPage;
+
+    @State(Scope.Thread)
+    public static class Batch {
+
+        @Param({"1", "10", "100", "1000"})
+        public int batchSize;
+
+        private List<Product> products;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            products = createProducts(batchSize);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new StubElasticsearchServer(10);
+        productService = new ProductServiceImpl("products", server.createClient());
+        firstPage = productService.search("name");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public Product findById() throws IOException {
+        return productService.findById("1");
+    }
+
+    @Benchmark
+    public Page<Product> search() throws IOException {
+        return productService.search("name");
+    }
+
+    @Benchmark
+    public Page<Product> next() throws IOException {
+        return productService.next(firstPage);
+    }
+
+    @Benchmark
+    public List<Product> saveBulk(Batch batch) throws IOException {
+        productService.save(batch.products);
+        return batch.products;
+    }
+
+    static List<Product> createProducts(int count) {
+        final List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Product product = new Product();
+            product.setId(String.valueOf(i));
+            product.setName("Name of " + i + " product");
+            product.setDescription("Description of " + i + " product, which is a bit longer than the name of the product");
+            product.setPrice(i * 1.2);
+            product.setStockAvailable(i * 10);
+            products.add(product);
+        }
+        return products;
+    }
+}
@@ -0,0 +1,142 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers like an Elasticsearch node with canned responses, so that benchmarks measure the client
+ * side only and can run without a cluster. Bulk responses contain one item per action in the
+ * request, everything else is precomputed once. Runs on the {@link StubElasticsearch} of the tests.
+ */
+public class StubElasticsearchServer implements Closeable {
+
+    private static final String PRODUCT_SOURCE = "{\"name\":\"Name of %1$d product\"," +
+            "\"description\":\"Description of %1$d product, which is a bit longer than the name of the product\"," +
+            "\"price\":%2$.2f,\"stock_available\":%3$d}";
+
+    private final StubElasticsearch stub;
+    private final StubElasticsearch.Response getResponse;
+    private final StubElasticsearch.Response searchResponse;
+    private final StubElasticsearch.Response emptyResponse = StubElasticsearch.Response.ok("{}");
+    private final Map<Integer, StubElasticsearch.Response> bulkResponses = new ConcurrentHashMap<>();
+    private final List<RestClient> restClients = new ArrayList<>();
+
+    public StubElasticsearchServer(int hitsPerPage) throws IOException {
+        this.getResponse = StubElasticsearch.Response.ok(createGetResponse());
+        this.searchResponse = StubElasticsearch.Response.ok(createSearchResponse(hitsPerPage));
+        this.stub = StubElasticsearch.start(this::handle, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    public HttpHost getHost() {
+        return stub.getHost();
+    }
+
+    /**
+     * @return a client talking to this server, configured like the client in the tests
+     */
+    public ElasticsearchClient createClient() {
+        return createClient(ClientConfig.builder(getHost()).compression(false).build());
+    }
+
+    public synchronized ElasticsearchClient createClient(ClientConfig config) {
+        final RestClient restClient = ElasticsearchClientFactory.createRestClient(config);
+        restClients.add(restClient);
+        return new ElasticsearchClient(ElasticsearchClientFactory.createTransport(restClient));
+    }
+
+    /**
+     * @return the body bytes received on the wire, before decompression
+     */
+    public long getBytesReceived() {
+        return stub.getBytesReceived();
+    }
+
+    /**
+     * @return the body bytes sent on the wire, after compression
+     */
+    public long getBytesSent() {
+        return stub.getBytesSent();
+    }
+
+    public void resetBytes() {
+        stub.resetBytes();
+    }
+
+    private StubElasticsearch.Response handle(StubElasticsearch.Request request) {
+        final String path = request.path();
+        if (path.endsWith("/_bulk")) {
+            return bulkResponses.computeIfAbsent(countBulkActions(request.body()), StubElasticsearchServer::createBulkResponse);
+        } else if (path.endsWith("/_search")) {
+            return searchResponse;
+        } else if (path.contains("/_doc/")) {
+            return getResponse;
+        }
+        return emptyResponse;
+    }
+
+    // every index action is followed by its document
+    private static int countBulkActions(byte[] body) {
+        int lines = 0;
+        for (byte b : body) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines / 2;
+    }
+
+    static String productSource(int i) {
+        return String.format(Locale.ROOT, PRODUCT_SOURCE, i, i * 1.2, i * 10);
+    }
+
+    private static String createGetResponse() {
+        return "{\"_index\":\"products\",\"_id\":\"1\",\"_version\":1,\"_seq_no\":0,\"_primary_term\":1,\"found\":true," +
+                "\"_source\":" + productSource(1) + "}";
+    }
+
+    private static String createSearchResponse(int hits) {
+        final StringBuilder builder = new StringBuilder("{\"took\":1,\"timed_out\":false," +
+                "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+                "\"hits\":{\"total\":{\"value\":10000,\"relation\":\"gte\"},\"max_score\":1.0,\"hits\":[");
+        for (int i = 0; i < hits; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"_index\":\"products\",\"_id\":\"").append(i).append("\",\"_score\":1.0,")
+                    .append("\"_source\":").append(productSource(i)).append(",")
+                    .append("\"sort\":[1.0,").append(i).append("]}");
+        }
+        return builder.append("]}}").toString();
+    }
+
+    private static StubElasticsearch.Response createBulkResponse(int items) {
+        final StringBuilder builder = new StringBuilder("{\"took\":1,\"errors\":false,\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"index\":{\"_index\":\"products\",\"_id\":\"").append(i)
+                    .append("\",\"_version\":1,\"result\":\"created\",")
+                    .append("\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},")
+                    .append("\"_seq_no\":").append(i).append(",\"_primary_term\":1,\"status\":201}}");
+        }
+        return StubElasticsearch.Response.ok(builder.append("]}").toString());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (RestClient restClient : restClients) {
+            restClient.close();
+        }
+        stub.close();
+    }
+}
@@ -0,0 +1,112 @@
+package de.spinscale.restclient;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the transport settings of {@link ClientConfig} under concurrent load against a
+ * {@link StubElasticsearchServer}. Besides the throughput, the request and response body bytes per
+ * second are reported as secondary results, divided by the throughput they are the bytes per operation.
+ *
+ * Loopback has no bandwidth limit, so compression only shows its CPU cost here. The bytes saved are what
+ * it buys on a real network, where a bulk request of a thousand products is bound by bandwidth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class TransportSettingsBenchmark {
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    @Param({"2", "16"})
+    public int maxConnections;
+
+    @Param({"1", "4"})
+    public int ioThreads;
+
+    private StubElasticsearchServer server;
+    private ProductServiceImpl productService;
+    private List<Product> products;
+    private long saveRequestBytes;
+    private long saveResponseBytes;
+    private long searchRequestBytes;
+    private long searchResponseBytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class WireBytes {
+        public long requestBytes;
+        public long responseBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requestBytes = 0;
+            responseBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new StubElasticsearchServer(10);
+        final ClientConfig config = ClientConfig.builder(server.getHost())
+                .compression(compression)
+                .maxConnections(maxConnections, maxConnections)
+                .ioThreads(ioThreads)
+                .build();
+        productService = new ProductServiceImpl("products", server.createClient(config));
+        products = ProductServiceBenchmark.createProducts(1000);
+
+        // every operation sends and receives the same bytes, measure them once
+        server.resetBytes();
+        productService.save(products);
+        saveRequestBytes = server.getBytesReceived();
+        saveResponseBytes = server.getBytesSent();
+        server.resetBytes();
+        productService.search("name");
+        searchRequestBytes = server.getBytesReceived();
+        searchResponseBytes = server.getBytesSent();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public List<Product> saveBulk(WireBytes wireBytes) throws IOException {
+        productService.save(products);
+        wireBytes.requestBytes += saveRequestBytes;
+        wireBytes.responseBytes += saveResponseBytes;
+        return products;
+    }
+
+    @Benchmark
+    public Page<Product> search(WireBytes wireBytes) throws IOException {
+        final Page<Product> page = productService.search("name");
+        wireBytes.requestBytes += searchRequestBytes;
+        wireBytes.responseBytes += searchResponseBytes;
+        return page;
+    }
+}
@@ -0,0 +1,280 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Node selector, that tracks the latency of every node as an exponentially weighted moving
+ * average and only sends requests to the fastest nodes. The rest client round robins over
+ * all nodes within {@code tolerance} of the fastest one, slower nodes only get a small share
+ * of requests, so their average can recover. Nodes that failed within {@code failurePenalty}
+ * count as a lot slower than they are.
+ *
+ * Latencies are measured by the interceptors, register them and the failure listener with
+ * the rest client builder:
+ *
+ * <pre>
+ * builder.setNodeSelector(selector);
+ * builder.setFailureListener(selector.failureListener());
+ * builder.setHttpClientConfigCallback(b -&gt; b.addInterceptorLast(selector.requestInterceptor())
+ *                                            .addInterceptorLast(selector.responseInterceptor()));
+ * </pre>
+ */
+public class AdaptiveNodeSelector implements NodeSelector {
+
+    private static final String START_NANOS = AdaptiveNodeSelector.class.getName() + ".start";
+    // failed nodes are treated as this many times slower for the duration of the penalty
+    private static final double FAILURE_FACTOR = 10;
+
+    private static final ThreadLocal<Pin> PIN = new ThreadLocal<>();
+
+    private final NodeSelector delegate;
+    private final double alpha;
+    private final double tolerance;
+    private final double explorationRate;
+    private final long failurePenaltyNanos;
+    private final Map<HttpHost, NodeStats> stats = new ConcurrentHashMap<>();
+
+    private AdaptiveNodeSelector(Builder builder) {
+        this.delegate = builder.delegate;
+        this.alpha = builder.alpha;
+        this.tolerance = builder.tolerance;
+        this.explorationRate = builder.explorationRate;
+        this.failurePenaltyNanos = builder.failurePenalty.toNanos();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        delegate.select(nodes);
+
+        final Pin pin = PIN.get();
+        if (pin != null) {
+            selectSingle(nodes, pin);
+            return;
+        }
+        if (ThreadLocalRandom.current().nextDouble() < explorationRate) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        double best = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            best = Math.min(best, score(node.getHost(), now));
+        }
+        // keep at least the fastest node, the rest client fails on an empty selection
+        final double limit = best * tolerance;
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            if (score(iterator.next().getHost(), now) > limit) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void selectSingle(Iterable<Node> nodes, Pin pin) {
+        final long now = System.nanoTime();
+        Node selected = null;
+        double selectedScore = Double.MAX_VALUE;
+        boolean selectedExcluded = true;
+        for (Node node : nodes) {
+            final boolean excluded = pin.excluded.contains(node.getHost());
+            final double score = score(node.getHost(), now);
+            // excluded nodes are only used, if there is nothing else
+            if (selected == null || (selectedExcluded && excluded == false) || (selectedExcluded == excluded && score < selectedScore)) {
+                selected = node;
+                selectedScore = score;
+                selectedExcluded = excluded;
+            }
+        }
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            if (iterator.next() != selected) {
+                iterator.remove();
+            }
+        }
+        if (selected != null) {
+            pin.selected = selected.getHost();
+        }
+    }
+
+    /**
+     * Runs a call, whose requests are all sent to the single fastest node, that is not excluded.
+     * The node has to be selected on the calling thread, which is the case for the async client.
+     */
+    <T> Pinned<T> pinned(Collection<HttpHost> excluded, Supplier<T> call) {
+        final Pin pin = new Pin(excluded);
+        final Pin previous = PIN.get();
+        PIN.set(pin);
+        try {
+            return new Pinned<>(call.get(), pin.selected);
+        } finally {
+            PIN.set(previous);
+        }
+    }
+
+    // nodes without any measurement yet score best, so that they get requests, unless they just failed
+    private double score(HttpHost host, long now) {
+        final NodeStats nodeStats = stats.get(host);
+        if (nodeStats == null) {
+            return 0;
+        }
+        final boolean failedRecently = nodeStats.lastFailureNanos != 0 && now - nodeStats.lastFailureNanos < failurePenaltyNanos;
+        if (nodeStats.samples == 0) {
+            return failedRecently ? Double.POSITIVE_INFINITY : 0;
+        }
+        return failedRecently ? nodeStats.ewmaNanos * FAILURE_FACTOR : nodeStats.ewmaNanos;
+    }
+
+    /**
+     * Records the latency of a single request to a node
+     */
+    public void record(HttpHost host, long nanos) {
+        final NodeStats nodeStats = stats.computeIfAbsent(host, h -> new NodeStats());
+        synchronized (nodeStats) {
+            nodeStats.ewmaNanos = nodeStats.samples == 0 ? nanos : alpha * nanos + (1 - alpha) * nodeStats.ewmaNanos;
+            nodeStats.samples++;
+        }
+    }
+
+    public void recordFailure(HttpHost host) {
+        stats.computeIfAbsent(host, h -> new NodeStats()).lastFailureNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the latency average of every node with at least one measurement in nanoseconds
+     */
+    public Map<HttpHost, Long> getLatencies() {
+        final Map<HttpHost, Long> latencies = new HashMap<>();
+        stats.forEach((host, nodeStats) -> {
+            if (nodeStats.samples > 0) {
+                latencies.put(host, (long) nodeStats.ewmaNanos);
+            }
+        });
+        return latencies;
+    }
+
+    public HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> context.setAttribute(START_NANOS, System.nanoTime());
+    }
+
+    /**
+     * Measures the time until the response headers arrive, responses with a 5xx status count as failure
+     */
+    public HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> {
+            final Object start = context.getAttribute(START_NANOS);
+            final HttpHost host = HttpCoreContext.adapt(context).getTargetHost();
+            if (start == null || host == null) {
+                return;
+            }
+            record(host, System.nanoTime() - (long) start);
+            if (response.getStatusLine().getStatusCode() >= 500) {
+                recordFailure(host);
+            }
+        };
+    }
+
+    /**
+     * Marks nodes, that the rest client failed to reach
+     */
+    public RestClient.FailureListener failureListener() {
+        return new RestClient.FailureListener() {
+            @Override
+            public void onFailure(Node node) {
+                recordFailure(node.getHost());
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "adaptive(" + delegate + ")";
+    }
+
+    record Pinned<T>(T result, HttpHost host) {
+    }
+
+    private static final class Pin {
+        private final Collection<HttpHost> excluded;
+        private HttpHost selected;
+
+        private Pin(Collection<HttpHost> excluded) {
+            this.excluded = excluded == null ? Collections.emptySet() : excluded;
+        }
+    }
+
+    private static final class NodeStats {
+        private volatile double ewmaNanos;
+        private volatile long samples;
+        private volatile long lastFailureNanos;
+    }
+
+    public static final class Builder {
+        private NodeSelector delegate = NodeSelector.ANY;
+        private double alpha = 0.3;
+        private double tolerance = 1.5;
+        private double explorationRate = 0.05;
+        private Duration failurePenalty = Duration.ofSeconds(30);
+
+        private Builder() {
+        }
+
+        /**
+         * @param delegate filters the nodes before the adaptive selection, for example by role
+         */
+        public Builder delegate(NodeSelector delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * @param alpha the weight of a new measurement in the moving average, higher values react faster
+         */
+        public Builder alpha(double alpha) {
+            this.alpha = alpha;
+            return this;
+        }
+
+        /**
+         * @param tolerance nodes slower than this factor times the fastest node do not get requests
+         */
+        public Builder tolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * @param explorationRate the share of requests, that may go to any node
+         */
+        public Builder explorationRate(double explorationRate) {
+            this.explorationRate = explorationRate;
+            return this;
+        }
+
+        public Builder failurePenalty(Duration failurePenalty) {
+            this.failurePenalty = failurePenalty;
+            return this;
+        }
+
+        public AdaptiveNodeSelector build() {
+            return new AdaptiveNodeSelector(this);
+        }
+    }
+}
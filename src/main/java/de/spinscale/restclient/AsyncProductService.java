@@ -0,0 +1,36 @@
+package de.spinscale.restclient;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncProductService {
+
+    /**
+     * @return a future completing with the product, or with null if there is no product with this id
+     */
+    CompletableFuture<Product> findById(String id);
+
+    /**
+     * @return a future completing with one entry per requested id, empty if there is no product with that id
+     */
+    CompletableFuture<List<Optional<Product>>> findByIds(Collection<String> ids);
+
+    CompletableFuture<Page<Product>> search(String query);
+
+    /**
+     * @see ProductService#search(String, Duration)
+     */
+    CompletableFuture<Page<Product>> search(String query, Duration keepAlive);
+
+    CompletableFuture<Page<Product>> next(Page page);
+
+    CompletableFuture<Void> close(Page page);
+
+    CompletableFuture<Void> save(Product product);
+
+    CompletableFuture<Void> save(List<Product> products);
+
+}
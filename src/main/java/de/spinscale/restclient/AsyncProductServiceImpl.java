@@ -0,0 +1,226 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non blocking product service. No thread is parked while a request is running, the
+ * responses are handled on the IO reactor threads of the underlying rest client.
+ *
+ * At most {@code maxInFlight} requests are sent to the cluster at the same time, up to
+ * {@code maxQueued} more requests are buffered and dispatched as soon as an in-flight
+ * request finishes. Anything beyond that is rejected right away with a
+ * {@link RejectedExecutionException}, so callers get backpressure instead of an
+ * unbounded queue.
+ */
+public class AsyncProductServiceImpl implements AsyncProductService {
+
+    private final String index;
+    private final ElasticsearchAsyncClient client;
+    private final int maxQueued;
+    private final Semaphore permits;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public AsyncProductServiceImpl(String index, ElasticsearchAsyncClient client) {
+        this(index, client, 256, 10_000);
+    }
+
+    public AsyncProductServiceImpl(String index, ElasticsearchAsyncClient client, int maxInFlight, int maxQueued) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, got " + maxInFlight);
+        }
+        this.index = index;
+        this.client = client;
+        this.maxQueued = maxQueued;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public CompletableFuture<Product> findById(String id) {
+        return execute(() -> client.get(builder -> builder.index(index).id(id), Product.class)
+                .thenApply(getResponse -> {
+                    Product product = getResponse.source();
+                    if (product != null) {
+                        product.setId(id);
+                    }
+                    return product;
+                }));
+    }
+
+    @Override
+    public CompletableFuture<List<Optional<Product>>> findByIds(Collection<String> ids) {
+        final List<String> idList = new ArrayList<>(ids);
+        final List<CompletableFuture<List<Optional<Product>>>> chunks = new ArrayList<>();
+        for (int from = 0; from < idList.size(); from += ProductServiceImpl.MGET_CHUNK_SIZE) {
+            final List<String> chunk = idList.subList(from, Math.min(from + ProductServiceImpl.MGET_CHUNK_SIZE, idList.size()));
+            chunks.add(execute(() -> client.mget(builder -> builder.index(index).ids(chunk), Product.class)
+                    .thenApply(response -> {
+                        final List<Optional<Product>> products = new ArrayList<>(chunk.size());
+                        for (MultiGetResponseItem<Product> item : response.docs()) {
+                            try {
+                                products.add(ProductServiceImpl.toProduct(item));
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            }
+                        }
+                        return products;
+                    })));
+        }
+
+        // chunks are sent concurrently, the results are concatenated in request order
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            final List<Optional<Product>> products = new ArrayList<>(idList.size());
+            chunks.forEach(chunk -> products.addAll(chunk.join()));
+            return products;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Page<Product>> search(String input) {
+        return search(ProductServiceImpl.createSearchRequest(index, input, 0, 10), input);
+    }
+
+    @Override
+    public CompletableFuture<Page<Product>> search(String input, Duration keepAlive) {
+        return execute(() -> client.openPointInTime(b -> b.index(index).keepAlive(ProductServiceImpl.toTime(keepAlive)))
+                .thenCompose(pit -> {
+                    final SearchRequest request = ProductServiceImpl.createPointInTimeSearchRequest(input, 10, pit.id(), keepAlive, null);
+                    return client.search(request, Product.class)
+                            .thenApply(response -> ProductServiceImpl.createPointInTimePage(response, input, 0, 10, pit.id(), keepAlive))
+                            .whenComplete((page, throwable) -> {
+                                if (throwable != null) {
+                                    client.closePointInTime(b -> b.id(pit.id()));
+                                }
+                            });
+                }));
+    }
+
+    @Override
+    public CompletableFuture<Page<Product>> next(Page page) {
+        if (page.hasPointInTime()) {
+            if (page.getSortValues() == null) {
+                return CompletableFuture.completedFuture(page);
+            }
+            final SearchRequest request = ProductServiceImpl.createNextRequest(index, page);
+            return execute(() -> client.search(request, Product.class)
+                    .thenApply(response -> ProductServiceImpl.createPointInTimePage(response, page.getInput(),
+                            page.getFrom() + page.get().size(), page.getSize(), page.getPointInTimeId(), page.getKeepAlive())));
+        }
+        return search(ProductServiceImpl.createNextRequest(index, page), page.getInput());
+    }
+
+    @Override
+    public CompletableFuture<Void> close(Page page) {
+        if (page.hasPointInTime() == false) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return execute(() -> client.closePointInTime(b -> b.id(page.getPointInTimeId())).thenAccept(response -> {}));
+    }
+
+    private CompletableFuture<Page<Product>> search(SearchRequest request, String input) {
+        return execute(() -> client.search(request, Product.class)
+                .thenApply(response -> ProductServiceImpl.createPage(response, request, input)));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(Product product) {
+        return save(Collections.singletonList(product));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(List<Product> products) {
+        return execute(() -> client.bulk(builder -> {
+            for (Product product : products) {
+                builder.index(index)
+                       .operations(ob -> {
+                           if (product.getId() != null) {
+                               ob.index(ib -> ib.document(product).id(product.getId()));
+                           } else {
+                               ob.index(ib -> ib.document(product));
+                           }
+                           return ob;
+                       });
+            }
+            return builder;
+        }).thenAccept(response -> {
+            final int size = products.size();
+            for (int i = 0; i < size; i++) {
+                products.get(i).setId(response.items().get(i).id());
+            }
+        }));
+    }
+
+    /**
+     * @return the number of requests waiting for an in-flight slot
+     */
+    public int queued() {
+        return queued.get();
+    }
+
+    private <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        if (permits.tryAcquire()) {
+            return run(call);
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "too many pending requests, limit is [" + maxQueued + "]"));
+        }
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        pending.add(() -> run(call).whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        }));
+        // a permit might have been released between the tryAcquire() above and adding to the queue
+        drain();
+        return result;
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((value, throwable) -> {
+            permits.release();
+            drain();
+        });
+    }
+
+    private void drain() {
+        while (pending.isEmpty() == false && permits.tryAcquire()) {
+            final Runnable task = pending.poll();
+            if (task == null) {
+                permits.release();
+                return;
+            }
+            queued.decrementAndGet();
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package de.spinscale.restclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable prefix index over the words of product names, stored in primitive arrays only.
+ *
+ * Every word of a name starts an entry, which is the lower cased rest of the name from that word on.
+ * Entries are sorted, so all entries starting with a prefix form a contiguous range. A trie over the first
+ * {@code maxDepth} characters of the entries finds that range with one step per character. Its nodes are
+ * stored breadth first, so the children of a node are consecutive nodes and no pointers are needed. Longer
+ * prefixes are narrowed down by binary search within the range of the deepest node.
+ *
+ * The best entries of a range are found with a segment tree per ranking, that stores the best entry of every
+ * subrange, so the top k of a range are read in O(k log n), no matter how many products match the prefix.
+ */
+final class AutocompleteIndex {
+
+    private final int maxDepth;
+
+    // products, sorted by id
+    private final String[] ids;
+    private final char[] names;
+    private final int[] nameOffsets;
+    private final double[] prices;
+    private final int[] stocks;
+
+    // entries, sorted by the lower cased name from the start of the word on
+    private final int[] entryProducts;
+    private final int[] entryOffsets;
+
+    // trie nodes, the children of node i are the nodes from childStarts[i] to childStarts[i + 1]
+    private final char[] nodeLabels;
+    private final int[] childStarts;
+    private final int[] entryStarts;
+    private final int[] entryEnds;
+
+    private final int[] stockTree;
+    private final int[] priceTree;
+
+    private AutocompleteIndex(int maxDepth, String[] ids, char[] names, int[] nameOffsets, double[] prices, int[] stocks,
+                              int[] entryProducts, int[] entryOffsets, Nodes nodes) {
+        this.maxDepth = maxDepth;
+        this.ids = ids;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.prices = prices;
+        this.stocks = stocks;
+        this.entryProducts = entryProducts;
+        this.entryOffsets = entryOffsets;
+        this.nodeLabels = Arrays.copyOf(nodes.labels, nodes.count);
+        this.childStarts = Arrays.copyOf(nodes.childStarts, nodes.count + 1);
+        this.entryStarts = Arrays.copyOf(nodes.entryStarts, nodes.count);
+        this.entryEnds = Arrays.copyOf(nodes.entryEnds, nodes.count);
+        this.stockTree = buildTree(ProductAutocomplete.Ranking.STOCK);
+        this.priceTree = buildTree(ProductAutocomplete.Ranking.PRICE);
+    }
+
+    /**
+     * Indexes all products with an id and a name, if an id is contained several times the last product wins
+     */
+    static AutocompleteIndex build(Collection<Product> products, int maxDepth) {
+        final List<Product> sorted = new ArrayList<>(products.size());
+        for (Product product : products) {
+            if (product.getId() != null && product.getName() != null) {
+                sorted.add(product);
+            }
+        }
+        // stable, so the last product of an id ends up last among its duplicates
+        sorted.sort(Comparator.comparing(Product::getId));
+        int count = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i + 1 == sorted.size() || sorted.get(i + 1).getId().equals(sorted.get(i).getId()) == false) {
+                sorted.set(count++, sorted.get(i));
+            }
+        }
+
+        final String[] ids = new String[count];
+        final int[] nameOffsets = new int[count + 1];
+        final double[] prices = new double[count];
+        final int[] stocks = new int[count];
+        int nameLength = 0;
+        for (int i = 0; i < count; i++) {
+            nameLength += sorted.get(i).getName().length();
+        }
+        final char[] names = new char[nameLength];
+        int entryCount = 0;
+        for (int i = 0; i < count; i++) {
+            final Product product = sorted.get(i);
+            final String name = product.getName();
+            ids[i] = product.getId();
+            prices[i] = product.getPrice();
+            stocks[i] = product.getStockAvailable();
+            name.getChars(0, name.length(), names, nameOffsets[i]);
+            nameOffsets[i + 1] = nameOffsets[i] + name.length();
+            for (int c = 0; c < name.length(); c++) {
+                if (isWordStart(name, c)) {
+                    entryCount++;
+                }
+            }
+        }
+
+        final Integer[] entries = new Integer[entryCount];
+        final int[] unsortedProducts = new int[entryCount];
+        final int[] unsortedOffsets = new int[entryCount];
+        int entry = 0;
+        for (int i = 0; i < count; i++) {
+            final String name = sorted.get(i).getName();
+            for (int c = 0; c < name.length(); c++) {
+                if (isWordStart(name, c)) {
+                    unsortedProducts[entry] = i;
+                    unsortedOffsets[entry] = nameOffsets[i] + c;
+                    entries[entry] = entry;
+                    entry++;
+                }
+            }
+        }
+        Arrays.sort(entries, (a, b) -> compareEntries(names, nameOffsets, unsortedProducts[a], unsortedOffsets[a],
+                unsortedProducts[b], unsortedOffsets[b]));
+        final int[] entryProducts = new int[entryCount];
+        final int[] entryOffsets = new int[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            entryProducts[i] = unsortedProducts[entries[i]];
+            entryOffsets[i] = unsortedOffsets[entries[i]];
+        }
+
+        final Nodes nodes = buildTrie(names, nameOffsets, entryProducts, entryOffsets, maxDepth);
+        return new AutocompleteIndex(maxDepth, ids, names, nameOffsets, prices, stocks, entryProducts, entryOffsets, nodes);
+    }
+
+    private static Nodes buildTrie(char[] names, int[] nameOffsets, int[] entryProducts, int[] entryOffsets, int maxDepth) {
+        final Nodes nodes = new Nodes();
+        nodes.add((char) 0, 0, entryProducts.length, 0);
+        // breadth first, the children of every node are appended right after the children of the previous node
+        for (int node = 0; node < nodes.count; node++) {
+            nodes.childStarts[node] = nodes.count;
+            final int depth = nodes.depths[node];
+            if (depth >= maxDepth) {
+                continue;
+            }
+            final int end = nodes.entryEnds[node];
+            int i = nodes.entryStarts[node];
+            // entries ending at this depth sort before all longer ones
+            while (i < end && nameOffsets[entryProducts[i] + 1] - entryOffsets[i] <= depth) {
+                i++;
+            }
+            while (i < end) {
+                final char label = Character.toLowerCase(names[entryOffsets[i] + depth]);
+                int j = i + 1;
+                while (j < end && Character.toLowerCase(names[entryOffsets[j] + depth]) == label) {
+                    j++;
+                }
+                nodes.add(label, i, j, depth + 1);
+                i = j;
+            }
+        }
+        nodes.ensureCapacity(nodes.count + 1);
+        nodes.childStarts[nodes.count] = nodes.count;
+        return nodes;
+    }
+
+    private static int compareEntries(char[] names, int[] nameOffsets, int productA, int offsetA, int productB, int offsetB) {
+        final int endA = nameOffsets[productA + 1];
+        final int endB = nameOffsets[productB + 1];
+        while (offsetA < endA && offsetB < endB) {
+            final int diff = Character.toLowerCase(names[offsetA++]) - Character.toLowerCase(names[offsetB++]);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        final int diff = (endA - offsetA) - (endB - offsetB);
+        return diff != 0 ? diff : Integer.compare(productA, productB);
+    }
+
+    static boolean isWordStart(CharSequence name, int index) {
+        return Character.isLetterOrDigit(name.charAt(index)) &&
+                (index == 0 || Character.isLetterOrDigit(name.charAt(index - 1)) == false);
+    }
+
+    /**
+     * @param prefix a lower cased prefix
+     * @param skip   products left out, because they have been changed since the index was built
+     * @return the best products, that have a word starting with the prefix, best first
+     */
+    int[] top(String prefix, int size, ProductAutocomplete.Ranking ranking, IntPredicate skip) {
+        int node = 0;
+        final int depth = Math.min(prefix.length(), maxDepth);
+        for (int i = 0; i < depth; i++) {
+            node = child(node, prefix.charAt(i));
+            if (node < 0) {
+                return new int[0];
+            }
+        }
+        int from = entryStarts[node];
+        int to = entryEnds[node];
+        if (prefix.length() > maxDepth) {
+            from = lowerBound(prefix, from, to, false);
+            to = lowerBound(prefix, from, to, true);
+        }
+
+        final int[] tree = ranking == ProductAutocomplete.Ranking.STOCK ? stockTree : priceTree;
+        final int[] result = new int[size];
+        int count = 0;
+        // ranges ordered by their best entry, popping a range splits it around that entry
+        final PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> a[0] == b[0] ? 0 : better(a[0], b[0], ranking) == a[0] ? -1 : 1);
+        if (from < to) {
+            ranges.add(new int[] { best(tree, from, to, ranking), from, to });
+        }
+        while (count < size && ranges.isEmpty() == false) {
+            final int[] range = ranges.poll();
+            final int entry = range[0];
+            final int product = entryProducts[entry];
+            if (skip.test(product) == false && contains(result, count, product) == false) {
+                result[count++] = product;
+            }
+            if (range[1] < entry) {
+                ranges.add(new int[] { best(tree, range[1], entry, ranking), range[1], entry });
+            }
+            if (entry + 1 < range[2]) {
+                ranges.add(new int[] { best(tree, entry + 1, range[2], ranking), entry + 1, range[2] });
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int child(int node, char label) {
+        int low = childStarts[node];
+        int high = childStarts[node + 1] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (nodeLabels[middle] < label) {
+                low = middle + 1;
+            } else if (nodeLabels[middle] > label) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first entry, that does not sort before the prefix, or after all entries starting with it
+     */
+    private int lowerBound(String prefix, int from, int to, boolean after) {
+        while (from < to) {
+            final int middle = (from + to) >>> 1;
+            final int cmp = comparePrefix(middle, prefix);
+            if (cmp < 0 || (after && cmp == 0)) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    private int comparePrefix(int entry, String prefix) {
+        final int end = nameOffsets[entryProducts[entry] + 1];
+        int offset = entryOffsets[entry];
+        for (int i = 0; i < prefix.length(); i++) {
+            if (offset == end) {
+                return -1;
+            }
+            final int diff = Character.toLowerCase(names[offset++]) - prefix.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] buildTree(ProductAutocomplete.Ranking ranking) {
+        final int n = entryProducts.length;
+        final int[] tree = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            tree[n + i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            tree[i] = better(tree[2 * i], tree[2 * i + 1], ranking);
+        }
+        return tree;
+    }
+
+    private int best(int[] tree, int from, int to, ProductAutocomplete.Ranking ranking) {
+        final int n = entryProducts.length;
+        int best = -1;
+        for (int low = from + n, high = to + n; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                best = better(best, tree[low++], ranking);
+            }
+            if ((high & 1) == 1) {
+                best = better(best, tree[--high], ranking);
+            }
+        }
+        return best;
+    }
+
+    private int better(int a, int b, ProductAutocomplete.Ranking ranking) {
+        if (a < 0) {
+            return b;
+        }
+        final int cmp = ranking == ProductAutocomplete.Ranking.STOCK
+                ? Integer.compare(stocks[entryProducts[b]], stocks[entryProducts[a]])
+                : Double.compare(prices[entryProducts[a]], prices[entryProducts[b]]);
+        return cmp < 0 || (cmp == 0 && a < b) ? a : b;
+    }
+
+    /**
+     * @return the position of the product or a negative value, if it is not part of the index
+     */
+    int ordinal(String id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    int entries() {
+        return entryProducts.length;
+    }
+
+    int nodes() {
+        return nodeLabels.length;
+    }
+
+    String id(int product) {
+        return ids[product];
+    }
+
+    String name(int product) {
+        return new String(names, nameOffsets[product], nameOffsets[product + 1] - nameOffsets[product]);
+    }
+
+    double price(int product) {
+        return prices[product];
+    }
+
+    int stock(int product) {
+        return stocks[product];
+    }
+
+    /**
+     * @return an estimate of the heap used, ids are assumed to be latin1 strings
+     */
+    long memoryBytes() {
+        long bytes = 0;
+        for (String id : ids) {
+            bytes += 40 + id.length();
+        }
+        bytes += 16 + 4L * ids.length;
+        bytes += 16 + 2L * names.length + 16 + 4L * nameOffsets.length;
+        bytes += 16 + 8L * prices.length + 16 + 4L * stocks.length;
+        bytes += 2 * (16 + 4L * entryProducts.length);
+        bytes += 16 + 2L * nodeLabels.length + 3 * (16 + 4L * nodeLabels.length) + 4;
+        bytes += 2 * (16 + 4L * stockTree.length);
+        return bytes;
+    }
+
+    private static final class Nodes {
+        private char[] labels = new char[16];
+        private int[] childStarts = new int[16];
+        private int[] entryStarts = new int[16];
+        private int[] entryEnds = new int[16];
+        private int[] depths = new int[16];
+        private int count = 0;
+
+        void add(char label, int entryStart, int entryEnd, int depth) {
+            ensureCapacity(count + 1);
+            labels[count] = label;
+            entryStarts[count] = entryStart;
+            entryEnds[count] = entryEnd;
+            depths[count] = depth;
+            count++;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > labels.length) {
+                final int length = Math.max(capacity, labels.length * 2);
+                labels = Arrays.copyOf(labels, length);
+                childStarts = Arrays.copyOf(childStarts, length);
+                entryStarts = Arrays.copyOf(entryStarts, length);
+                entryEnds = Arrays.copyOf(entryEnds, length);
+                depths = Arrays.copyOf(depths, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.spinscale.restclient;
+
+import java.time.Duration;
+
+/**
+ * Point in time view of the size of a {@link ProductAutocomplete}
+ */
+public class AutocompleteStats {
+
+    private final int products;
+    private final int entries;
+    private final int nodes;
+    private final int pendingChanges;
+    private final long memoryBytes;
+    private final long rebuilds;
+    private final Duration lastRebuildTime;
+
+    public AutocompleteStats(int products, int entries, int nodes, int pendingChanges, long memoryBytes, long rebuilds,
+                             Duration lastRebuildTime) {
+        this.products = products;
+        this.entries = entries;
+        this.nodes = nodes;
+        this.pendingChanges = pendingChanges;
+        this.memoryBytes = memoryBytes;
+        this.rebuilds = rebuilds;
+        this.lastRebuildTime = lastRebuildTime;
+    }
+
+    /**
+     * @return the number of products in the compact index, not counting pending changes
+     */
+    public int getProducts() {
+        return products;
+    }
+
+    /**
+     * @return the number of indexed words
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of products saved since the last rebuild, which are searched one by one
+     */
+    public int getPendingChanges() {
+        return pendingChanges;
+    }
+
+    /**
+     * @return an estimate of the heap used by the compact index
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    public Duration getLastRebuildTime() {
+        return lastRebuildTime;
+    }
+
+    @Override
+    public String toString() {
+        return "products [" + products + "], entries [" + entries + "], nodes [" + nodes + "], pending changes [" +
+                pendingChanges + "], memory [" + memoryBytes + "b], rebuilds [" + rebuilds + "], last rebuild time [" +
+                lastRebuildTime + "]";
+    }
+}
@@ -0,0 +1,406 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import org.elasticsearch.client.ResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects products from any number of threads and sends them in bulk requests in the
+ * background. A bulk is sent once it reaches {@code maxDocuments} documents or
+ * {@code maxBytes} estimated bytes, or when its oldest document has been waiting for
+ * {@code flushInterval}.
+ *
+ * At most {@code maxConcurrentRequests} bulk requests are in flight, further flushes block
+ * the calling thread until a request finishes. Items rejected with a 429 or a 5xx status
+ * are retried with exponential backoff and jitter, all other failures complete the item's
+ * future exceptionally. A retry is dropped if a newer save of the same product has been
+ * added meanwhile, so that it cannot overwrite the newer document, its future completes
+ * with the newer save.
+ */
+public class BulkIndexer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIndexer.class);
+
+    // rough size of the action line and the JSON keys of a product
+    private static final int ITEM_OVERHEAD_BYTES = 128;
+
+    private final ElasticsearchAsyncClient client;
+    private final String index;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final long flushIntervalNanos;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final Semaphore inFlight;
+    private final ProductServiceMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final Set<CompletableFuture<String>> outstanding = ConcurrentHashMap.newKeySet();
+    // the last added item of every product id, that is not done yet
+    private final Map<String, Item> latestById = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+    private List<Item> items = new ArrayList<>();
+    private long bytes = 0;
+    private long firstItemNanos = 0;
+    private boolean closed = false;
+
+    private BulkIndexer(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.maxDocuments = builder.maxDocuments;
+        this.maxBytes = builder.maxBytes;
+        this.flushIntervalNanos = builder.flushInterval.toNanos();
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoffMillis = builder.initialBackoff.toMillis();
+        this.inFlight = new Semaphore(builder.maxConcurrentRequests);
+        this.metrics = builder.metrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bulk-indexer-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long tick = Math.max(1, builder.flushInterval.toMillis() / 2);
+        scheduler.scheduleWithFixedDelay(this::flushIfExpired, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(ElasticsearchAsyncClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    /**
+     * Queues a product for indexing. The returned future completes with the id of the
+     * indexed document, the id is also set on the product.
+     */
+    public CompletableFuture<String> add(Product product) {
+        final Item item = new Item(product);
+        List<Item> toSend = null;
+        // checked under the lock, so that close() either sees the item in its flush or add() sees it closed
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("bulk indexer is closed"));
+            }
+            outstanding.add(item.future);
+            item.future.whenComplete((id, throwable) -> outstanding.remove(item.future));
+            if (item.id != null) {
+                final Item previous = latestById.put(item.id, item);
+                if (previous != null) {
+                    previous.supersededBy = item;
+                }
+                item.future.whenComplete((id, throwable) -> latestById.remove(item.id, item));
+            }
+            if (items.isEmpty()) {
+                firstItemNanos = System.nanoTime();
+            }
+            items.add(item);
+            bytes += estimateSize(product);
+            if (items.size() >= maxDocuments || bytes >= maxBytes) {
+                toSend = takeItems();
+            }
+        }
+        if (toSend != null) {
+            send(toSend);
+        }
+        return item.future;
+    }
+
+    /**
+     * Sends all queued products right away, without waiting for the bulk to fill up
+     */
+    public void flush() {
+        final List<Item> toSend;
+        synchronized (lock) {
+            toSend = takeItems();
+        }
+        if (toSend.isEmpty() == false) {
+            send(toSend);
+        }
+    }
+
+    /**
+     * Flushes the remaining products and waits until all of them, including retries, are done
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+        try {
+            CompletableFuture.allOf(outstanding.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            // individual failures have been reported through the futures returned by add()
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private void flushIfExpired() {
+        final List<Item> toSend;
+        synchronized (lock) {
+            if (items.isEmpty() || System.nanoTime() - firstItemNanos < flushIntervalNanos) {
+                return;
+            }
+            toSend = takeItems();
+        }
+        send(toSend);
+    }
+
+    private List<Item> takeItems() {
+        final List<Item> result = items;
+        items = new ArrayList<>();
+        bytes = 0;
+        return result;
+    }
+
+    private void send(List<Item> batch) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.forEach(item -> item.future.completeExceptionally(e));
+            return;
+        }
+
+        final CompletableFuture<BulkResponse> response;
+        try {
+            response = client.bulk(builder -> {
+                builder.index(index);
+                for (Item item : batch) {
+                    final Product product = item.product;
+                    builder.operations(ob -> {
+                        if (product.getId() != null) {
+                            ob.index(ib -> ib.document(product).id(product.getId()));
+                        } else {
+                            ob.index(ib -> ib.document(product));
+                        }
+                        return ob;
+                    });
+                }
+                return builder;
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            batch.forEach(item -> item.future.completeExceptionally(e));
+            return;
+        }
+
+        response.whenComplete((bulkResponse, throwable) -> {
+            inFlight.release();
+            if (throwable != null) {
+                onRequestFailure(batch, throwable);
+            } else {
+                onResponse(batch, bulkResponse);
+            }
+        });
+    }
+
+    private void onResponse(List<Item> batch, BulkResponse response) {
+        final List<Item> retries = new ArrayList<>();
+        final List<BulkResponseItem> responseItems = response.items();
+        if (metrics != null) {
+            metrics.recordTook(ProductServiceMetrics.Operation.SAVE, response.took());
+            metrics.recordBulk(batch.size(), (int) responseItems.stream().filter(item -> item.error() != null).count());
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            final Item item = batch.get(i);
+            final BulkResponseItem responseItem = responseItems.get(i);
+            if (responseItem.error() == null) {
+                item.product.setId(responseItem.id());
+                item.future.complete(responseItem.id());
+            } else if (isRetryable(responseItem.status()) && item.attempts < maxRetries) {
+                retries.add(item);
+            } else {
+                item.future.completeExceptionally(new IOException("failed to index document [" + responseItem.id() +
+                        "], status [" + responseItem.status() + "]: " + responseItem.error().reason()));
+            }
+        }
+        retry(retries);
+    }
+
+    private void onRequestFailure(List<Item> batch, Throwable throwable) {
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        final List<Item> retries = new ArrayList<>();
+        for (Item item : batch) {
+            if (isRetryable(cause) && item.attempts < maxRetries) {
+                retries.add(item);
+            } else {
+                item.future.completeExceptionally(cause);
+            }
+        }
+        retry(retries);
+    }
+
+    private void retry(List<Item> retries) {
+        if (retries.isEmpty()) {
+            return;
+        }
+        int attempts = 0;
+        for (Item item : retries) {
+            attempts = Math.max(attempts, ++item.attempts);
+        }
+        // at least half of the exponential delay, the other half is random, so that clients do not retry in lockstep
+        final long delay = initialBackoffMillis << Math.min(attempts - 1, 16);
+        final long backoff = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        logger.debug("retrying [{}] bulk items in [{}ms], attempt [{}]", retries.size(), backoff, attempts);
+        scheduler.schedule(() -> {
+            final List<Item> current = withoutSuperseded(retries);
+            if (current.isEmpty() == false) {
+                send(current);
+            }
+        }, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    // a retry must not overwrite a newer save of the same product, that has been added during the backoff
+    private List<Item> withoutSuperseded(List<Item> retries) {
+        final List<Item> current = new ArrayList<>(retries.size());
+        for (Item item : retries) {
+            final Item newer = item.supersededBy;
+            if (newer == null) {
+                current.add(item);
+                continue;
+            }
+            logger.debug("dropping retry of document [{}], a newer save replaces it", item.id);
+            newer.future.whenComplete((id, throwable) -> {
+                if (throwable != null) {
+                    item.future.completeExceptionally(throwable);
+                } else {
+                    item.product.setId(id);
+                    item.future.complete(id);
+                }
+            });
+        }
+        return current;
+    }
+
+    static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    static boolean isRetryable(Throwable throwable) {
+        final int status = status(throwable);
+        // connection problems and the like, there is no status to look at
+        return status < 0 ? throwable instanceof IOException : isRetryable(status);
+    }
+
+    /**
+     * @return the HTTP status of a failed request, -1 if the request failed without a response
+     */
+    static int status(Throwable throwable) {
+        if (throwable instanceof ElasticsearchException e) {
+            return e.status();
+        }
+        if (throwable instanceof ResponseException e) {
+            return e.getResponse().getStatusLine().getStatusCode();
+        }
+        if (throwable.getCause() instanceof ResponseException e) {
+            return e.getResponse().getStatusLine().getStatusCode();
+        }
+        return -1;
+    }
+
+    static long estimateSize(Product product) {
+        long size = ITEM_OVERHEAD_BYTES;
+        if (product.getId() != null) {
+            size += product.getId().length();
+        }
+        if (product.getName() != null) {
+            size += product.getName().length();
+        }
+        if (product.getDescription() != null) {
+            size += product.getDescription().length();
+        }
+        return size;
+    }
+
+    private static final class Item {
+        private final Product product;
+        private final String id;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private int attempts = 0;
+        private volatile Item supersededBy;
+
+        private Item(Product product) {
+            this.product = product;
+            this.id = product.getId();
+        }
+    }
+
+    public static final class Builder {
+        private final ElasticsearchAsyncClient client;
+        private final String index;
+        private int maxDocuments = 1000;
+        private long maxBytes = 5 * 1024 * 1024;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private int maxConcurrentRequests = 2;
+        private int maxRetries = 3;
+        private Duration initialBackoff = Duration.ofMillis(100);
+        private ProductServiceMetrics metrics;
+
+        private Builder(ElasticsearchAsyncClient client, String index) {
+            this.client = client;
+            this.index = index;
+        }
+
+        public Builder maxDocuments(int maxDocuments) {
+            this.maxDocuments = maxDocuments;
+            return this;
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        /**
+         * @param metrics records took times and the number of sent and failed items of every bulk request
+         */
+        public Builder metrics(ProductServiceMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public BulkIndexer build() {
+            return new BulkIndexer(this);
+        }
+    }
+}
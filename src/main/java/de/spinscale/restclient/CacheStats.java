@@ -0,0 +1,70 @@
+package de.spinscale.restclient;
+
+/**
+ * Point in time view of the counters of a cache
+ */
+public class CacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long coalesced;
+    private final long evictions;
+    private final long expirations;
+    private final int size;
+    private final long weight;
+
+    public CacheStats(long hits, long misses, long coalesced, long evictions, long expirations, int size, long weight) {
+        this.hits = hits;
+        this.misses = misses;
+        this.coalesced = coalesced;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of misses, that did not trigger a load, but waited for a load already running
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return the number of entries removed because the cache was over its size or weight limit
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public double getHitRate() {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "hits [" + hits + "], misses [" + misses + "], coalesced [" + coalesced + "], evictions [" + evictions +
+                "], expirations [" + expirations + "], size [" + size + "], weight [" + weight + "]";
+    }
+}
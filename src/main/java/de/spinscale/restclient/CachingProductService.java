@@ -0,0 +1,256 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-through cache for {@link #findById(String)} in front of another product service.
+ *
+ * Entries are bounded by count and by an estimated weight in bytes and expire after a time
+ * to live, so changes made by other writers show up eventually. Saves through this service
+ * replace the cached entry right away. The cache stores copies, so callers may modify the
+ * returned products without affecting other readers.
+ */
+public class CachingProductService implements ProductService {
+
+    private final ProductService delegate;
+    private final TtlCache<String, Product> cache;
+
+    private CachingProductService(Builder builder) {
+        this.delegate = builder.delegate;
+        this.cache = new TtlCache<>(builder.maximumEntries, builder.maximumWeight, builder.ttl,
+                CachingProductService::weigh, builder.ticker);
+    }
+
+    public static Builder builder(ProductService delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        return copy(cache.get(id, () -> copy(delegate.findById(id))));
+    }
+
+    /**
+     * Always read from the delegate, cached products do not know their sequence number
+     */
+    @Override
+    public VersionedProduct findVersionedById(String id) throws IOException {
+        return delegate.findVersionedById(id);
+    }
+
+    /**
+     * Serves all cached products from the cache and fetches the remaining ones with a single call to the delegate
+     */
+    @Override
+    public List<Optional<Product>> findByIds(Collection<String> ids) throws IOException {
+        final List<Optional<Product>> products = new ArrayList<>(ids.size());
+        final List<String> missing = new ArrayList<>();
+        final List<Integer> missingPositions = new ArrayList<>();
+        for (String id : ids) {
+            final Product cached = cache.get(id);
+            if (cached == null) {
+                missing.add(id);
+                missingPositions.add(products.size());
+            }
+            products.add(Optional.ofNullable(copy(cached)));
+        }
+
+        if (missing.isEmpty() == false) {
+            final List<Optional<Product>> loaded = delegate.findByIds(missing);
+            for (int i = 0; i < loaded.size(); i++) {
+                final Optional<Product> product = loaded.get(i);
+                product.ifPresent(p -> cache.put(p.getId(), copy(p)));
+                products.set(missingPositions.get(i), product);
+            }
+        }
+        return products;
+    }
+
+    @Override
+    public Page<Product> search(String query) throws IOException {
+        return delegate.search(query);
+    }
+
+    @Override
+    public Page<Product> search(String query, Duration keepAlive) throws IOException {
+        return delegate.search(query, keepAlive);
+    }
+
+    @Override
+    public List<Page<Product>> searchBatch(List<PageRequest> requests) throws IOException {
+        return delegate.searchBatch(requests);
+    }
+
+    @Override
+    public FacetedPage searchWithFacets(String query, int size, FacetRequest facets) throws IOException {
+        return delegate.searchWithFacets(query, size, facets);
+    }
+
+    @Override
+    public Page<Product> next(Page page) throws IOException {
+        return delegate.next(page);
+    }
+
+    @Override
+    public void close(Page page) throws IOException {
+        delegate.close(page);
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        if (product.getId() != null) {
+            cache.invalidate(product.getId());
+        }
+        delegate.save(product);
+        cacheSaved(product);
+    }
+
+    @Override
+    public void save(List<Product> products) throws IOException {
+        for (Product product : products) {
+            if (product.getId() != null) {
+                cache.invalidate(product.getId());
+            }
+        }
+        delegate.save(products);
+        for (Product product : products) {
+            cacheSaved(product);
+        }
+    }
+
+    // products without id after the save have not been indexed, a generated id is only set on success
+    private void cacheSaved(Product product) {
+        if (product.getId() != null) {
+            cache.put(product.getId(), copy(product));
+        }
+    }
+
+    /**
+     * Batches are not put into the cache, saving one only invalidates the saved ids
+     */
+    @Override
+    public void save(ProductBatch batch) throws IOException {
+        invalidateIds(batch);
+        delegate.save(batch);
+        invalidateIds(batch);
+    }
+
+    @Override
+    public VersionedProduct save(VersionedProduct product) throws IOException {
+        cache.invalidate(product.getProduct().getId());
+        final VersionedProduct saved = delegate.save(product);
+        cache.put(product.getProduct().getId(), copy(product.getProduct()));
+        return saved;
+    }
+
+    @Override
+    public void update(ProductUpdate update) throws IOException {
+        update(List.of(update));
+    }
+
+    /**
+     * Updates are applied by Elasticsearch, so the cached products are only invalidated
+     */
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        updates.forEach(update -> cache.invalidate(update.getId()));
+        try {
+            delegate.update(updates);
+        } finally {
+            updates.forEach(update -> cache.invalidate(update.getId()));
+        }
+    }
+
+    private void invalidateIds(ProductBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.hasId(i)) {
+                cache.invalidate(batch.getId(i));
+            }
+        }
+    }
+
+    public void invalidate(String id) {
+        cache.invalidate(id);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    // object header, fields and the string headers, plus two bytes per char
+    static long weigh(Product product) {
+        long weight = 96;
+        if (product.getId() != null) {
+            weight += 2L * product.getId().length();
+        }
+        if (product.getName() != null) {
+            weight += 2L * product.getName().length();
+        }
+        if (product.getDescription() != null) {
+            weight += 2L * product.getDescription().length();
+        }
+        return weight;
+    }
+
+    static Product copy(Product product) {
+        if (product == null) {
+            return null;
+        }
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setDescription(product.getDescription());
+        copy.setPrice(product.getPrice());
+        copy.setStockAvailable(product.getStockAvailable());
+        return copy;
+    }
+
+    public static final class Builder {
+        private final ProductService delegate;
+        private long maximumEntries = 10_000;
+        private long maximumWeight = 64 * 1024 * 1024;
+        private Duration ttl = Duration.ofMinutes(1);
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder(ProductService delegate) {
+            this.delegate = delegate;
+        }
+
+        public Builder maximumEntries(long maximumEntries) {
+            this.maximumEntries = maximumEntries;
+            return this;
+        }
+
+        /**
+         * @param maximumWeight the maximum estimated heap usage of all cached products in bytes
+         */
+        public Builder maximumWeight(long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        Builder ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public CachingProductService build() {
+            return new CachingProductService(this);
+        }
+    }
+}
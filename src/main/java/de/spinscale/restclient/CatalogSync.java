@@ -0,0 +1,211 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Level;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.indices.IndicesStatsResponse;
+import co.elastic.clients.elasticsearch.indices.stats.IndicesStats;
+import co.elastic.clients.elasticsearch.indices.stats.ShardStats;
+import co.elastic.clients.json.JsonData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mirrors the product index into another store, by reading only the products that changed since the last sync.
+ *
+ * Every write to a shard gets the next sequence number of that shard. A sync reads the global checkpoint of
+ * every shard from the index stats, the sequence number up to which all operations are processed on all
+ * copies of the shard and can not be rolled back anymore. Shards whose global checkpoint did not move are
+ * skipped, for all others the products with a sequence number between the synced checkpoint and the global
+ * checkpoint are read in batches sorted by sequence number. A sync without changes costs a single stats
+ * request, so syncing often is cheap and the cost follows the number of changes, not the size of the catalog.
+ *
+ * Deleted products are not reported, only their absence would tell. Products changed several times between
+ * two syncs are reported once, in their latest version.
+ */
+public class CatalogSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogSync.class);
+
+    static final String SEQ_NO = "_seq_no";
+
+    /**
+     * Receives the changed products of a sync
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called with every batch of changed products of a shard, sorted by sequence number. The checkpoint is
+         * advanced once this returns, if it throws, the sync stops and the batch is read again by the next sync.
+         */
+        void onChanges(List<VersionedProduct> changes) throws IOException;
+    }
+
+    private final ElasticsearchClient client;
+    private final String index;
+    private final int batchSize;
+    private volatile SyncCheckpoint checkpoint;
+
+    private CatalogSync(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.batchSize = builder.batchSize;
+        this.checkpoint = builder.checkpoint;
+    }
+
+    public static Builder builder(ElasticsearchClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    /**
+     * Hands all products changed since the last sync to the listener
+     *
+     * @return the number of changed products
+     */
+    public synchronized long sync(ChangeListener listener) throws IOException {
+        final IndicesStatsResponse response = client.indices().stats(b -> b.index(index).level(Level.Shards).metric("docs"));
+        if (response.indices().size() != 1) {
+            throw new IllegalStateException("index [" + index + "] has to resolve to a single index, but resolved to " +
+                    response.indices().keySet());
+        }
+        final Map.Entry<String, IndicesStats> entry = response.indices().entrySet().iterator().next();
+        final String concreteIndex = entry.getKey();
+        final String indexUuid = entry.getValue().uuid() != null ? entry.getValue().uuid() : concreteIndex;
+
+        SyncCheckpoint current = checkpoint;
+        if (indexUuid.equals(current.getIndexUuid()) == false) {
+            if (current.getIndexUuid() != null) {
+                logger.info("index [{}] now points to [{}], syncing all products again", index, concreteIndex);
+            }
+            current = new SyncCheckpoint(indexUuid, Map.of());
+        }
+
+        final Map<Integer, Long> globalCheckpoints = globalCheckpoints(entry.getValue());
+        final List<Integer> changedShards = new ArrayList<>();
+        for (Map.Entry<Integer, Long> shard : globalCheckpoints.entrySet()) {
+            if (shard.getValue() > current.getSeqNo(shard.getKey())) {
+                changedShards.add(shard.getKey());
+            }
+        }
+        checkpoint = current;
+        if (changedShards.isEmpty()) {
+            return 0;
+        }
+
+        // everything up to the global checkpoint is processed, a refresh makes it visible to search
+        client.indices().refresh(b -> b.index(concreteIndex));
+        long changes = 0;
+        for (int shard : changedShards) {
+            final long globalCheckpoint = globalCheckpoints.get(shard);
+            long from = current.getSeqNo(shard);
+            while (true) {
+                final SearchResponse<Product> searchResponse =
+                        client.search(createChangesRequest(concreteIndex, shard, from, globalCheckpoint, batchSize), Product.class);
+                final List<Hit<Product>> hits = searchResponse.hits().hits();
+                if (hits.isEmpty() == false) {
+                    final List<VersionedProduct> products = toVersionedProducts(hits);
+                    listener.onChanges(products);
+                    changes += products.size();
+                    from = products.get(products.size() - 1).getSeqNo();
+                    current = current.withSeqNo(shard, from);
+                    checkpoint = current;
+                }
+                if (hits.size() < batchSize) {
+                    break;
+                }
+            }
+            // the remaining sequence numbers belong to deletes or to products overwritten since
+            current = current.withSeqNo(shard, globalCheckpoint);
+            checkpoint = current;
+        }
+        logger.debug("synced [{}] changed products of index [{}], checkpoint [{}]", changes, index, current);
+        return changes;
+    }
+
+    /**
+     * @return the checkpoint up to which all changes have been handed to a listener
+     */
+    public SyncCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    static Map<Integer, Long> globalCheckpoints(IndicesStats stats) {
+        final Map<Integer, Long> globalCheckpoints = new TreeMap<>();
+        for (Map.Entry<String, List<ShardStats>> shard : stats.shards().entrySet()) {
+            for (ShardStats copy : shard.getValue()) {
+                if (copy.routing() != null && copy.routing().primary() && copy.seqNo() != null) {
+                    globalCheckpoints.put(Integer.parseInt(shard.getKey()), copy.seqNo().globalCheckpoint());
+                }
+            }
+        }
+        return globalCheckpoints;
+    }
+
+    /**
+     * Searches the products of a single shard with a sequence number in {@code (from, to]}, lowest first
+     */
+    static SearchRequest createChangesRequest(String index, int shard, long from, long to, int size) {
+        return SearchRequest.of(b -> b
+                .index(index)
+                .preference("_shards:" + shard)
+                .query(q -> q.range(r -> r.field(SEQ_NO).gt(JsonData.of(from)).lte(JsonData.of(to))))
+                .sort(s -> s.field(f -> f.field(SEQ_NO).order(SortOrder.Asc)))
+                .seqNoPrimaryTerm(true)
+                .trackTotalHits(t -> t.enabled(false))
+                .size(size));
+    }
+
+    private static List<VersionedProduct> toVersionedProducts(List<Hit<Product>> hits) {
+        final List<VersionedProduct> products = new ArrayList<>(hits.size());
+        for (Hit<Product> hit : hits) {
+            final Product product = hit.source();
+            product.setId(hit.id());
+            products.add(new VersionedProduct(product, hit.seqNo(), hit.primaryTerm()));
+        }
+        return products;
+    }
+
+    public static final class Builder {
+        private final ElasticsearchClient client;
+        private final String index;
+        private int batchSize = 1000;
+        private SyncCheckpoint checkpoint = SyncCheckpoint.empty();
+
+        private Builder(ElasticsearchClient client, String index) {
+            this.client = client;
+            this.index = index;
+        }
+
+        /**
+         * @param batchSize the number of products read with a single search and handed to the listener at once
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batch size must be positive, was [" + batchSize + "]");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param checkpoint the checkpoint of the last sync, to only read products changed since
+         */
+        public Builder checkpoint(SyncCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public CatalogSync build() {
+            return new CatalogSync(this);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package de.spinscale.restclient;
+
+import de.spinscale.restclient.ResilienceStats.CircuitState;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Count based circuit breaker. The outcomes of the last {@code windowSize} calls are kept, once
+ * at least {@code minimumCalls} were recorded and either the failure rate or the rate of slow
+ * calls reaches its threshold, the breaker opens and rejects all calls for {@code openNanos}.
+ * Afterwards it lets {@code halfOpenCalls} probes through, if all of them succeed in time the
+ * breaker closes again, otherwise it opens for another round.
+ */
+final class CircuitBreaker {
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final LongSupplier ticker;
+
+    // ring buffer of the outcomes of the last calls
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int position = 0;
+    private int recorded = 0;
+    private int failureCount = 0;
+    private int slowCallCount = 0;
+
+    private CircuitState state = CircuitState.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+    private long opened = 0;
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, double slowCallRateThreshold,
+                   long slowCallNanos, long openNanos, int halfOpenCalls, LongSupplier ticker) {
+        this.failures = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallNanos;
+        this.openNanos = openNanos;
+        this.halfOpenCalls = halfOpenCalls;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return true if the call may be sent, every acquired call has to be followed by {@link #record(boolean, long)}
+     * or {@link #release()}
+     */
+    synchronized boolean tryAcquire() {
+        if (state == CircuitState.OPEN) {
+            if (ticker.getAsLong() - openedAt < openNanos) {
+                return false;
+            }
+            state = CircuitState.HALF_OPEN;
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == CircuitState.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back an acquired call, that was never sent
+     */
+    synchronized void release() {
+        if (state == CircuitState.HALF_OPEN) {
+            halfOpenPermits++;
+        }
+    }
+
+    synchronized void record(boolean failure, long nanos) {
+        final boolean slow = nanos >= slowCallNanos;
+        if (state == CircuitState.HALF_OPEN) {
+            if (failure || slow) {
+                open();
+            } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                close();
+            }
+            return;
+        }
+        if (state == CircuitState.OPEN) {
+            // a call that was sent before the breaker opened
+            return;
+        }
+
+        if (recorded == failures.length) {
+            failureCount -= failures[position] ? 1 : 0;
+            slowCallCount -= slowCalls[position] ? 1 : 0;
+        } else {
+            recorded++;
+        }
+        failures[position] = failure;
+        slowCalls[position] = slow;
+        failureCount += failure ? 1 : 0;
+        slowCallCount += slow ? 1 : 0;
+        position = (position + 1) % failures.length;
+
+        if (recorded >= minimumCalls && (failureRate() >= failureRateThreshold || slowCallRate() >= slowCallRateThreshold)) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = CircuitState.OPEN;
+        openedAt = ticker.getAsLong();
+        opened++;
+    }
+
+    private void close() {
+        state = CircuitState.CLOSED;
+        position = 0;
+        recorded = 0;
+        failureCount = 0;
+        slowCallCount = 0;
+    }
+
+    synchronized CircuitState state() {
+        // report the transition to half open even before the next call
+        if (state == CircuitState.OPEN && ticker.getAsLong() - openedAt >= openNanos) {
+            return CircuitState.HALF_OPEN;
+        }
+        return state;
+    }
+
+    synchronized double failureRate() {
+        return recorded == 0 ? 0 : (double) failureCount / recorded;
+    }
+
+    synchronized double slowCallRate() {
+        return recorded == 0 ? 0 : (double) slowCallCount / recorded;
+    }
+
+    /**
+     * @return how often the breaker opened
+     */
+    synchronized long opened() {
+        return opened;
+    }
+}
@@ -0,0 +1,302 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClientBuilder;
+
+import javax.net.ssl.SSLContext;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything {@link ElasticsearchClientFactory} needs to know to create a client: where the cluster is,
+ * how to authenticate and how the HTTP transport is tuned.
+ *
+ * Connection pool and timeout defaults are the ones of the low level rest client. Compression is enabled
+ * by default, request bodies are sent gzipped and responses are requested gzipped, which shrinks JSON to a
+ * fraction of its size for a bit of CPU on both sides. Disable it if client and cluster are in the same
+ * network and bandwidth is cheaper than CPU.
+ */
+public class ClientConfig {
+
+    private final List<HttpHost> hosts;
+    private final String cloudId;
+    private final String username;
+    private final String password;
+    private final String apiKey;
+    private final SSLContext sslContext;
+    private final boolean compression;
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+    private final int ioThreads;
+    private final Duration connectTimeout;
+    private final Duration socketTimeout;
+    private final Duration connectionRequestTimeout;
+    private final Duration keepAlive;
+    private final NodeSelector nodeSelector;
+    private final ProductServiceMetrics metrics;
+    private final List<HttpRequestInterceptor> requestInterceptors;
+    private final List<HttpResponseInterceptor> responseInterceptors;
+
+    private ClientConfig(Builder builder) {
+        this.hosts = Collections.unmodifiableList(builder.hosts);
+        this.cloudId = builder.cloudId;
+        this.username = builder.username;
+        this.password = builder.password;
+        this.apiKey = builder.apiKey;
+        this.sslContext = builder.sslContext;
+        this.compression = builder.compression;
+        this.maxConnections = builder.maxConnections;
+        this.maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+        this.ioThreads = builder.ioThreads;
+        this.connectTimeout = builder.connectTimeout;
+        this.socketTimeout = builder.socketTimeout;
+        this.connectionRequestTimeout = builder.connectionRequestTimeout;
+        this.keepAlive = builder.keepAlive;
+        this.nodeSelector = builder.nodeSelector;
+        this.metrics = builder.metrics;
+        this.requestInterceptors = Collections.unmodifiableList(builder.requestInterceptors);
+        this.responseInterceptors = Collections.unmodifiableList(builder.responseInterceptors);
+    }
+
+    public static Builder builder(HttpHost... hosts) {
+        if (hosts.length == 0) {
+            throw new IllegalArgumentException("at least one host is required");
+        }
+        return new Builder(List.of(hosts), null);
+    }
+
+    /**
+     * @param cloudId the id of an Elastic Cloud deployment
+     */
+    public static Builder cloud(String cloudId) {
+        return new Builder(Collections.emptyList(), cloudId);
+    }
+
+    public List<HttpHost> getHosts() {
+        return hosts;
+    }
+
+    public String getCloudId() {
+        return cloudId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    String getApiKey() {
+        return apiKey;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return the number of IO reactor threads, 0 for one per processor
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public Duration getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * @return how long a request waits for a connection from the pool, null to wait forever
+     */
+    public Duration getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    public NodeSelector getNodeSelector() {
+        return nodeSelector;
+    }
+
+    public ProductServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    public List<HttpRequestInterceptor> getRequestInterceptors() {
+        return requestInterceptors;
+    }
+
+    public List<HttpResponseInterceptor> getResponseInterceptors() {
+        return responseInterceptors;
+    }
+
+    @Override
+    public String toString() {
+        return "hosts " + hosts + ", cloud id [" + cloudId + "], compression [" + compression + "], max connections [" +
+                maxConnections + "], max connections per route [" + maxConnectionsPerRoute + "], io threads [" + ioThreads +
+                "], connect timeout [" + connectTimeout + "], socket timeout [" + socketTimeout +
+                "], connection request timeout [" + connectionRequestTimeout + "], keep alive [" + keepAlive + "]";
+    }
+
+    public static final class Builder {
+        private final List<HttpHost> hosts;
+        private final String cloudId;
+        private String username;
+        private String password;
+        private String apiKey;
+        private SSLContext sslContext;
+        private boolean compression = true;
+        private int maxConnections = RestClientBuilder.DEFAULT_MAX_CONN_TOTAL;
+        private int maxConnectionsPerRoute = RestClientBuilder.DEFAULT_MAX_CONN_PER_ROUTE;
+        private int ioThreads = 0;
+        private Duration connectTimeout = Duration.ofMillis(RestClientBuilder.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        private Duration socketTimeout = Duration.ofMillis(RestClientBuilder.DEFAULT_SOCKET_TIMEOUT_MILLIS);
+        private Duration connectionRequestTimeout;
+        private Duration keepAlive = Duration.ofSeconds(30);
+        private NodeSelector nodeSelector;
+        private ProductServiceMetrics metrics;
+        private final List<HttpRequestInterceptor> requestInterceptors = new ArrayList<>();
+        private final List<HttpResponseInterceptor> responseInterceptors = new ArrayList<>();
+
+        private Builder(List<HttpHost> hosts, String cloudId) {
+            this.hosts = hosts;
+            this.cloudId = cloudId;
+        }
+
+        public Builder basicAuth(String username, String password) {
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * @param apiKey the base64 encoded id and key, as returned by the create API key API
+         */
+        public Builder apiKey(String apiKey) {
+            this.apiKey = apiKey;
+            return this;
+        }
+
+        public Builder sslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * @param compression gzips request bodies and asks for gzipped responses
+         */
+        public Builder compression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * @param maxConnections         the size of the connection pool
+         * @param maxConnectionsPerRoute the number of connections to a single node, at most {@code maxConnections}
+         */
+        public Builder maxConnections(int maxConnections, int maxConnectionsPerRoute) {
+            if (maxConnectionsPerRoute > maxConnections) {
+                throw new IllegalArgumentException("max connections per route [" + maxConnectionsPerRoute +
+                        "] must not exceed max connections [" + maxConnections + "]");
+            }
+            this.maxConnections = maxConnections;
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * @param ioThreads the number of threads handling all connections, 0 for one per processor
+         */
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param socketTimeout the maximum time without any data on a connection, long running searches need more
+         */
+        public Builder socketTimeout(Duration socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * @param connectionRequestTimeout how long a request waits for a free connection, when the pool is exhausted
+         */
+        public Builder connectionRequestTimeout(Duration connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        /**
+         * @param keepAlive how long idle connections are reused, keep it below the idle timeout of load balancers
+         *                  and firewalls between client and cluster, which drop connections silently
+         */
+        public Builder keepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Registers the interceptors and the failure listener as well, if the selector is an {@link AdaptiveNodeSelector}
+         */
+        public Builder nodeSelector(NodeSelector nodeSelector) {
+            this.nodeSelector = nodeSelector;
+            return this;
+        }
+
+        /**
+         * Counts the bytes sent to and received from Elasticsearch. Requests are counted as they went over the
+         * connection, after compression and including request line and headers. Responses are counted by their
+         * bodies as received, before they are decompressed. See {@link ProductServiceMetrics#responseInterceptor()}.
+         */
+        public Builder metrics(ProductServiceMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder requestInterceptor(HttpRequestInterceptor interceptor) {
+            this.requestInterceptors.add(interceptor);
+            return this;
+        }
+
+        public Builder responseInterceptor(HttpResponseInterceptor interceptor) {
+            this.responseInterceptors.add(interceptor);
+            return this;
+        }
+
+        public ClientConfig build() {
+            return new ClientConfig(this);
+        }
+    }
+}
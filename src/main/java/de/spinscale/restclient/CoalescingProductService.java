@@ -0,0 +1,277 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces identical concurrent searches in front of another product service. While a
+ * search for the same input, from and size is running, further callers wait for its response
+ * instead of sending their own request, so a trending query costs one search instead of
+ * hundreds.
+ *
+ * Optionally first pages are cached for a short time to live. Elasticsearch only makes
+ * changes visible with the next refresh, once per second by default, so a time to live up to
+ * the refresh interval of the index does not return anything a search could not have
+ * returned. Saves and updates through this service drop all cached pages.
+ *
+ * Searches on a point in time and batches of searches are never coalesced. Every caller gets
+ * its own copy of the products.
+ */
+public class CoalescingProductService implements ProductService {
+
+    private final ProductService delegate;
+    private final TtlCache<SearchKey, Page<Product>> firstPages;
+    private final Map<SearchKey, CompletableFuture<Page<Product>>> running = new ConcurrentHashMap<>();
+    // incremented on every write, pages loaded before a write are not cached
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    private CoalescingProductService(Builder builder) {
+        this.delegate = builder.delegate;
+        this.firstPages = builder.firstPageTtl.isZero() ? null : new TtlCache<>(builder.maximumCachedPages, Long.MAX_VALUE,
+                builder.firstPageTtl, CoalescingProductService::weigh, builder.ticker);
+    }
+
+    public static Builder builder(ProductService delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    public Page<Product> search(String query) throws IOException {
+        return copy(search(new SearchKey(query, 0, 10), () -> delegate.search(query)));
+    }
+
+    @Override
+    public FacetedPage searchWithFacets(String query, int size, FacetRequest facets) throws IOException {
+        return delegate.searchWithFacets(query, size, facets);
+    }
+
+    @Override
+    public Page<Product> next(Page page) throws IOException {
+        // prefetched pages are already copies and do not need another search
+        if (page.hasPointInTime() || page.getPrefetched() != null) {
+            return delegate.next(page);
+        }
+        final SearchKey key = new SearchKey(page.getInput(), page.getFrom() + page.getSize(), page.getSize());
+        return copy(search(key, () -> delegate.next(page)));
+    }
+
+    private Page<Product> search(SearchKey key, TtlCache.Loader<Page<Product>> loader) throws IOException {
+        searches.increment();
+        final boolean cacheable = firstPages != null && key.from() == 0;
+        if (cacheable) {
+            final Page<Product> cached = firstPages.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final CompletableFuture<Page<Product>> future = new CompletableFuture<>();
+        final CompletableFuture<Page<Product>> existing = running.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return Futures.await(existing);
+        }
+
+        final long loadGeneration = generation.get();
+        try {
+            final Page<Product> page = loader.load();
+            if (cacheable && page != null) {
+                synchronized (this) {
+                    if (generation.get() == loadGeneration) {
+                        firstPages.put(key, page);
+                    }
+                }
+            }
+            future.complete(page);
+            return page;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(key, future);
+        }
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public VersionedProduct findVersionedById(String id) throws IOException {
+        return delegate.findVersionedById(id);
+    }
+
+    @Override
+    public List<Optional<Product>> findByIds(Collection<String> ids) throws IOException {
+        return delegate.findByIds(ids);
+    }
+
+    @Override
+    public Page<Product> search(String query, Duration keepAlive) throws IOException {
+        return delegate.search(query, keepAlive);
+    }
+
+    @Override
+    public List<Page<Product>> searchBatch(List<PageRequest> requests) throws IOException {
+        return delegate.searchBatch(requests);
+    }
+
+    @Override
+    public void close(Page page) throws IOException {
+        delegate.close(page);
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        try {
+            delegate.save(product);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void save(List<Product> products) throws IOException {
+        try {
+            delegate.save(products);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void save(ProductBatch batch) throws IOException {
+        try {
+            delegate.save(batch);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public VersionedProduct save(VersionedProduct product) throws IOException {
+        try {
+            return delegate.save(product);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void update(ProductUpdate update) throws IOException {
+        try {
+            delegate.update(update);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        try {
+            delegate.update(updates);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Drops all cached pages, call this after writing to the index through another service
+     */
+    public void invalidateAll() {
+        if (firstPages != null) {
+            synchronized (this) {
+                generation.incrementAndGet();
+                firstPages.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of searches, including cache hits and coalesced ones
+     */
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    /**
+     * @return the number of searches, that waited for an identical running search
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public double getCoalescingRate() {
+        final long total = searches.sum();
+        return total == 0 ? 0 : (double) coalesced.sum() / total;
+    }
+
+    /**
+     * @return the statistics of the first page cache, all zero if the cache is disabled
+     */
+    public CacheStats firstPageCacheStats() {
+        return firstPages == null ? new CacheStats(0, 0, 0, 0, 0, 0, 0) : firstPages.stats();
+    }
+
+    private static Page<Product> copy(Page<Product> page) {
+        if (page == null || page == Page.EMPTY) {
+            return page;
+        }
+        final List<Product> products = page.get().stream().map(CachingProductService::copy).collect(Collectors.toList());
+        return new Page<>(products, page.getInput(), page.getFrom(), page.getSize(), copy(page.getPrefetched()));
+    }
+
+    private static long weigh(Page<Product> page) {
+        return page.get().stream().mapToLong(CachingProductService::weigh).sum();
+    }
+
+    private record SearchKey(String input, int from, int size) {
+    }
+
+    public static final class Builder {
+        private final ProductService delegate;
+        private Duration firstPageTtl = Duration.ZERO;
+        private long maximumCachedPages = 1000;
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder(ProductService delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * @param firstPageTtl how long first pages are cached, zero disables the cache. Should not be longer
+         *                     than the refresh interval of the index.
+         */
+        public Builder firstPageTtl(Duration firstPageTtl) {
+            this.firstPageTtl = firstPageTtl;
+            return this;
+        }
+
+        public Builder maximumCachedPages(long maximumCachedPages) {
+            this.maximumCachedPages = maximumCachedPages;
+            return this;
+        }
+
+        Builder ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public CoalescingProductService build() {
+            return new CoalescingProductService(this);
+        }
+    }
+}
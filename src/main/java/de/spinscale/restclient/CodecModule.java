@@ -0,0 +1,37 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import java.io.IOException;
+
+/**
+ * Jackson module, that hands (de)serialization of a document type to a {@link DocumentCodec}.
+ * Register it with the {@code ObjectMapper} of the {@code JacksonJsonpMapper}, and every
+ * {@code _source} the Elasticsearch client reads or writes goes through the codec.
+ */
+public class CodecModule<T> extends SimpleModule {
+
+    private static final long serialVersionUID = 1L;
+
+    public CodecModule(Class<T> type, DocumentCodec<T> codec) {
+        super("codec-" + type.getSimpleName());
+        addSerializer(type, new JsonSerializer<>() {
+            @Override
+            public void serialize(T value, JsonGenerator generator, SerializerProvider serializers) throws IOException {
+                codec.write(value, generator);
+            }
+        });
+        addDeserializer(type, new JsonDeserializer<>() {
+            @Override
+            public T deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+                return codec.read(parser);
+            }
+        });
+    }
+}
@@ -0,0 +1,448 @@
+package de.spinscale.restclient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of byte records in memory mapped segment files, which survives restarts of the process.
+ *
+ * Every record starts with a header holding its length, a CRC32C checksum and the time it was appended.
+ * Records are appended to the last segment, a new segment is started once a record does not fit anymore.
+ * Readers {@link #peek(int) peek} at the oldest records and {@link #commit(Batch) commit} them once they
+ * are processed, segments that were read completely are deleted. The read position is kept in a checkpoint
+ * file, records that were read but not committed before a crash are read again after a restart.
+ *
+ * On open, all segments are scanned and each one ends at the first record with a bad length or checksum,
+ * which is what a torn write of a crashed process looks like. Appended records survive a crash of the
+ * process as soon as the append returns, as they are in the page cache of the operating system. To also
+ * survive a power loss, enable {@code syncOnAppend}, which forces every append to disk.
+ */
+class DiskSpool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpool.class);
+
+    // length, checksum and timestamp
+    static final int HEADER_SIZE = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int CHECKPOINT_SIZE = 16;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean syncOnAppend;
+    private final LongSupplier clock;
+
+    // the first segment is read from, the last one is appended to
+    private final List<Segment> segments = new ArrayList<>();
+    private int readOffset = 0;
+    private long pendingRecords = 0;
+    private long pendingBytes = 0;
+    private long appended = 0;
+    private long committed = 0;
+    private long corrupted = 0;
+    private boolean closed = false;
+
+    DiskSpool(Path directory, int segmentSize, int maxSegments, boolean syncOnAppend, LongSupplier clock) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segment size must be larger than [" + HEADER_SIZE + "], was [" + segmentSize + "]");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.syncOnAppend = syncOnAppend;
+        this.clock = clock;
+        recover();
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        final List<Long> ids = listSegments();
+        final long[] checkpoint = readCheckpoint();
+        final long readSegment = checkpoint != null ? checkpoint[0] : ids.isEmpty() ? 1 : ids.get(0);
+        for (long id : ids) {
+            if (id < readSegment) {
+                // read completely, but not deleted before the last shutdown
+                Files.deleteIfExists(segmentPath(id));
+            } else {
+                segments.add(map(id));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(map(readSegment));
+        }
+        readOffset = checkpoint != null && segments.get(0).id == checkpoint[0] ? (int) checkpoint[1] : 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            final Segment segment = segments.get(i);
+            int offset = i == 0 ? readOffset : 0;
+            int length;
+            while ((length = validRecordLength(segment, offset)) > 0) {
+                pendingRecords++;
+                pendingBytes += length;
+                offset += HEADER_SIZE + length;
+            }
+            segment.end = offset;
+            if (length < 0) {
+                corrupted++;
+                if (i == segments.size() - 1) {
+                    logger.warn("truncating spool segment [{}] at offset [{}] after a torn write", segment.path, offset);
+                    // appends continue here, the garbage behind them must never look like a record
+                    for (int position = offset; position < segment.buffer.capacity(); position++) {
+                        segment.buffer.put(position, (byte) 0);
+                    }
+                } else {
+                    logger.warn("ignoring the rest of spool segment [{}] after a corrupted record at offset [{}]", segment.path, offset);
+                }
+            }
+        }
+        writeCheckpoint();
+    }
+
+    /**
+     * @return the length of the record at the offset, 0 at the end of the segment and -1 if the record is corrupted
+     */
+    private static int validRecordLength(Segment segment, int offset) {
+        final MappedByteBuffer buffer = segment.buffer;
+        if (offset + HEADER_SIZE > buffer.capacity()) {
+            return 0;
+        }
+        final int length = buffer.getInt(offset);
+        if (length == 0) {
+            return 0;
+        }
+        if (length < 0 || length > buffer.capacity() - offset - HEADER_SIZE) {
+            return -1;
+        }
+        return buffer.getInt(offset + 4) == checksum(buffer, offset, length) ? length : -1;
+    }
+
+    // covers the timestamp and the payload
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + 8, 8 + length));
+        return (int) crc.getValue();
+    }
+
+    synchronized void append(byte[] record) throws IOException {
+        append(List.of(record));
+    }
+
+    /**
+     * Appends all records or none of them
+     *
+     * @throws RejectedExecutionException if the records do not fit into {@code maxSegments} segments
+     */
+    synchronized void append(List<byte[]> records) throws IOException {
+        ensureOpen();
+        // find out how many segments are needed, before anything is written
+        int segmentCount = segments.size();
+        int capacity = segments.get(segmentCount - 1).buffer.capacity();
+        int end = segments.get(segmentCount - 1).end;
+        for (byte[] record : records) {
+            final int size = HEADER_SIZE + record.length;
+            if (size > segmentSize) {
+                throw new IllegalArgumentException("record of [" + record.length + "] bytes does not fit into a segment of [" +
+                        segmentSize + "] bytes");
+            }
+            if (end + size > capacity) {
+                segmentCount++;
+                capacity = segmentSize;
+                end = 0;
+            }
+            end += size;
+        }
+        if (segmentCount > maxSegments) {
+            throw new RejectedExecutionException("spool is full, [" + pendingRecords + "] records in [" + segments.size() +
+                    "] segments are pending");
+        }
+
+        final long timestamp = clock.getAsLong();
+        for (byte[] record : records) {
+            Segment segment = segments.get(segments.size() - 1);
+            if (segment.end + HEADER_SIZE + record.length > segment.buffer.capacity()) {
+                if (syncOnAppend) {
+                    segment.buffer.force();
+                }
+                segment = map(segment.id + 1);
+                segments.add(segment);
+            }
+            final MappedByteBuffer buffer = segment.buffer;
+            final int offset = segment.end;
+            buffer.putLong(offset + 8, timestamp);
+            buffer.put(offset + HEADER_SIZE, record);
+            buffer.putInt(offset + 4, checksum(buffer, offset, record.length));
+            // the length is written last, a record without length is not there
+            buffer.putInt(offset, record.length);
+            if (syncOnAppend) {
+                buffer.force(offset, HEADER_SIZE + record.length);
+            }
+            segment.end = offset + HEADER_SIZE + record.length;
+            pendingRecords++;
+            pendingBytes += record.length;
+            appended++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads up to {@code maxRecords} of the oldest records, without removing them
+     */
+    synchronized Batch peek(int maxRecords) {
+        ensureOpenUnchecked();
+        final List<byte[]> records = new ArrayList<>();
+        long bytes = 0;
+        int segmentIndex = 0;
+        int offset = readOffset;
+        while (records.size() < maxRecords) {
+            final Segment segment = segments.get(segmentIndex);
+            if (offset >= segment.end) {
+                if (segmentIndex == segments.size() - 1) {
+                    break;
+                }
+                segmentIndex++;
+                offset = 0;
+                continue;
+            }
+            final int length = segment.buffer.getInt(offset);
+            final byte[] record = new byte[length];
+            segment.buffer.get(offset + HEADER_SIZE, record);
+            records.add(record);
+            bytes += length;
+            offset += HEADER_SIZE + length;
+        }
+        return new Batch(records, bytes, segments.get(0).id, readOffset, segments.get(segmentIndex).id, offset);
+    }
+
+    /**
+     * Removes the records of the batch, batches have to be committed in the order they were peeked
+     */
+    synchronized void commit(Batch batch) throws IOException {
+        ensureOpen();
+        if (batch.fromSegment != segments.get(0).id || batch.fromOffset != readOffset) {
+            throw new IllegalStateException("batch does not start at the read position of the spool");
+        }
+        while (segments.get(0).id < batch.toSegment) {
+            Files.deleteIfExists(segments.remove(0).path);
+        }
+        readOffset = batch.toOffset;
+        // segments that will never be appended to again are deleted as soon as they are read
+        while (segments.size() > 1 && readOffset >= segments.get(0).end) {
+            Files.deleteIfExists(segments.remove(0).path);
+            readOffset = 0;
+        }
+        pendingRecords -= batch.records.size();
+        pendingBytes -= batch.bytes;
+        committed += batch.records.size();
+        writeCheckpoint();
+    }
+
+    /**
+     * Waits until there are records to read
+     *
+     * @return true if there are records to read
+     */
+    synchronized boolean awaitRecords(long timeoutMillis) throws InterruptedException {
+        if (pendingRecords == 0 && closed == false) {
+            wait(timeoutMillis);
+        }
+        return pendingRecords > 0 && closed == false;
+    }
+
+    synchronized long pendingRecords() {
+        return pendingRecords;
+    }
+
+    synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return the age of the oldest pending record in milliseconds, 0 if there is none
+     */
+    synchronized long lagMillis() {
+        if (pendingRecords == 0 || closed) {
+            return 0;
+        }
+        int segmentIndex = 0;
+        int offset = readOffset;
+        while (offset >= segments.get(segmentIndex).end) {
+            segmentIndex++;
+            offset = 0;
+        }
+        return Math.max(0, clock.getAsLong() - segments.get(segmentIndex).buffer.getLong(offset + 8));
+    }
+
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    synchronized long appended() {
+        return appended;
+    }
+
+    synchronized long committed() {
+        return committed;
+    }
+
+    /**
+     * @return the value {@link #committed()} reaches, once all records appended so far are committed
+     */
+    synchronized long appendedPosition() {
+        return committed + pendingRecords;
+    }
+
+    /**
+     * @return the number of corrupted records found when opening, everything behind them in their segment is lost
+     */
+    synchronized long corrupted() {
+        return corrupted;
+    }
+
+    /**
+     * Forces all segments to disk, pending records are read again when the spool is opened the next time
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+        notifyAll();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("spool [" + directory + "] is closed");
+        }
+    }
+
+    private void ensureOpenUnchecked() {
+        if (closed) {
+            throw new IllegalStateException("spool [" + directory + "] is closed");
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    // existing segments keep their size, even if the configured size changed in the meantime
+    private Segment map(long id) throws IOException {
+        final Path path = segmentPath(id);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size() > 0 ? channel.size() : segmentSize;
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * @return the segment id and offset of the read position or null, if there is no valid checkpoint
+     */
+    private long[] readCheckpoint() throws IOException {
+        final Path path = directory.resolve(CHECKPOINT);
+        if (Files.exists(path) == false) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.capacity() != CHECKPOINT_SIZE || buffer.getInt(12) != checkpointChecksum(buffer)) {
+            logger.warn("ignoring corrupted spool checkpoint [{}], reading all segments from the start", path);
+            return null;
+        }
+        return new long[] { buffer.getLong(0), buffer.getInt(8) };
+    }
+
+    private void writeCheckpoint() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        buffer.putLong(0, segments.get(0).id);
+        buffer.putInt(8, readOffset);
+        buffer.putInt(12, checkpointChecksum(buffer));
+        final Path tmp = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(tmp, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int checkpointChecksum(ByteBuffer buffer) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(0, 12));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Records read by {@link #peek(int)}, together with the position to continue reading from once they are committed
+     */
+    static final class Batch {
+        private final List<byte[]> records;
+        private final long bytes;
+        private final long fromSegment;
+        private final int fromOffset;
+        private final long toSegment;
+        private final int toOffset;
+
+        private Batch(List<byte[]> records, long bytes, long fromSegment, int fromOffset, long toSegment, int toOffset) {
+            this.records = records;
+            this.bytes = bytes;
+            this.fromSegment = fromSegment;
+            this.fromOffset = fromOffset;
+            this.toSegment = toSegment;
+            this.toOffset = toOffset;
+        }
+
+        List<byte[]> records() {
+            return records;
+        }
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // the offset behind the last record
+        private int end = 0;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+
+/**
+ * Hand written streaming serialization of a document type. Implementations write and read
+ * the JSON tokens directly, instead of going through bean introspection and reflection.
+ *
+ * Use {@link NdjsonBulkWriter} to write bulk bodies with a codec, and {@link CodecModule} to
+ * make an {@code ObjectMapper}, and thus the Elasticsearch client, use it for {@code _source}.
+ */
+public interface DocumentCodec<T> {
+
+    /**
+     * @return the id of the document or null, if Elasticsearch should generate one
+     */
+    String id(T document);
+
+    void setId(T document, String id);
+
+    /**
+     * Writes the document as a single JSON object
+     */
+    void write(T document, JsonGenerator generator) throws IOException;
+
+    /**
+     * Reads a document from a parser positioned at the start of the JSON object, after
+     * returning the parser has to be positioned at the end of that object
+     */
+    T read(JsonParser parser) throws IOException;
+
+}
@@ -0,0 +1,124 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHeader;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+
+/**
+ * Creates clients configured from a {@link ClientConfig}, with the object mapper the product
+ * service expects: snake case field names and no null values.
+ *
+ * <pre>
+ * ElasticsearchClient client = ElasticsearchClientFactory.createClient(ClientConfig.builder(host)
+ *         .basicAuth("elastic", password)
+ *         .maxConnections(100, 50)
+ *         .build());
+ * </pre>
+ *
+ * Closing the transport of the client closes the underlying rest client.
+ */
+public final class ElasticsearchClientFactory {
+
+    private ElasticsearchClientFactory() {
+    }
+
+    public static ElasticsearchClient createClient(ClientConfig config) {
+        return new ElasticsearchClient(createTransport(createRestClient(config)));
+    }
+
+    public static ElasticsearchTransport createTransport(RestClient restClient) {
+        return new RestClientTransport(restClient, new JacksonJsonpMapper(createObjectMapper()));
+    }
+
+    public static ObjectMapper createObjectMapper() {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return mapper;
+    }
+
+    public static RestClient createRestClient(ClientConfig config) {
+        return createRestClientBuilder(config).build();
+    }
+
+    static RestClientBuilder createRestClientBuilder(ClientConfig config) {
+        final RestClientBuilder builder = config.getCloudId() != null
+                ? RestClient.builder(config.getCloudId())
+                : RestClient.builder(config.getHosts().toArray(new HttpHost[0]));
+
+        builder.setCompressionEnabled(config.isCompression());
+        if (config.getApiKey() != null) {
+            builder.setDefaultHeaders(new Header[] { new BasicHeader(HttpHeaders.AUTHORIZATION, "ApiKey " + config.getApiKey()) });
+        }
+        builder.setRequestConfigCallback(requestConfig -> {
+            requestConfig.setConnectTimeout((int) config.getConnectTimeout().toMillis());
+            requestConfig.setSocketTimeout((int) config.getSocketTimeout().toMillis());
+            if (config.getConnectionRequestTimeout() != null) {
+                requestConfig.setConnectionRequestTimeout((int) config.getConnectionRequestTimeout().toMillis());
+            }
+            return requestConfig;
+        });
+
+        final AdaptiveNodeSelector adaptiveNodeSelector = config.getNodeSelector() instanceof AdaptiveNodeSelector selector ? selector : null;
+        if (config.getNodeSelector() != null) {
+            builder.setNodeSelector(config.getNodeSelector());
+        }
+        if (adaptiveNodeSelector != null) {
+            builder.setFailureListener(adaptiveNodeSelector.failureListener());
+        }
+
+        builder.setHttpClientConfigCallback(clientBuilder -> {
+            clientBuilder.setMaxConnTotal(config.getMaxConnections());
+            clientBuilder.setMaxConnPerRoute(config.getMaxConnectionsPerRoute());
+            final IOReactorConfig.Builder ioReactorConfig = IOReactorConfig.custom().setSoKeepAlive(true);
+            if (config.getIoThreads() > 0) {
+                ioReactorConfig.setIoThreadCount(config.getIoThreads());
+            }
+            clientBuilder.setDefaultIOReactorConfig(ioReactorConfig.build());
+            final long keepAliveMillis = config.getKeepAlive().toMillis();
+            clientBuilder.setKeepAliveStrategy((response, context) -> keepAliveMillis);
+
+            if (config.getSslContext() != null) {
+                clientBuilder.setSSLContext(config.getSslContext());
+            }
+            if (config.getUsername() != null) {
+                final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(config.getUsername(), config.getPassword()));
+                clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+            }
+
+            if (config.getMetrics() != null) {
+                clientBuilder.addInterceptorLast(config.getMetrics().responseInterceptor());
+            }
+            if (adaptiveNodeSelector != null) {
+                clientBuilder.addInterceptorLast(adaptiveNodeSelector.requestInterceptor());
+                clientBuilder.addInterceptorLast(adaptiveNodeSelector.responseInterceptor());
+            }
+            for (HttpRequestInterceptor interceptor : config.getRequestInterceptors()) {
+                clientBuilder.addInterceptorLast(interceptor);
+            }
+            for (HttpResponseInterceptor interceptor : config.getResponseInterceptors()) {
+                clientBuilder.addInterceptorLast(interceptor);
+            }
+            return clientBuilder;
+        });
+        return builder;
+    }
+}
@@ -0,0 +1,133 @@
+package de.spinscale.restclient;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The facets to calculate for {@link ProductService#searchWithFacets(String, int, FacetRequest)}.
+ *
+ * Ranges are given as boundaries, {@code priceRanges(10, 50)} results in the buckets below 10,
+ * from 10 to 50 and from 50 on. Like in Elasticsearch, the lower bound is included and the
+ * upper bound is excluded.
+ */
+public final class FacetRequest {
+
+    private final double priceInterval;
+    private final double[] priceRanges;
+    private final int[] stockRanges;
+
+    private FacetRequest(Builder builder) {
+        this.priceInterval = builder.priceInterval;
+        this.priceRanges = builder.priceRanges;
+        this.stockRanges = builder.stockRanges;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The facets of a category page: a price histogram with the average stock per bucket and
+     * the stock buckets out of stock, low stock and in stock
+     */
+    public static FacetRequest categoryPage() {
+        return builder().priceHistogram(10).stockRanges(1, 10).build();
+    }
+
+    /**
+     * @return the interval of the price histogram, 0 if there is no price histogram
+     */
+    public double getPriceInterval() {
+        return priceInterval;
+    }
+
+    public boolean hasPriceHistogram() {
+        return priceInterval > 0;
+    }
+
+    public double[] getPriceRanges() {
+        return priceRanges.clone();
+    }
+
+    public int[] getStockRanges() {
+        return stockRanges.clone();
+    }
+
+    public boolean isEmpty() {
+        return hasPriceHistogram() == false && priceRanges.length == 0 && stockRanges.length == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FacetRequest that = (FacetRequest) o;
+        return Double.compare(priceInterval, that.priceInterval) == 0 && Arrays.equals(priceRanges, that.priceRanges)
+                && Arrays.equals(stockRanges, that.stockRanges);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Objects.hash(priceInterval) + Arrays.hashCode(priceRanges)) + Arrays.hashCode(stockRanges);
+    }
+
+    @Override
+    public String toString() {
+        return "facets price interval [" + priceInterval + "], price ranges " + Arrays.toString(priceRanges)
+                + ", stock ranges " + Arrays.toString(stockRanges);
+    }
+
+    public static final class Builder {
+        private double priceInterval = 0;
+        private double[] priceRanges = new double[0];
+        private int[] stockRanges = new int[0];
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a histogram over the price, every bucket contains the average stock of its products
+         */
+        public Builder priceHistogram(double interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("price interval must be positive, was [" + interval + "]");
+            }
+            this.priceInterval = interval;
+            return this;
+        }
+
+        /**
+         * @param boundaries ascending price boundaries between the buckets
+         */
+        public Builder priceRanges(double... boundaries) {
+            for (int i = 1; i < boundaries.length; i++) {
+                if (boundaries[i] <= boundaries[i - 1]) {
+                    throw new IllegalArgumentException("price boundaries must be ascending " + Arrays.toString(boundaries));
+                }
+            }
+            this.priceRanges = boundaries.clone();
+            return this;
+        }
+
+        /**
+         * @param boundaries ascending stock boundaries between the buckets, {@code 1} separates the products out of stock
+         */
+        public Builder stockRanges(int... boundaries) {
+            for (int i = 1; i < boundaries.length; i++) {
+                if (boundaries[i] <= boundaries[i - 1]) {
+                    throw new IllegalArgumentException("stock boundaries must be ascending " + Arrays.toString(boundaries));
+                }
+            }
+            this.stockRanges = boundaries.clone();
+            return this;
+        }
+
+        public FacetRequest build() {
+            return new FacetRequest(this);
+        }
+    }
+}
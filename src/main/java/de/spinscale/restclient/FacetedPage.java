@@ -0,0 +1,21 @@
+package de.spinscale.restclient;
+
+import java.util.List;
+
+/**
+ * A page of products together with the facets of the whole query, see
+ * {@link ProductService#searchWithFacets(String, int, FacetRequest)}
+ */
+public class FacetedPage extends Page<Product> {
+
+    private final Facets facets;
+
+    public FacetedPage(List<Product> products, String input, int size, Facets facets) {
+        super(products, input, 0, size);
+        this.facets = facets;
+    }
+
+    public Facets getFacets() {
+        return facets;
+    }
+}
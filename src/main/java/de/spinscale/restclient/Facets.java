@@ -0,0 +1,123 @@
+package de.spinscale.restclient;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The facets calculated for a search, see {@link FacetRequest}. Facets that were not requested are empty.
+ */
+public class Facets {
+
+    private final long total;
+    private final List<HistogramBucket> priceHistogram;
+    private final List<RangeBucket> priceRanges;
+    private final List<RangeBucket> stockRanges;
+
+    public Facets(long total, List<HistogramBucket> priceHistogram, List<RangeBucket> priceRanges, List<RangeBucket> stockRanges) {
+        this.total = total;
+        this.priceHistogram = Collections.unmodifiableList(priceHistogram);
+        this.priceRanges = Collections.unmodifiableList(priceRanges);
+        this.stockRanges = Collections.unmodifiableList(stockRanges);
+    }
+
+    /**
+     * @return the exact number of products matching the query, not capped at 10,000 like the total of a plain search
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public List<HistogramBucket> getPriceHistogram() {
+        return priceHistogram;
+    }
+
+    public List<RangeBucket> getPriceRanges() {
+        return priceRanges;
+    }
+
+    public List<RangeBucket> getStockRanges() {
+        return stockRanges;
+    }
+
+    int bucketCount() {
+        return priceHistogram.size() + priceRanges.size() + stockRanges.size();
+    }
+
+    @Override
+    public String toString() {
+        return "total [" + total + "], price histogram " + priceHistogram + ", price ranges " + priceRanges +
+                ", stock ranges " + stockRanges;
+    }
+
+    public static class HistogramBucket {
+
+        private final double key;
+        private final long docCount;
+        private final double stockAverage;
+
+        public HistogramBucket(double key, long docCount, double stockAverage) {
+            this.key = key;
+            this.docCount = docCount;
+            this.stockAverage = stockAverage;
+        }
+
+        /**
+         * @return the lower bound of the bucket
+         */
+        public double getKey() {
+            return key;
+        }
+
+        public long getDocCount() {
+            return docCount;
+        }
+
+        /**
+         * @return the average stock of the products in the bucket, NaN for empty buckets
+         */
+        public double getStockAverage() {
+            return stockAverage;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + key + "]: [" + docCount + "], stock average [" + stockAverage + "]";
+        }
+    }
+
+    public static class RangeBucket {
+
+        private final Double from;
+        private final Double to;
+        private final long docCount;
+
+        public RangeBucket(Double from, Double to, long docCount) {
+            this.from = from;
+            this.to = to;
+            this.docCount = docCount;
+        }
+
+        /**
+         * @return the included lower bound, null for the first bucket
+         */
+        public Double getFrom() {
+            return from;
+        }
+
+        /**
+         * @return the excluded upper bound, null for the last bucket
+         */
+        public Double getTo() {
+            return to;
+        }
+
+        public long getDocCount() {
+            return docCount;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + (from == null ? "*" : from) + "-" + (to == null ? "*" : to) + "]: [" + docCount + "]";
+        }
+    }
+}
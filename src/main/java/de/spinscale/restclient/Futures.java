@@ -0,0 +1,41 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Waits for futures within the blocking API, so callers see the same exceptions as without a future
+ */
+final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Waits for the future, IOExceptions and runtime exceptions it failed with are rethrown as they are
+     */
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * @return the cause of a failed future as IOException, runtime exceptions are thrown right away
+     */
+    static IOException unwrap(Throwable cause) {
+        if (cause instanceof IOException ioException) {
+            return ioException;
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        return new IOException(cause);
+    }
+}
@@ -0,0 +1,22 @@
+package de.spinscale.restclient;
+
+/**
+ * Keeps the latest reported snapshot around, so it can be exposed via an admin endpoint or
+ * checked in tests
+ */
+public class InMemoryMetricsReporter implements MetricsReporter {
+
+    private volatile MetricsSnapshot latest;
+
+    @Override
+    public void report(MetricsSnapshot snapshot) {
+        this.latest = snapshot;
+    }
+
+    /**
+     * @return the latest snapshot or null if nothing has been reported yet
+     */
+    public MetricsSnapshot getLatest() {
+        return latest;
+    }
+}
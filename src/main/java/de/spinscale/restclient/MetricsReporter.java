@@ -0,0 +1,11 @@
+package de.spinscale.restclient;
+
+/**
+ * Receives snapshots of the product service metrics, implement this to ship them to your
+ * monitoring system
+ */
+public interface MetricsReporter {
+
+    void report(MetricsSnapshot snapshot);
+
+}
@@ -0,0 +1,106 @@
+package de.spinscale.restclient;
+
+import de.spinscale.restclient.ProductServiceMetrics.Operation;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Point in time view of {@link ProductServiceMetrics}
+ */
+public class MetricsSnapshot {
+
+    private final Map<Operation, OperationSnapshot> operations;
+    private final long bulkItems;
+    private final long bulkItemFailures;
+    private final long bytesSent;
+    private final long bytesReceived;
+
+    public MetricsSnapshot(Map<Operation, OperationSnapshot> operations, long bulkItems, long bulkItemFailures,
+                           long bytesSent, long bytesReceived) {
+        this.operations = Collections.unmodifiableMap(operations);
+        this.bulkItems = bulkItems;
+        this.bulkItemFailures = bulkItemFailures;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+    }
+
+    public Map<Operation, OperationSnapshot> getOperations() {
+        return operations;
+    }
+
+    public OperationSnapshot get(Operation operation) {
+        return operations.get(operation);
+    }
+
+    public long getBulkItems() {
+        return bulkItems;
+    }
+
+    public long getBulkItemFailures() {
+        return bulkItemFailures;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        operations.forEach((operation, snapshot) -> {
+            if (snapshot.getRequests() > 0) {
+                builder.append(operation).append(": ").append(snapshot).append('\n');
+            }
+        });
+        return builder.append("bulk items [").append(bulkItems).append("], bulk item failures [").append(bulkItemFailures)
+                .append("], bytes sent [").append(bytesSent).append("], bytes received [").append(bytesReceived).append("]")
+                .toString();
+    }
+
+    public static class OperationSnapshot {
+
+        private final long requests;
+        private final long errors;
+        private final LatencyHistogram.Snapshot latency;
+        private final LatencyHistogram.Snapshot took;
+
+        public OperationSnapshot(long requests, long errors, LatencyHistogram.Snapshot latency, LatencyHistogram.Snapshot took) {
+            this.requests = requests;
+            this.errors = errors;
+            this.latency = latency;
+            this.took = took;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the latency as seen by the caller of the product service
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the time Elasticsearch reported to have spent, empty for operations without took time
+         */
+        public LatencyHistogram.Snapshot getTook() {
+            return took;
+        }
+
+        @Override
+        public String toString() {
+            return "requests [" + requests + "], errors [" + errors + "], latency {" + latency + "}, took {" + took + "}";
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes bulk requests as NDJSON straight into pooled byte arrays using a {@link DocumentCodec},
+ * and sends them with the low level rest client. Compared to the bulk API of the Elasticsearch
+ * client this skips building a request object per document, reflection based serialization and
+ * copying the body into a fresh buffer for every request. The response is parsed in a streaming
+ * fashion, only ids, status and error reasons are read.
+ */
+public class NdjsonBulkWriter<T> {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+    private static final SerializableString INDEX = new SerializedString("index");
+    private static final SerializableString ID = new SerializedString("_id");
+
+    private static final int POOL_SIZE = 8;
+    // do not keep huge buffers of rare huge bulks around
+    private static final int MAX_POOLED_CAPACITY = 16 * 1024 * 1024;
+
+    private final RestClient restClient;
+    private final DocumentCodec<T> codec;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final BlockingQueue<Buffer> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public NdjsonBulkWriter(RestClient restClient, DocumentCodec<T> codec) {
+        this.restClient = restClient;
+        this.codec = codec;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the transport is not based on the low level rest client
+     */
+    public static <T> NdjsonBulkWriter<T> of(ElasticsearchTransport transport, DocumentCodec<T> codec) {
+        if (transport instanceof RestClientTransport restClientTransport) {
+            return new NdjsonBulkWriter<>(restClientTransport.restClient(), codec);
+        }
+        throw new IllegalArgumentException("transport must be a RestClientTransport, but was " + transport.getClass().getName());
+    }
+
+    /**
+     * Indexes all documents with a single bulk request, the ids of the indexed documents are set via the codec
+     */
+    public Result write(String index, List<T> documents) throws IOException {
+        return write(index, new CodecSource<>(documents, codec));
+    }
+
+    /**
+     * Indexes all documents of the source with a single bulk request, the ids of the indexed documents are set on the source
+     */
+    public Result write(String index, Source source) throws IOException {
+        final Buffer buffer = acquire();
+        try {
+            writeBody(source, buffer);
+
+            final Request request = new Request("POST", "/" + index + "/_bulk");
+            request.setEntity(new ByteArrayEntity(buffer.bytes, 0, buffer.size, NDJSON));
+            final Response response = restClient.performRequest(request);
+
+            final Result result;
+            try (InputStream input = response.getEntity().getContent()) {
+                result = parseResponse(input, source.size());
+            }
+            for (int i = 0; i < source.size(); i++) {
+                if (result.errors[i] == null) {
+                    source.setId(i, result.ids[i]);
+                }
+            }
+            return result;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Writes the NDJSON bulk body, package private for benchmarks
+     */
+    void writeBody(List<T> documents, OutputStream output) throws IOException {
+        writeBody(new CodecSource<>(documents, codec), output);
+    }
+
+    void writeBody(Source source, OutputStream output) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(output, JsonEncoding.UTF8)) {
+            generator.setRootValueSeparator(null);
+            final int size = source.size();
+            for (int i = 0; i < size; i++) {
+                generator.writeStartObject();
+                generator.writeFieldName(INDEX);
+                generator.writeStartObject();
+                if (source.hasId(i)) {
+                    generator.writeFieldName(ID);
+                    source.writeId(i, generator);
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                source.writeSource(i, generator);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    Result parseResponse(InputStream input, int expectedItems) throws IOException {
+        final Result result = new Result(expectedItems);
+        try (JsonParser parser = jsonFactory.createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("unexpected bulk response, expected an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("took".equals(field)) {
+                    result.took = parser.getValueAsLong();
+                } else if ("items".equals(field)) {
+                    int item = 0;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        // the operation type, index/create/update/delete
+                        parser.nextToken();
+                        parser.nextToken();
+                        parseItem(parser, result, item++);
+                        // end of the outer item object
+                        parser.nextToken();
+                    }
+                    if (item != expectedItems) {
+                        throw new IOException("expected [" + expectedItems + "] bulk items, but got [" + item + "]");
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void parseItem(JsonParser parser, Result result, int item) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "_id" -> result.ids[item] = parser.getText();
+                case "status" -> result.statuses[item] = parser.getIntValue();
+                case "error" -> {
+                    result.failures++;
+                    result.errors[item] = parseErrorReason(parser);
+                }
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private static String parseErrorReason(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return parser.getText();
+        }
+        String reason = "unknown";
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("reason".equals(field)) {
+                reason = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return reason;
+    }
+
+    private Buffer acquire() {
+        final Buffer buffer = pool.poll();
+        return buffer != null ? buffer : new Buffer();
+    }
+
+    private void release(Buffer buffer) {
+        if (buffer.bytes.length <= MAX_POOLED_CAPACITY) {
+            buffer.size = 0;
+            pool.offer(buffer);
+        }
+    }
+
+    /**
+     * Documents to index, addressed by their position in the bulk request
+     */
+    public interface Source {
+
+        int size();
+
+        boolean hasId(int document);
+
+        /**
+         * Writes the id of the document as a JSON string
+         */
+        void writeId(int document, JsonGenerator generator) throws IOException;
+
+        void writeSource(int document, JsonGenerator generator) throws IOException;
+
+        void setId(int document, String id);
+    }
+
+    private record CodecSource<T>(List<T> documents, DocumentCodec<T> codec) implements Source {
+
+        @Override
+        public int size() {
+            return documents.size();
+        }
+
+        @Override
+        public boolean hasId(int document) {
+            return codec.id(documents.get(document)) != null;
+        }
+
+        @Override
+        public void writeId(int document, JsonGenerator generator) throws IOException {
+            generator.writeString(codec.id(documents.get(document)));
+        }
+
+        @Override
+        public void writeSource(int document, JsonGenerator generator) throws IOException {
+            codec.write(documents.get(document), generator);
+        }
+
+        @Override
+        public void setId(int document, String id) {
+            codec.setId(documents.get(document), id);
+        }
+    }
+
+    /**
+     * Outcome of a bulk request, one entry per document in request order
+     */
+    public static class Result {
+
+        private final String[] ids;
+        private final int[] statuses;
+        private final String[] errors;
+        private long took;
+        private int failures;
+
+        Result(int items) {
+            this.ids = new String[items];
+            this.statuses = new int[items];
+            this.errors = new String[items];
+        }
+
+        public String getId(int item) {
+            return ids[item];
+        }
+
+        public int getStatus(int item) {
+            return statuses[item];
+        }
+
+        /**
+         * @return the error reason or null, if the item was indexed successfully
+         */
+        public String getError(int item) {
+            return errors[item];
+        }
+
+        public long getTook() {
+            return took;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * Growable byte array, which unlike a ByteArrayOutputStream exposes its array, so it
+     * can be sent without a copy
+     */
+    private static final class Buffer extends OutputStream {
+
+        private byte[] bytes = new byte[64 * 1024];
+        private int size = 0;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+}
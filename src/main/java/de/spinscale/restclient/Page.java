@@ -1,5 +1,6 @@
 package de.spinscale.restclient;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 
@@ -11,12 +12,42 @@ public class Page<T> {
     private final String input;
     private final int from;
     private final int size;
+    private final List<String> sortValues;
+    private final String pointInTimeId;
+    private final Duration keepAlive;
+    private final Page<T> prefetched;
 
     public Page(List<T> products, String input, int from, int size) {
+        this(products, input, from, size, null, null, null, null);
+    }
+
+    /**
+     * @param prefetched the following page, which was fetched together with this one
+     */
+    Page(List<T> products, String input, int from, int size, Page<T> prefetched) {
+        this(products, input, from, size, null, null, null, prefetched);
+    }
+
+    /**
+     * @param sortValues    the sort values of the last hit on this page, used as search_after for the next page
+     * @param pointInTimeId the point in time this page was read from, null if the page was read from the live index
+     * @param keepAlive     how long the point in time is kept open after each page
+     */
+    public Page(List<T> products, String input, int from, int size, List<String> sortValues, String pointInTimeId,
+                Duration keepAlive) {
+        this(products, input, from, size, sortValues, pointInTimeId, keepAlive, null);
+    }
+
+    private Page(List<T> products, String input, int from, int size, List<String> sortValues, String pointInTimeId,
+                 Duration keepAlive, Page<T> prefetched) {
         this.products = products;
         this.input = input;
         this.from = from;
         this.size = size;
+        this.sortValues = sortValues;
+        this.pointInTimeId = pointInTimeId;
+        this.keepAlive = keepAlive;
+        this.prefetched = prefetched;
     }
 
     List<T> get() {
@@ -34,4 +65,27 @@ public class Page<T> {
     public int getSize() {
         return size;
     }
+
+    public List<String> getSortValues() {
+        return sortValues;
+    }
+
+    public String getPointInTimeId() {
+        return pointInTimeId;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @return the following page, if it was fetched together with this one, otherwise null
+     */
+    Page<T> getPrefetched() {
+        return prefetched;
+    }
+
+    public boolean hasPointInTime() {
+        return pointInTimeId != null;
+    }
 }
@@ -0,0 +1,72 @@
+package de.spinscale.restclient;
+
+import java.util.Objects;
+
+/**
+ * A single page of a search, used to run several searches in one round trip with
+ * {@link ProductService#searchBatch(java.util.List)}
+ */
+public final class PageRequest {
+
+    private final String input;
+    private final int from;
+    private final int size;
+
+    private PageRequest(String input, int from, int size) {
+        this.input = Objects.requireNonNull(input, "input");
+        this.from = from;
+        this.size = size;
+    }
+
+    /**
+     * @return the first page of ten products, like {@link ProductService#search(String)} returns
+     */
+    public static PageRequest of(String input) {
+        return new PageRequest(input, 0, 10);
+    }
+
+    public static PageRequest of(String input, int from, int size) {
+        return new PageRequest(input, from, size);
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the page following this one
+     */
+    public PageRequest next() {
+        return new PageRequest(input, from + size, size);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PageRequest that = (PageRequest) o;
+        return from == that.from && size == that.size && input.equals(that.input);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(input, from, size);
+    }
+
+    @Override
+    public String toString() {
+        return "page [" + input + "], from [" + from + "], size [" + size + "]";
+    }
+}
@@ -0,0 +1,247 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads all products matching a query from a point in time, page by page with search_after
+ * sorted by _shard_doc, which is the cheapest possible sort.
+ *
+ * With more than one slice, every slice is read by its own thread and the pages are handed
+ * over through a small bounded queue, so memory usage stays constant no matter how many
+ * documents are read, and a slow consumer slows down the readers.
+ */
+class PointInTimeScan implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PointInTimeScan.class);
+
+    private static final Object END_OF_SLICE = new Object();
+
+    private final ElasticsearchClient client;
+    private final Query query;
+    private final int pageSize;
+    private final Duration keepAlive;
+    private final String pointInTimeId;
+    // the point in time id may change with every response, every slice continues with its latest one
+    // and the most recent one of all slices is closed in the end
+    private volatile String latestPointInTimeId;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private ExecutorService executor;
+
+    PointInTimeScan(ElasticsearchClient client, String index, Query query, int pageSize, Duration keepAlive) throws IOException {
+        this.client = client;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+        this.pointInTimeId = client.openPointInTime(b -> b.index(index).keepAlive(ProductServiceImpl.toTime(keepAlive))).id();
+        this.latestPointInTimeId = pointInTimeId;
+    }
+
+    Stream<Product> stream(int slices) {
+        final Iterator<List<Product>> pages = slices > 1 ? parallelPages(slices) : slicePages(0, 1);
+        final Iterator<Product> products = new Iterator<>() {
+            private Iterator<Product> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (current.hasNext() == false) {
+                    if (pages.hasNext() == false) {
+                        close();
+                        return false;
+                    }
+                    current = pages.next().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Product next() {
+                if (hasNext() == false) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+
+        final Spliterator<Product> spliterator = Spliterators.spliteratorUnknownSize(products,
+                Spliterator.NONNULL | (slices > 1 ? 0 : Spliterator.ORDERED));
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * @return an iterator over all pages of a single slice, the last page is never empty
+     */
+    private Iterator<List<Product>> slicePages(int slice, int slices) {
+        return new Iterator<>() {
+            private String slicePointInTimeId = pointInTimeId;
+            private List<String> searchAfter = null;
+            private List<Product> nextPage = null;
+            private boolean exhausted = false;
+
+            @Override
+            public boolean hasNext() {
+                if (nextPage == null && exhausted == false) {
+                    nextPage = fetch();
+                }
+                return nextPage != null;
+            }
+
+            @Override
+            public List<Product> next() {
+                if (hasNext() == false) {
+                    throw new NoSuchElementException();
+                }
+                final List<Product> page = nextPage;
+                nextPage = null;
+                return page;
+            }
+
+            private List<Product> fetch() {
+                final SearchRequest.Builder builder = new SearchRequest.Builder()
+                        .size(pageSize)
+                        .query(query)
+                        .pit(pit -> pit.id(slicePointInTimeId).keepAlive(ProductServiceImpl.toTime(keepAlive)))
+                        .sort(sb -> sb.field(fs -> fs.field("_shard_doc").order(SortOrder.Asc)))
+                        .trackTotalHits(th -> th.enabled(false));
+                if (slices > 1) {
+                    builder.slice(s -> s.id(slice).max(slices));
+                }
+                if (searchAfter != null) {
+                    builder.searchAfter(searchAfter);
+                }
+
+                final SearchResponse<Product> response;
+                try {
+                    response = client.search(builder.build(), Product.class);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (response.pitId() != null) {
+                    slicePointInTimeId = response.pitId();
+                    latestPointInTimeId = slicePointInTimeId;
+                }
+
+                final List<Hit<Product>> hits = response.hits().hits();
+                if (hits.size() < pageSize) {
+                    exhausted = true;
+                }
+                if (hits.isEmpty()) {
+                    return null;
+                }
+                searchAfter = hits.get(hits.size() - 1).sort();
+                hits.forEach(hit -> hit.source().setId(hit.id()));
+                return hits.stream().map(Hit::source).collect(Collectors.toList());
+            }
+        };
+    }
+
+    private Iterator<List<Product>> parallelPages(int slices) {
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(slices * 2);
+        final AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(slices, r -> {
+            Thread thread = new Thread(r, "point-in-time-scan-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < slices; i++) {
+            final Iterator<List<Product>> pages = slicePages(i, slices);
+            executor.execute(() -> {
+                try {
+                    while (pages.hasNext()) {
+                        queue.put(pages.next());
+                    }
+                    queue.put(END_OF_SLICE);
+                } catch (InterruptedException e) {
+                    // the stream has been closed
+                } catch (RuntimeException e) {
+                    try {
+                        queue.put(e);
+                    } catch (InterruptedException interruptedException) {
+                        // the stream has been closed, nobody is interested in the failure anymore
+                    }
+                }
+            });
+        }
+
+        return new Iterator<>() {
+            private int finishedSlices = 0;
+            private List<Product> nextPage = null;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean hasNext() {
+                while (nextPage == null && finishedSlices < slices) {
+                    final Object element;
+                    try {
+                        element = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted while waiting for the next page", e);
+                    }
+                    if (element == END_OF_SLICE) {
+                        finishedSlices++;
+                    } else if (element instanceof RuntimeException e) {
+                        close();
+                        throw e;
+                    } else {
+                        nextPage = (List<Product>) element;
+                    }
+                }
+                return nextPage != null;
+            }
+
+            @Override
+            public List<Product> next() {
+                if (hasNext() == false) {
+                    throw new NoSuchElementException();
+                }
+                final List<Product> page = nextPage;
+                nextPage = null;
+                return page;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true) == false) {
+            return;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        final String id = latestPointInTimeId;
+        try {
+            client.closePointInTime(b -> b.id(id));
+        } catch (IOException | RuntimeException e) {
+            // the point in time expires after its keep alive anyway
+            logger.warn("could not close point in time", e);
+        }
+    }
+}
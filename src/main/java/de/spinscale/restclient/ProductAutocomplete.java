@@ -0,0 +1,382 @@
+package de.spinscale.restclient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In memory type ahead over product names, so that every keystroke in a search box is answered locally
+ * instead of by a search request. A prefix matches every product with a word in its name starting with it,
+ * {@code "sh"} matches {@code "Red Shirt"}, and the best matches are returned by stock or price.
+ *
+ * The products are kept in a compact, immutable {@link AutocompleteIndex}, built from a scan of the whole
+ * index with {@link #rebuild(Source)}. Products saved after that are kept aside as pending changes and
+ * searched one by one, once there are more than {@code maxPendingChanges} of them, the index is rebuilt in
+ * memory on a background thread, so the save that crossed the limit does not wait for it. Saves through
+ * {@link ProductServiceImpl} are applied automatically. Stock and price are updated as the service writes
+ * them, so the ranking may drift from the cluster if other writers change them as well, until the next full
+ * rebuild.
+ */
+public class ProductAutocomplete {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductAutocomplete.class);
+
+    public enum Ranking {
+        /**
+         * Most stock available first
+         */
+        STOCK,
+        /**
+         * Cheapest first
+         */
+        PRICE
+    }
+
+    private static final Comparator<ProductSummary> BY_STOCK = Comparator.comparingInt(ProductSummary::getStockAvailable).reversed();
+    private static final Comparator<ProductSummary> BY_PRICE = Comparator.comparingDouble(ProductSummary::getPrice);
+
+    private final int maxDepth;
+    private final int maxPendingChanges;
+    private final Object rebuildLock = new Object();
+    private volatile State state;
+    // products changed while a scan is running, they are applied on top of the scanned products
+    private Map<String, Product> changedDuringRebuild;
+    // compactions run on a single thread, which goes away while there is nothing to compact
+    private final ThreadPoolExecutor compactor;
+    private boolean compactionScheduled = false;
+    private long rebuilds = 0;
+    private Duration lastRebuildTime = Duration.ZERO;
+
+    /**
+     * @param index   the compact index
+     * @param pending products changed since the index was built, by id
+     * @param stale   the products of the index, that have been changed since
+     */
+    private record State(AutocompleteIndex index, Map<String, Product> pending, BitSet stale) {
+    }
+
+    private ProductAutocomplete(Builder builder) {
+        this.maxDepth = builder.maxDepth;
+        this.maxPendingChanges = builder.maxPendingChanges;
+        this.state = new State(AutocompleteIndex.build(List.of(), maxDepth), Map.of(), new BitSet());
+        this.compactor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "product-autocomplete-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactor.allowCoreThreadTimeOut(true);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the best products with a word in the name starting with the prefix, ignoring case
+     *
+     * @param size the maximum number of products
+     */
+    public List<ProductSummary> suggest(String prefix, int size, Ranking ranking) {
+        final String normalized = normalize(prefix);
+        if (normalized.isEmpty() || size <= 0) {
+            return List.of();
+        }
+        final State current = state;
+        final int[] products = current.index.top(normalized, size, ranking, current.stale::get);
+        final List<ProductSummary> suggestions = new ArrayList<>(products.length);
+        for (int product : products) {
+            suggestions.add(summary(current.index, product));
+        }
+        if (current.pending.isEmpty()) {
+            return suggestions;
+        }
+
+        for (Product product : current.pending.values()) {
+            if (matches(product.getName(), normalized)) {
+                suggestions.add(summary(product));
+            }
+        }
+        final Comparator<ProductSummary> comparator = ranking == Ranking.STOCK ? BY_STOCK : BY_PRICE;
+        suggestions.sort(comparator.thenComparing(ProductSummary::getName, String.CASE_INSENSITIVE_ORDER));
+        return suggestions.size() > size ? new ArrayList<>(suggestions.subList(0, size)) : suggestions;
+    }
+
+    /**
+     * Opens the products to rebuild from, usually a scan of the whole index
+     */
+    public interface Source {
+        Stream<Product> open() throws IOException;
+    }
+
+    /**
+     * Replaces all products with the ones of the source, like a scan of the whole index with
+     * {@link ProductServiceImpl#streamAll(co.elastic.clients.elasticsearch._types.query_dsl.Query)}.
+     * Saves are tracked before the source is opened, so products saved while the scan is opened and read are
+     * kept. So are the products saved before, that are not merged into the index yet, as the scan may not
+     * see them, for example if the index has not been refreshed since.
+     */
+    public void rebuild(Source source) throws IOException {
+        synchronized (rebuildLock) {
+            final long start = System.nanoTime();
+            startTracking();
+            try (Stream<Product> products = source.open()) {
+                build(products, start);
+            } finally {
+                stopTracking();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #rebuild(Source)}, for products at hand. Do not pass a scan that is already opened,
+     * products saved between opening it and this call are lost.
+     */
+    public void rebuild(Stream<Product> products) {
+        synchronized (rebuildLock) {
+            final long start = System.nanoTime();
+            startTracking();
+            try {
+                build(products, start);
+            } finally {
+                stopTracking();
+            }
+        }
+    }
+
+    private synchronized void startTracking() {
+        changedDuringRebuild = new HashMap<>(state.pending);
+    }
+
+    private synchronized void stopTracking() {
+        changedDuringRebuild = null;
+    }
+
+    private void build(Stream<Product> products, long start) {
+        final AutocompleteIndex index = AutocompleteIndex.build(products.collect(Collectors.toList()), maxDepth);
+        synchronized (this) {
+            state = createState(index, changedDuringRebuild);
+            recordRebuild(start);
+        }
+    }
+
+    /**
+     * Adds or replaces products, called for every save by the product service
+     */
+    public void put(Collection<Product> products) {
+        synchronized (this) {
+            final State current = state;
+            final Map<String, Product> pending = new HashMap<>(current.pending);
+            final BitSet stale = (BitSet) current.stale.clone();
+            for (Product product : products) {
+                if (product.getId() == null || product.getName() == null) {
+                    continue;
+                }
+                final Product copy = copy(product);
+                put(current.index, pending, stale, copy);
+                if (changedDuringRebuild != null) {
+                    changedDuringRebuild.put(copy.getId(), copy);
+                }
+            }
+            state = new State(current.index, pending, stale);
+            if (pending.size() > maxPendingChanges && changedDuringRebuild == null && compactionScheduled == false) {
+                compactionScheduled = true;
+                compactor.execute(this::compact);
+            }
+        }
+    }
+
+    /**
+     * Applies partial updates to the products known to the autocomplete, unknown products are ignored
+     */
+    void apply(Collection<ProductUpdate> updates) {
+        final List<Product> products = new ArrayList<>(updates.size());
+        synchronized (this) {
+            final State current = state;
+            // later updates of the same product build on the earlier ones
+            for (ProductUpdate update : ProductUpdater.coalesce(new ArrayList<>(updates))) {
+                if (update.isUpsert()) {
+                    products.add(update.getDocument());
+                    continue;
+                }
+                final Product product = find(current, update.getId());
+                if (product != null) {
+                    if (update.getPrice() != null) {
+                        product.setPrice(update.getPrice());
+                    }
+                    product.setStockAvailable(product.getStockAvailable() + update.getStockDelta());
+                    products.add(product);
+                }
+            }
+            put(products);
+        }
+    }
+
+    public AutocompleteStats stats() {
+        final State current = state;
+        synchronized (this) {
+            return new AutocompleteStats(current.index.size(), current.index.entries(), current.index.nodes(),
+                    current.pending.size(), current.index.memoryBytes(), rebuilds, lastRebuildTime);
+        }
+    }
+
+    // merges the pending changes into a new index, without reading the products again,
+    // products saved while the index is built stay pending
+    private void compact() {
+        synchronized (rebuildLock) {
+            final long start = System.nanoTime();
+            final State current;
+            synchronized (this) {
+                compactionScheduled = false;
+                current = state;
+                // a rebuild may have run since the compaction was scheduled
+                if (current.pending.size() <= maxPendingChanges) {
+                    return;
+                }
+                changedDuringRebuild = new HashMap<>();
+            }
+            try {
+                final List<Product> products = new ArrayList<>(current.index.size() + current.pending.size());
+                for (int i = 0; i < current.index.size(); i++) {
+                    if (current.stale.get(i) == false) {
+                        products.add(product(current.index, i));
+                    }
+                }
+                products.addAll(current.pending.values());
+                build(products.stream(), start);
+            } finally {
+                stopTracking();
+            }
+        }
+    }
+
+    private State createState(AutocompleteIndex index, Map<String, Product> changes) {
+        final Map<String, Product> pending = new HashMap<>();
+        final BitSet stale = new BitSet();
+        for (Product product : changes.values()) {
+            put(index, pending, stale, product);
+        }
+        return new State(index, pending, stale);
+    }
+
+    private static void put(AutocompleteIndex index, Map<String, Product> pending, BitSet stale, Product product) {
+        pending.put(product.getId(), product);
+        final int ordinal = index.ordinal(product.getId());
+        if (ordinal >= 0) {
+            stale.set(ordinal);
+        }
+    }
+
+    private void recordRebuild(long start) {
+        rebuilds++;
+        lastRebuildTime = Duration.ofNanos(System.nanoTime() - start);
+        logger.debug("rebuilt autocomplete index in [{}], [{}] products", lastRebuildTime, state.index.size());
+    }
+
+    private static Product find(State state, String id) {
+        final Product pending = state.pending.get(id);
+        if (pending != null) {
+            return copy(pending);
+        }
+        final int ordinal = state.index.ordinal(id);
+        return ordinal >= 0 ? product(state.index, ordinal) : null;
+    }
+
+    static String normalize(String prefix) {
+        final String stripped = prefix.stripLeading();
+        final char[] chars = new char[stripped.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(stripped.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    private static boolean matches(String name, String prefix) {
+        for (int i = 0; i + prefix.length() <= name.length(); i++) {
+            if (AutocompleteIndex.isWordStart(name, i) && name.regionMatches(true, i, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Product product(AutocompleteIndex index, int ordinal) {
+        final Product product = new Product();
+        product.setId(index.id(ordinal));
+        product.setName(index.name(ordinal));
+        product.setPrice(index.price(ordinal));
+        product.setStockAvailable(index.stock(ordinal));
+        return product;
+    }
+
+    private static ProductSummary summary(AutocompleteIndex index, int ordinal) {
+        final ProductSummary summary = new ProductSummary();
+        summary.setId(index.id(ordinal));
+        summary.setName(index.name(ordinal));
+        summary.setPrice(index.price(ordinal));
+        summary.setStockAvailable(index.stock(ordinal));
+        return summary;
+    }
+
+    private static ProductSummary summary(Product product) {
+        final ProductSummary summary = new ProductSummary();
+        summary.setId(product.getId());
+        summary.setName(product.getName());
+        summary.setPrice(product.getPrice());
+        summary.setStockAvailable(product.getStockAvailable());
+        return summary;
+    }
+
+    private static Product copy(Product product) {
+        final Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setPrice(product.getPrice());
+        copy.setStockAvailable(product.getStockAvailable());
+        return copy;
+    }
+
+    public static final class Builder {
+        private int maxDepth = 8;
+        private int maxPendingChanges = 1000;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxDepth the number of characters covered by the trie, longer prefixes are found by binary search
+         */
+        public Builder maxDepth(int maxDepth) {
+            if (maxDepth <= 0) {
+                throw new IllegalArgumentException("max depth must be positive, was [" + maxDepth + "]");
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * @param maxPendingChanges the number of saved products, that are searched one by one before the index is rebuilt
+         */
+        public Builder maxPendingChanges(int maxPendingChanges) {
+            this.maxPendingChanges = maxPendingChanges;
+            return this;
+        }
+
+        public ProductAutocomplete build() {
+            return new ProductAutocomplete(this);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar batch of products for bulk ingest and analytics. Instead of one object plus three
+ * strings per product, ids, names and descriptions are stored as UTF-8 bytes in one shared
+ * byte array per column, prices and stock in primitive arrays. A batch of a million products
+ * is a handful of arrays, which the garbage collector does not need to trace.
+ *
+ * Strings are only created when calling the getters. Saving a batch writes the UTF-8 bytes
+ * straight into the bulk request and searching into a batch decodes the response without
+ * creating products. A batch can be cleared and reused, which keeps its arrays.
+ *
+ * Not thread safe.
+ */
+public class ProductBatch implements NdjsonBulkWriter.Source {
+
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString NAME = new SerializedString("name");
+    private static final SerializableString DESCRIPTION = new SerializedString("description");
+    private static final SerializableString PRICE = new SerializedString("price");
+    private static final SerializableString STOCK_AVAILABLE = new SerializedString("stock_available");
+
+    private final Utf8Column ids;
+    private final Utf8Column names;
+    private final Utf8Column descriptions;
+    private double[] prices;
+    private int[] stockAvailable;
+    private int size;
+
+    public ProductBatch() {
+        this(16);
+    }
+
+    public ProductBatch(int expectedSize) {
+        final int capacity = Math.max(1, expectedSize);
+        this.ids = new Utf8Column(capacity, 16);
+        this.names = new Utf8Column(capacity, 32);
+        this.descriptions = new Utf8Column(capacity, 64);
+        this.prices = new double[capacity];
+        this.stockAvailable = new int[capacity];
+    }
+
+    public static ProductBatch of(List<Product> products) {
+        final ProductBatch batch = new ProductBatch(products.size());
+        products.forEach(batch::add);
+        return batch;
+    }
+
+    /**
+     * @return the position of the added product
+     */
+    public int add(Product product) {
+        return add(product.getId(), product.getName(), product.getDescription(), product.getPrice(), product.getStockAvailable());
+    }
+
+    /**
+     * @return the position of the added product
+     */
+    public int add(String id, String name, String description, double price, int stockAvailable) {
+        final int row = addRow();
+        ids.set(row, id);
+        names.set(row, name);
+        descriptions.set(row, description);
+        this.prices[row] = price;
+        this.stockAvailable[row] = stockAvailable;
+        return row;
+    }
+
+    private int addRow() {
+        if (size == prices.length) {
+            final int capacity = size * 2;
+            prices = Arrays.copyOf(prices, capacity);
+            stockAvailable = Arrays.copyOf(stockAvailable, capacity);
+        }
+        ids.addRow();
+        names.addRow();
+        descriptions.addRow();
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all products, but keeps the allocated arrays for reuse
+     */
+    public void clear() {
+        ids.clear();
+        names.clear();
+        descriptions.clear();
+        size = 0;
+    }
+
+    public String getId(int row) {
+        return ids.get(checkRow(row));
+    }
+
+    /**
+     * Replacing an id appends the new bytes, the old ones are only released by {@link #clear()}
+     */
+    @Override
+    public void setId(int row, String id) {
+        ids.set(checkRow(row), id);
+    }
+
+    public String getName(int row) {
+        return names.get(checkRow(row));
+    }
+
+    public String getDescription(int row) {
+        return descriptions.get(checkRow(row));
+    }
+
+    public double getPrice(int row) {
+        return prices[checkRow(row)];
+    }
+
+    public void setPrice(int row, double price) {
+        prices[checkRow(row)] = price;
+    }
+
+    public int getStockAvailable(int row) {
+        return stockAvailable[checkRow(row)];
+    }
+
+    public void setStockAvailable(int row, int stockAvailable) {
+        this.stockAvailable[checkRow(row)] = stockAvailable;
+    }
+
+    /**
+     * Creates a product from a single row
+     */
+    public Product get(int row) {
+        checkRow(row);
+        final Product product = new Product();
+        product.setId(ids.get(row));
+        product.setName(names.get(row));
+        product.setDescription(descriptions.get(row));
+        product.setPrice(prices[row]);
+        product.setStockAvailable(stockAvailable[row]);
+        return product;
+    }
+
+    /**
+     * @return the bytes allocated by this batch
+     */
+    public long memoryUsage() {
+        return ids.memoryUsage() + names.memoryUsage() + descriptions.memoryUsage() +
+                (long) prices.length * Double.BYTES + (long) stockAvailable.length * Integer.BYTES;
+    }
+
+    @Override
+    public boolean hasId(int row) {
+        return ids.isNull(row) == false;
+    }
+
+    @Override
+    public void writeId(int row, JsonGenerator generator) throws IOException {
+        ids.write(row, generator);
+    }
+
+    /**
+     * Writes the same source as the {@link ProductCodec} for the product in this row
+     */
+    @Override
+    public void writeSource(int row, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (ids.isNull(row) == false) {
+            generator.writeFieldName(ID);
+            ids.write(row, generator);
+        }
+        if (names.isNull(row) == false) {
+            generator.writeFieldName(NAME);
+            names.write(row, generator);
+        }
+        if (descriptions.isNull(row) == false) {
+            generator.writeFieldName(DESCRIPTION);
+            descriptions.write(row, generator);
+        }
+        generator.writeFieldName(PRICE);
+        generator.writeNumber(prices[row]);
+        generator.writeFieldName(STOCK_AVAILABLE);
+        generator.writeNumber(stockAvailable[row]);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Adds the product of a source, the parser has to be positioned at the start of the source object.
+     * Text is copied straight from the parser buffer into the columns, no strings are created.
+     *
+     * @return the position of the added product
+     */
+    int readSource(String id, JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("expected start of a product object, but got " + parser.currentToken());
+        }
+        final int row = addRow();
+        ids.set(row, id);
+        prices[row] = 0;
+        stockAvailable[row] = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "name" -> names.set(row, parser);
+                case "description" -> descriptions.set(row, parser);
+                case "price" -> prices[row] = parser.getValueAsDouble();
+                case "stock_available" -> stockAvailable[row] = parser.getValueAsInt();
+                // the id of the hit wins over the one in the source
+                default -> parser.skipChildren();
+            }
+        }
+        return row;
+    }
+
+    /**
+     * @return a view on the rows from {@code from} inclusive to {@code to} exclusive, for splitting large batches into several bulk requests
+     */
+    NdjsonBulkWriter.Source range(int from, int to) {
+        checkRow(from);
+        if (to < from || to > size) {
+            throw new IndexOutOfBoundsException("range [" + from + "-" + to + "] out of bounds for batch of size [" + size + "]");
+        }
+        final ProductBatch batch = this;
+        return new NdjsonBulkWriter.Source() {
+            @Override
+            public int size() {
+                return to - from;
+            }
+
+            @Override
+            public boolean hasId(int document) {
+                return batch.hasId(from + document);
+            }
+
+            @Override
+            public void writeId(int document, JsonGenerator generator) throws IOException {
+                batch.writeId(from + document, generator);
+            }
+
+            @Override
+            public void writeSource(int document, JsonGenerator generator) throws IOException {
+                batch.writeSource(from + document, generator);
+            }
+
+            @Override
+            public void setId(int document, String id) {
+                batch.setId(from + document, id);
+            }
+        };
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row [" + row + "] out of bounds for batch of size [" + size + "]");
+        }
+        return row;
+    }
+
+    /**
+     * Strings of all rows as UTF-8 in one byte array, addressed by start and length per row
+     */
+    private static final class Utf8Column {
+
+        private static final int NULL = -1;
+
+        private byte[] data;
+        private int dataLength;
+        private int[] starts;
+        private int[] lengths;
+        private int rows;
+
+        Utf8Column(int capacity, int bytesPerRow) {
+            this.data = new byte[capacity * bytesPerRow];
+            this.starts = new int[capacity];
+            this.lengths = new int[capacity];
+        }
+
+        void addRow() {
+            if (rows == starts.length) {
+                starts = Arrays.copyOf(starts, rows * 2);
+                lengths = Arrays.copyOf(lengths, rows * 2);
+            }
+            lengths[rows++] = NULL;
+        }
+
+        void clear() {
+            rows = 0;
+            dataLength = 0;
+        }
+
+        boolean isNull(int row) {
+            return lengths[row] == NULL;
+        }
+
+        String get(int row) {
+            if (lengths[row] == NULL) {
+                return null;
+            }
+            return new String(data, starts[row], lengths[row], StandardCharsets.UTF_8);
+        }
+
+        void set(int row, String value) {
+            if (value == null) {
+                lengths[row] = NULL;
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(dataLength + bytes.length);
+            System.arraycopy(bytes, 0, data, dataLength, bytes.length);
+            starts[row] = dataLength;
+            lengths[row] = bytes.length;
+            dataLength += bytes.length;
+        }
+
+        void set(int row, JsonParser parser) throws IOException {
+            final char[] chars = parser.getTextCharacters();
+            final int offset = parser.getTextOffset();
+            final int length = parser.getTextLength();
+            // worst case of three bytes per char, surrogate pairs take four bytes for two chars
+            ensureCapacity(dataLength + length * 3);
+            final int start = dataLength;
+            int position = start;
+            for (int i = offset; i < offset + length; i++) {
+                final char c = chars[i];
+                if (c < 0x80) {
+                    data[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    data[position++] = (byte) (0xC0 | (c >> 6));
+                    data[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                    final int codePoint = Character.toCodePoint(c, chars[++i]);
+                    data[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    data[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    data[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    data[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    data[position++] = (byte) (0xE0 | (c >> 12));
+                    data[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            starts[row] = start;
+            lengths[row] = position - start;
+            dataLength = position;
+        }
+
+        void write(int row, JsonGenerator generator) throws IOException {
+            generator.writeUTF8String(data, starts[row], lengths[row]);
+        }
+
+        long memoryUsage() {
+            return data.length + (long) starts.length * Integer.BYTES + (long) lengths.length * Integer.BYTES;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > data.length) {
+                data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+            }
+        }
+    }
+}
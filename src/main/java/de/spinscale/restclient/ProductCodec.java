@@ -0,0 +1,79 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+
+/**
+ * Streaming codec for products, writes exactly the same JSON as an {@code ObjectMapper} with
+ * snake case naming and {@code NON_NULL} inclusion
+ */
+public class ProductCodec implements DocumentCodec<Product> {
+
+    // field names are encoded once and then copied as raw bytes
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString NAME = new SerializedString("name");
+    private static final SerializableString DESCRIPTION = new SerializedString("description");
+    private static final SerializableString PRICE = new SerializedString("price");
+    private static final SerializableString STOCK_AVAILABLE = new SerializedString("stock_available");
+
+    @Override
+    public String id(Product product) {
+        return product.getId();
+    }
+
+    @Override
+    public void setId(Product product, String id) {
+        product.setId(id);
+    }
+
+    @Override
+    public void write(Product product, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (product.getId() != null) {
+            generator.writeFieldName(ID);
+            generator.writeString(product.getId());
+        }
+        if (product.getName() != null) {
+            generator.writeFieldName(NAME);
+            generator.writeString(product.getName());
+        }
+        if (product.getDescription() != null) {
+            generator.writeFieldName(DESCRIPTION);
+            generator.writeString(product.getDescription());
+        }
+        generator.writeFieldName(PRICE);
+        generator.writeNumber(product.getPrice());
+        generator.writeFieldName(STOCK_AVAILABLE);
+        generator.writeNumber(product.getStockAvailable());
+        generator.writeEndObject();
+    }
+
+    @Override
+    public Product read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("expected start of a product object, but got " + parser.currentToken());
+        }
+        final Product product = new Product();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "id" -> product.setId(parser.getText());
+                case "name" -> product.setName(parser.getText());
+                case "description" -> product.setDescription(parser.getText());
+                case "price" -> product.setPrice(parser.getValueAsDouble());
+                case "stock_available" -> product.setStockAvailable(parser.getValueAsInt());
+                default -> parser.skipChildren();
+            }
+        }
+        return product;
+    }
+}
@@ -0,0 +1,304 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.mapping.DynamicMapping;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
+import co.elastic.clients.elasticsearch.indices.GetIndicesSettingsResponse;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the product index with explicit mappings, instead of relying on dynamic mapping of
+ * the first saved product, and helps with large imports.
+ *
+ * The name is either used as a plain index, see {@link #create()}, or as an alias, that points
+ * to versioned indices named {@code name-<timestamp>}. With an alias, {@link #reindex(IndexLoader)}
+ * loads a complete new index in the background and then switches the alias over in a single
+ * atomic request, so searches never see a partially loaded index.
+ */
+public class ProductIndexManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductIndexManager.class);
+
+    /**
+     * Loads all products into a freshly created index
+     */
+    public interface IndexLoader {
+        void load(String index) throws IOException;
+    }
+
+    private final ElasticsearchClient client;
+    private final String name;
+    private final int shards;
+    private final int replicas;
+    private final Duration refreshInterval;
+    private final int forceMergeSegments;
+
+    private ProductIndexManager(Builder builder) {
+        this.client = builder.client;
+        this.name = builder.name;
+        this.shards = builder.shards;
+        this.replicas = builder.replicas;
+        this.refreshInterval = builder.refreshInterval;
+        this.forceMergeSegments = builder.forceMergeSegments;
+    }
+
+    public static Builder builder(ElasticsearchClient client, String name) {
+        return new Builder(client, name);
+    }
+
+    /**
+     * Products are only searched by name and description and filtered or aggregated by price and
+     * stock, everything else is kept in the source only. Prices are stored as cents.
+     */
+    static TypeMapping mappings() {
+        return TypeMapping.of(m -> m
+                .dynamic(DynamicMapping.False)
+                .properties("name", p -> p.text(t -> t))
+                .properties("description", p -> p.text(t -> t))
+                .properties("price", p -> p.scaledFloat(sf -> sf.scalingFactor(100.0)))
+                .properties("stock_available", p -> p.integer(i -> i)));
+    }
+
+    CreateIndexRequest createIndexRequest(String index) {
+        return CreateIndexRequest.of(b -> b
+                .index(index)
+                .settings(s -> s
+                        .numberOfShards(String.valueOf(shards))
+                        .numberOfReplicas(String.valueOf(replicas))
+                        .refreshInterval(ProductServiceImpl.toTime(refreshInterval)))
+                .mappings(mappings()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if an index or alias with the name exists
+     */
+    public boolean exists() throws IOException {
+        return exists(name);
+    }
+
+    /**
+     * Creates a plain index with the name
+     */
+    public void create() throws IOException {
+        client.indices().create(createIndexRequest(name));
+    }
+
+    public void createIfMissing() throws IOException {
+        if (exists() == false) {
+            create();
+        }
+    }
+
+    /**
+     * Creates a new index named {@code name-<timestamp>}, that is not part of the alias yet
+     *
+     * @return the name of the new index
+     */
+    public String createVersionedIndex() throws IOException {
+        long version = System.currentTimeMillis();
+        while (exists(name + "-" + version)) {
+            version++;
+        }
+        final String index = name + "-" + version;
+        client.indices().create(createIndexRequest(index));
+        return index;
+    }
+
+    private boolean exists(String index) throws IOException {
+        return client.indices().exists(b -> b.index(index)).value();
+    }
+
+    /**
+     * @return the indices the alias currently points to, empty if there is no alias with the name
+     */
+    public List<String> getAliasedIndices() throws IOException {
+        if (client.indices().existsAlias(b -> b.name(name)).value() == false) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(client.indices().getAlias(b -> b.name(name)).result().keySet());
+    }
+
+    /**
+     * Atomically points the alias to the index and removes it from all other indices
+     *
+     * @return the indices the alias pointed to before
+     */
+    public List<String> swapAlias(String index) throws IOException {
+        final List<String> previous = getAliasedIndices();
+        client.indices().updateAliases(b -> {
+            for (String old : previous) {
+                if (old.equals(index) == false) {
+                    b.actions(a -> a.remove(r -> r.index(old).alias(name)));
+                }
+            }
+            b.actions(a -> a.add(ad -> ad.index(index).alias(name)));
+            return b;
+        });
+        previous.remove(index);
+        return previous;
+    }
+
+    /**
+     * Creates a new versioned index, loads it in bulk load mode, swaps the alias over and deletes
+     * the previous indices. If loading or swapping the alias fails, the new index is deleted and the
+     * alias is untouched. Previous indices, that cannot be deleted, are logged and left behind.
+     *
+     * @return the name of the new index
+     * @throws IllegalStateException if the name is a concrete index instead of an alias
+     */
+    public String reindex(IndexLoader loader) throws IOException {
+        // fail before loading, an alias cannot be created with the name of an existing index
+        if (exists() && client.indices().existsAlias(b -> b.name(name)).value() == false) {
+            throw new IllegalStateException("[" + name + "] is an index, reindexing requires an alias or no index with the name");
+        }
+        final String index = createVersionedIndex();
+        final List<String> previous;
+        try {
+            try (BulkLoad bulkLoad = startBulkLoad(index)) {
+                loader.load(bulkLoad.getIndex());
+            }
+            previous = swapAlias(index);
+        } catch (IOException | RuntimeException e) {
+            try {
+                client.indices().delete(b -> b.index(index));
+            } catch (IOException | RuntimeException deleteException) {
+                e.addSuppressed(deleteException);
+            }
+            throw e;
+        }
+        if (previous.isEmpty() == false) {
+            try {
+                client.indices().delete(b -> b.index(previous));
+            } catch (IOException | RuntimeException e) {
+                // the alias already points to the new index, so the reindex itself succeeded
+                logger.warn("could not delete previous indices {} of [{}]", previous, name, e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Starts bulk load mode for the index or alias of the manager
+     */
+    public BulkLoad startBulkLoad() throws IOException {
+        return startBulkLoad(name);
+    }
+
+    /**
+     * Disables refreshes and replicas of the index until the returned bulk load is closed. Closing
+     * restores the previous settings, refreshes and force merges the index. Settings that were not
+     * set explicitly are restored to the values configured on this manager.
+     */
+    public BulkLoad startBulkLoad(String index) throws IOException {
+        final GetIndicesSettingsResponse response = client.indices().getSettings(b -> b.index(index));
+        final Map<String, IndexSettings> previous = new LinkedHashMap<>();
+        for (Map.Entry<String, IndexState> entry : response.result().entrySet()) {
+            final IndexSettings settings = entry.getValue().settings();
+            previous.put(entry.getKey(), settings != null && settings.index() != null ? settings.index() : settings);
+        }
+        client.indices().putSettings(b -> b.index(index).settings(s -> s
+                .refreshInterval(Time.of(t -> t.time("-1")))
+                .numberOfReplicas("0")));
+        return new BulkLoad(index, previous);
+    }
+
+    /**
+     * An import with refreshes and replicas disabled
+     */
+    public final class BulkLoad implements Closeable {
+
+        private final String index;
+        private final Map<String, IndexSettings> previous;
+        private boolean closed = false;
+
+        private BulkLoad(String index, Map<String, IndexSettings> previous) {
+            this.index = index;
+            this.previous = previous;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Map.Entry<String, IndexSettings> entry : previous.entrySet()) {
+                final IndexSettings settings = entry.getValue();
+                final Time previousRefreshInterval = settings != null && settings.refreshInterval() != null
+                        ? settings.refreshInterval() : ProductServiceImpl.toTime(refreshInterval);
+                final String previousReplicas = settings != null && settings.numberOfReplicas() != null
+                        ? settings.numberOfReplicas() : String.valueOf(replicas);
+                client.indices().putSettings(b -> b.index(entry.getKey()).settings(s -> s
+                        .refreshInterval(previousRefreshInterval)
+                        .numberOfReplicas(previousReplicas)));
+            }
+            client.indices().refresh(b -> b.index(index));
+            if (forceMergeSegments > 0) {
+                client.indices().forcemerge(b -> b.index(index).maxNumSegments((long) forceMergeSegments));
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final ElasticsearchClient client;
+        private final String name;
+        private int shards = 1;
+        private int replicas = 1;
+        private Duration refreshInterval = Duration.ofSeconds(1);
+        private int forceMergeSegments = 1;
+
+        private Builder(ElasticsearchClient client, String name) {
+            this.client = client;
+            this.name = name;
+        }
+
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public Builder replicas(int replicas) {
+            this.replicas = replicas;
+            return this;
+        }
+
+        public Builder refreshInterval(Duration refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        /**
+         * @param forceMergeSegments the number of segments after a bulk load, 0 disables the force merge
+         */
+        public Builder forceMergeSegments(int forceMergeSegments) {
+            this.forceMergeSegments = forceMergeSegments;
+            return this;
+        }
+
+        public ProductIndexManager build() {
+            return new ProductIndexManager(this);
+        }
+    }
+}
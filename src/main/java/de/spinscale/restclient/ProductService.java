@@ -1,15 +1,88 @@
 package de.spinscale.restclient;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface ProductService {
 
+    /**
+     * @return the product or null if there is no product with this id
+     */
     Product findById(String id) throws IOException;
 
+    /**
+     * @return the product with the sequence number and primary term of its last change, or null if there is no
+     * product with this id
+     */
+    VersionedProduct findVersionedById(String id) throws IOException;
+
+    /**
+     * Fetches several products at once
+     *
+     * @return one entry per requested id in the same order, empty if there is no product with that id
+     */
+    List<Optional<Product>> findByIds(Collection<String> ids) throws IOException;
+
     Page<Product> search(String query) throws IOException;
 
+    /**
+     * Searches a point in time of the index, which is kept open for {@code keepAlive} after each page.
+     * All following pages are read with search_after from the same point in time, so deep pages are as
+     * cheap as the first one. Call {@link #close(Page)} once done.
+     */
+    Page<Product> search(String query, Duration keepAlive) throws IOException;
+
+    /**
+     * Runs several searches in a single round trip, for example different queries or consecutive pages
+     *
+     * @return one page per request in the same order
+     */
+    List<Page<Product>> searchBatch(List<PageRequest> requests) throws IOException;
+
+    /**
+     * Searches the first {@code size} products and calculates the requested facets over all matching products
+     *
+     * @param size the number of products to return, 0 only calculates the facets
+     */
+    FacetedPage searchWithFacets(String query, int size, FacetRequest facets) throws IOException;
+
     Page<Product> next(Page page) throws IOException;
 
+    /**
+     * Releases the point in time of the page, if any
+     */
+    void close(Page page) throws IOException;
+
     void save(Product product) throws IOException;
 
+    void save(List<Product> products) throws IOException;
+
+    /**
+     * Saves all products of a columnar batch, generated ids are set on the batch
+     */
+    void save(ProductBatch batch) throws IOException;
+
+    /**
+     * Saves the product only if it was not changed since it was read, so concurrent writers do not overwrite
+     * each other. Always written directly, even if saves are buffered or handed to a bulk indexer.
+     *
+     * @return the saved product with the sequence number and primary term of this change
+     * @throws co.elastic.clients.elasticsearch._types.ElasticsearchException with status 409 if the product was
+     *         changed or deleted in the meantime
+     */
+    VersionedProduct save(VersionedProduct product) throws IOException;
+
+    /**
+     * Applies a partial update without reindexing the whole product
+     */
+    void update(ProductUpdate update) throws IOException;
+
+    /**
+     * Applies partial updates, updates of the same product are merged into a single operation
+     */
+    void update(List<ProductUpdate> updates) throws IOException;
+
 }
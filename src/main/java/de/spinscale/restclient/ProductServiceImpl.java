@@ -1,50 +1,490 @@
 package de.spinscale.restclient;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.AggregationRange;
+import co.elastic.clients.elasticsearch._types.aggregations.HistogramBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.IndexResponse;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.MsearchRequest;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.get.GetResult;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
 import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.spinscale.restclient.ProductServiceMetrics.Operation;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-// use async in a real application
+// see AsyncProductServiceImpl for a non blocking variant
 public class ProductServiceImpl implements ProductService {
 
+    // keeps single mget requests and responses at a reasonable size
+    static final int MGET_CHUNK_SIZE = 1000;
+
+    // product batches are split into bulk requests of this many products
+    static final int BATCH_BULK_SIZE = 1000;
+
+    static final int STREAM_PAGE_SIZE = 1000;
+    static final Duration STREAM_KEEP_ALIVE = Duration.ofMinutes(1);
+
+    static final String PRICE_HISTOGRAM = "price_histogram";
+    static final String STOCK_AVERAGE = "stock_average";
+    static final String PRICE_RANGES = "price_ranges";
+    static final String STOCK_RANGES = "stock_ranges";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     private final String index;
     private final ElasticsearchClient client;
+    private final BulkIndexer bulkIndexer;
+    private final ProductUpdater updater;
+    private final RequestHedger hedger;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final ProductServiceMetrics metrics;
+    private final NdjsonBulkWriter<Product> bulkWriter;
+    private final RestClient restClient;
+    private final NdjsonBulkWriter<Product> batchWriter;
+    private final boolean prefetch;
+    private final TtlCache<FacetKey, Facets> facetCache;
+    private final ProductSpool spool;
+    private final Duration spoolTimeout;
+    private final ProductAutocomplete autocomplete;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private volatile boolean updateScriptCreated = false;
 
     public ProductServiceImpl(String index, ElasticsearchClient client) {
+        this(index, client, null);
+    }
+
+    /**
+     * @param bulkIndexer if set, all saves are handed over to the bulk indexer, so that
+     *                    saves from concurrent callers are combined into a few bulk requests
+     */
+    public ProductServiceImpl(String index, ElasticsearchClient client, BulkIndexer bulkIndexer) {
+        this(index, client, bulkIndexer, new ProductServiceMetrics());
+    }
+
+    public ProductServiceImpl(String index, ElasticsearchClient client, BulkIndexer bulkIndexer, ProductServiceMetrics metrics) {
+        this(index, client, bulkIndexer, metrics, null, null, null, false, null, null, null, null);
+    }
+
+    private ProductServiceImpl(String index, ElasticsearchClient client, BulkIndexer bulkIndexer, ProductServiceMetrics metrics,
+                               NdjsonBulkWriter<Product> bulkWriter, ProductUpdater updater, RequestHedger hedger,
+                               boolean prefetch, TtlCache<FacetKey, Facets> facetCache, ProductSpool spool,
+                               Duration spoolTimeout, ProductAutocomplete autocomplete) {
         this.index = index;
         this.client = client;
+        this.bulkIndexer = bulkIndexer;
+        this.updater = updater;
+        this.hedger = hedger;
+        // hedged requests need to be sent without blocking
+        this.asyncClient = hedger == null ? null : new ElasticsearchAsyncClient(client._transport(), client._transportOptions());
+        this.metrics = metrics;
+        this.bulkWriter = bulkWriter;
+        // batches need the low level client to write and read the raw bytes
+        this.restClient = client._transport() instanceof RestClientTransport transport ? transport.restClient() : null;
+        this.batchWriter = bulkWriter != null || restClient == null ? bulkWriter : new NdjsonBulkWriter<>(restClient, new ProductCodec());
+        this.prefetch = prefetch;
+        this.facetCache = facetCache;
+        this.spool = spool;
+        this.spoolTimeout = spoolTimeout;
+        this.autocomplete = autocomplete;
+    }
+
+    public static Builder builder(String index, ElasticsearchClient client) {
+        return new Builder(index, client);
+    }
+
+    public ProductServiceMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
     public Product findById(String id) throws IOException {
-        final GetResponse<Product> getResponse = client.get(builder -> builder.index(index).id(id), Product.class);
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final Product product = doFindById(id);
+            success = true;
+            return product;
+        } finally {
+            metrics.record(Operation.FIND_BY_ID, start, success);
+        }
+    }
+
+    private Product doFindById(String id) throws IOException {
+        final GetResponse<Product> getResponse = hedger == null
+                ? client.get(builder -> builder.index(index).id(id), Product.class)
+                : Futures.await(hedger.execute(Operation.FIND_BY_ID, () -> asyncClient.get(builder -> builder.index(index).id(id), Product.class)));
         Product product = getResponse.source();
+        if (product == null) {
+            return null;
+        }
         product.setId(id);
         return product;
     }
 
+    @Override
+    public VersionedProduct findVersionedById(String id) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final GetResponse<Product> getResponse = client.get(builder -> builder.index(index).id(id), Product.class);
+            success = true;
+            final Product product = getResponse.source();
+            if (product == null) {
+                return null;
+            }
+            product.setId(id);
+            return new VersionedProduct(product, getResponse.seqNo(), getResponse.primaryTerm());
+        } finally {
+            metrics.record(Operation.FIND_BY_ID, start, success);
+        }
+    }
+
+    @Override
+    public List<Optional<Product>> findByIds(Collection<String> ids) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final List<Optional<Product>> products = doFindByIds(ids);
+            success = true;
+            return products;
+        } finally {
+            metrics.record(Operation.FIND_BY_IDS, start, success);
+        }
+    }
+
+    private List<Optional<Product>> doFindByIds(Collection<String> ids) throws IOException {
+        final List<String> idList = new ArrayList<>(ids);
+        final List<Optional<Product>> products = new ArrayList<>(idList.size());
+        for (int from = 0; from < idList.size(); from += MGET_CHUNK_SIZE) {
+            final List<String> chunk = idList.subList(from, Math.min(from + MGET_CHUNK_SIZE, idList.size()));
+            final MgetResponse<Product> response = client.mget(builder -> builder.index(index).ids(chunk), Product.class);
+            for (MultiGetResponseItem<Product> item : response.docs()) {
+                products.add(toProduct(item));
+            }
+        }
+        return products;
+    }
+
+    static Optional<Product> toProduct(MultiGetResponseItem<Product> item) throws IOException {
+        if (item.isFailure()) {
+            throw new IOException("failed to get product [" + item.failure().id() + "]: " + item.failure().error().reason());
+        }
+        final GetResult<Product> result = item.result();
+        if (result.found() == false || result.source() == null) {
+            return Optional.empty();
+        }
+        final Product product = result.source();
+        product.setId(result.id());
+        return Optional.of(product);
+    }
+
     @Override
     public Page<Product> search(String input) throws IOException {
-        return createPage(createSearchRequest(input, 0, 10), input);
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final Page<Product> page = prefetch
+                    ? searchWithPrefetch(PageRequest.of(input), Operation.SEARCH)
+                    : createPage(createSearchRequest(index, input, 0, 10), input, Operation.SEARCH);
+            success = true;
+            return page;
+        } finally {
+            metrics.record(Operation.SEARCH, start, success);
+        }
+    }
+
+    @Override
+    public Page<Product> search(String input, Duration keepAlive) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final Page<Product> page = doSearch(input, keepAlive);
+            success = true;
+            return page;
+        } finally {
+            metrics.record(Operation.SEARCH, start, success);
+        }
+    }
+
+    private Page<Product> doSearch(String input, Duration keepAlive) throws IOException {
+        final String pointInTimeId = client.openPointInTime(b -> b.index(index).keepAlive(toTime(keepAlive))).id();
+        try {
+            final SearchRequest request = createPointInTimeSearchRequest(input, 10, pointInTimeId, keepAlive, null);
+            final SearchResponse<Product> response = client.search(request, Product.class);
+            metrics.recordTook(Operation.SEARCH, response.took());
+            return createPointInTimePage(response, input, 0, 10, pointInTimeId, keepAlive);
+        } catch (IOException | RuntimeException e) {
+            try {
+                client.closePointInTime(b -> b.id(pointInTimeId));
+            } catch (IOException | RuntimeException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
     }
 
     @Override
     public Page<Product> next(Page page) throws IOException {
-        int from = page.getFrom() + page.getSize();
-        final SearchRequest request = createSearchRequest(page.getInput(), from, page.getSize());
-        return createPage(request, page.getInput());
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final Page<Product> nextPage = doNext(page);
+            success = true;
+            return nextPage;
+        } finally {
+            metrics.record(Operation.NEXT, start, success);
+        }
+    }
+
+    private Page<Product> doNext(Page page) throws IOException {
+        if (page.hasPointInTime()) {
+            if (page.getSortValues() == null) {
+                // there was nothing left to read
+                return page;
+            }
+            final SearchRequest request = createNextRequest(index, page);
+            final SearchResponse<Product> response = client.search(request, Product.class);
+            metrics.recordTook(Operation.NEXT, response.took());
+            return createPointInTimePage(response, page.getInput(), page.getFrom() + page.get().size(),
+                    page.getSize(), page.getPointInTimeId(), page.getKeepAlive());
+        }
+        if (page.getPrefetched() != null) {
+            return page.getPrefetched();
+        }
+        if (prefetch) {
+            return searchWithPrefetch(PageRequest.of(page.getInput(), page.getFrom() + page.getSize(), page.getSize()), Operation.NEXT);
+        }
+        return createPage(createNextRequest(index, page), page.getInput(), Operation.NEXT);
+    }
+
+    @Override
+    public List<Page<Product>> searchBatch(List<PageRequest> requests) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final List<Page<Product>> pages = doSearchBatch(requests, Operation.SEARCH_BATCH);
+            success = true;
+            return pages;
+        } finally {
+            metrics.record(Operation.SEARCH_BATCH, start, success);
+        }
+    }
+
+    private List<Page<Product>> doSearchBatch(List<PageRequest> requests, Operation operation) throws IOException {
+        return doSearchBatch(requests, operation, requests.size());
+    }
+
+    /**
+     * @param required the number of leading requests whose failure fails the batch, other failed requests get a null page
+     */
+    private List<Page<Product>> doSearchBatch(List<PageRequest> requests, Operation operation, int required) throws IOException {
+        if (requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final MsearchRequest request = createMultiSearchRequest(index, requests);
+        final MsearchResponse<Product> response = hedger == null
+                ? client.msearch(request, Product.class)
+                : Futures.await(hedger.execute(operation, () -> asyncClient.msearch(request, Product.class)));
+        metrics.recordTook(operation, response.took());
+
+        final List<Page<Product>> pages = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final MultiSearchResponseItem<Product> item = response.responses().get(i);
+            final PageRequest pageRequest = requests.get(i);
+            if (item.isFailure()) {
+                if (i < required) {
+                    throw new IOException("failed to search " + pageRequest + ": " + item.failure().error().reason());
+                }
+                pages.add(null);
+                continue;
+            }
+            pages.add(createPage(item.result(), pageRequest.getInput(), pageRequest.getFrom(), pageRequest.getSize()));
+        }
+        return pages;
     }
 
-    private Page<Product> createPage(SearchRequest searchRequest, String input) throws IOException {
-        final SearchResponse<Product> response = client.search(searchRequest, Product.class);
+    /**
+     * Fetches the page and the following one in a single multi search, the following page is
+     * kept in the returned page and served by {@link #next(Page)} without another round trip.
+     * If only the following page fails, for example because it is beyond {@code max_result_window},
+     * nothing is prefetched and {@link #next(Page)} searches it once it is asked for.
+     */
+    private Page<Product> searchWithPrefetch(PageRequest request, Operation operation) throws IOException {
+        final List<Page<Product>> pages = doSearchBatch(List.of(request, request.next()), operation, 1);
+        final Page<Product> page = pages.get(0);
+        if (page == Page.EMPTY) {
+            return page;
+        }
+        return new Page<>(page.get(), page.getInput(), page.getFrom(), page.getSize(), pages.get(1));
+    }
+
+    /**
+     * Facet only calls with a size of 0 are cacheable by the shard request cache. If the facet cache
+     * is enabled, facets are also cached on the client, keyed by the query with normalized case and
+     * whitespace, which the analyzer of the searched fields ignores anyway. A page with hits then
+     * only runs the query without aggregations.
+     */
+    @Override
+    public FacetedPage searchWithFacets(String input, int size, FacetRequest facets) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final FacetedPage page = doSearchWithFacets(input, size, facets);
+            success = true;
+            return page;
+        } finally {
+            metrics.record(Operation.SEARCH_WITH_FACETS, start, success);
+        }
+    }
+
+    private FacetedPage doSearchWithFacets(String input, int size, FacetRequest facetRequest) throws IOException {
+        if (facetCache == null) {
+            return searchWithFacets(createFacetSearchRequest(index, input, size, facetRequest), input, size, facetRequest);
+        }
+        final FacetKey key = new FacetKey(normalizeQuery(input), facetRequest);
+        if (size == 0) {
+            final Facets facets = facetCache.get(key, () ->
+                    searchWithFacets(createFacetSearchRequest(index, input, 0, facetRequest), input, 0, facetRequest).getFacets());
+            return new FacetedPage(Collections.emptyList(), input, 0, facets);
+        }
+        final Facets cached = facetCache.get(key);
+        if (cached != null) {
+            final Page<Product> page = createPage(createSearchRequest(index, input, 0, size), input, Operation.SEARCH_WITH_FACETS);
+            return new FacetedPage(page.get(), input, size, cached);
+        }
+        final FacetedPage page = searchWithFacets(createFacetSearchRequest(index, input, size, facetRequest), input, size, facetRequest);
+        facetCache.put(key, page.getFacets());
+        return page;
+    }
+
+    private FacetedPage searchWithFacets(SearchRequest request, String input, int size, FacetRequest facetRequest) throws IOException {
+        final SearchResponse<Product> response = hedger == null
+                ? client.search(request, Product.class)
+                : Futures.await(hedger.execute(Operation.SEARCH_WITH_FACETS, () -> asyncClient.search(request, Product.class)));
+        metrics.recordTook(Operation.SEARCH_WITH_FACETS, response.took());
+        return new FacetedPage(toProducts(response.hits().hits()), input, size, createFacets(response, facetRequest));
+    }
+
+    /**
+     * @return the statistics of the facet cache, all zero if the cache is disabled
+     */
+    public CacheStats facetCacheStats() {
+        return facetCache == null ? new CacheStats(0, 0, 0, 0, 0, 0, 0) : facetCache.stats();
+    }
+
+    @Override
+    public void close(Page page) throws IOException {
+        if (page.hasPointInTime() == false) {
+            return;
+        }
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            client.closePointInTime(b -> b.id(page.getPointInTimeId()));
+            success = true;
+        } finally {
+            metrics.record(Operation.CLOSE, start, success);
+        }
+    }
+
+    /**
+     * Suggests products for a prefix typed into the search box from the configured {@link ProductAutocomplete},
+     * without a request to Elasticsearch. Only the full search once the user is done typing has to go to
+     * {@link #search(String)}.
+     *
+     * @throws IllegalStateException if no autocomplete is configured
+     */
+    public List<ProductSummary> suggest(String prefix, int size, ProductAutocomplete.Ranking ranking) {
+        if (autocomplete == null) {
+            throw new IllegalStateException("no autocomplete configured for index [" + index + "]");
+        }
+        return autocomplete.suggest(prefix, size, ranking);
+    }
+
+    /**
+     * Rebuilds the autocomplete from a scan of all products in the index, saves keep being applied meanwhile
+     *
+     * @throws IllegalStateException if no autocomplete is configured
+     */
+    public AutocompleteStats rebuildAutocomplete() throws IOException {
+        if (autocomplete == null) {
+            throw new IllegalStateException("no autocomplete configured for index [" + index + "]");
+        }
+        autocomplete.rebuild(() -> streamAll(Query.of(q -> q.matchAll(m -> m))));
+        return autocomplete.stats();
+    }
+
+    /**
+     * Lazily streams all products matching the query. Pages are only fetched when the stream
+     * is consumed, so memory usage is constant regardless of the index size. Close the stream
+     * to release the point in time if it is not fully consumed.
+     */
+    public Stream<Product> streamAll(Query query) throws IOException {
+        return streamAll(query, 1);
+    }
+
+    /**
+     * Like {@link #streamAll(Query)}, but splits the point in time into {@code slices} slices,
+     * each read by its own thread. Use about as many slices as the index has shards. The order
+     * of the products is undefined.
+     */
+    public Stream<Product> streamAll(Query query, int slices) throws IOException {
+        final PointInTimeScan scan = new PointInTimeScan(client, index, query, STREAM_PAGE_SIZE, STREAM_KEEP_ALIVE);
+        return scan.stream(slices);
+    }
+
+    private Page<Product> createPage(SearchRequest searchRequest, String input, Operation operation) throws IOException {
+        final SearchResponse<Product> response = hedger == null
+                ? client.search(searchRequest, Product.class)
+                : Futures.await(hedger.execute(operation, () -> asyncClient.search(searchRequest, Product.class)));
+        metrics.recordTook(operation, response.took());
+        return createPage(response, searchRequest, input);
+    }
+
+    static Page<Product> createPage(SearchResponse<Product> response, SearchRequest searchRequest, String input) {
+        return createPage(response, input, searchRequest.from(), searchRequest.size());
+    }
+
+    static Page<Product> createPage(ResponseBody<Product> response, String input, int from, int size) {
         if (response.hits().total().value() == 0) {
             return Page.EMPTY;
         }
@@ -52,25 +492,538 @@ public class ProductServiceImpl implements ProductService {
             return Page.EMPTY;
         }
 
-        response.hits().hits().forEach(hit -> hit.source().setId(hit.id()));
-        final List<Product> products = response.hits().hits().stream().map(Hit::source).collect(Collectors.toList());
-        return new Page(products, input, searchRequest.from(), searchRequest.size());
+        return new Page(toProducts(response.hits().hits()), input, from, size);
+    }
+
+    static Page<Product> createPointInTimePage(SearchResponse<Product> response, String input, int from, int size,
+                                               String pointInTimeId, Duration keepAlive) {
+        // the point in time id may change with every response, always continue with the latest one
+        final String latestPointInTimeId = response.pitId() != null ? response.pitId() : pointInTimeId;
+        final List<Hit<Product>> hits = response.hits().hits();
+        if (hits.isEmpty()) {
+            return new Page<>(Collections.emptyList(), input, from, size, null, latestPointInTimeId, keepAlive);
+        }
+
+        final List<String> sortValues = hits.get(hits.size() - 1).sort();
+        return new Page<>(toProducts(hits), input, from, size, sortValues, latestPointInTimeId, keepAlive);
+    }
+
+    private static List<Product> toProducts(List<Hit<Product>> hits) {
+        hits.forEach(hit -> hit.source().setId(hit.id()));
+        return hits.stream().map(Hit::source).collect(Collectors.toList());
     }
 
-    private SearchRequest createSearchRequest(String input, int from, int size) {
+    static SearchRequest createNextRequest(String index, Page page) {
+        if (page.hasPointInTime()) {
+            return createPointInTimeSearchRequest(page.getInput(), page.getSize(), page.getPointInTimeId(),
+                    page.getKeepAlive(), page.getSortValues());
+        }
+        return createSearchRequest(index, page.getInput(), page.getFrom() + page.getSize(), page.getSize());
+    }
+
+    /**
+     * @param index the index or alias to search, without it all indices of the cluster are searched
+     */
+    static SearchRequest createSearchRequest(String index, String input, int from, int size) {
         return new SearchRequest.Builder()
+                .index(index)
                 .from(from)
                 .size(size)
-                .query(qb -> qb.multiMatch(mmqb -> mmqb.query(input).fields("name", "description")))
+                .query(createQuery(input))
                 .build();
     }
 
+    static SearchRequest createSearchRequest(String index, String input, int from, int size, Projection<?> projection) {
+        final SearchRequest.Builder builder = new SearchRequest.Builder()
+                .index(index)
+                .from(from)
+                .size(size)
+                .query(createQuery(input));
+        if (projection.isFetchSource() == false) {
+            builder.source(sc -> sc.fetch(false));
+        } else if (projection.getIncludes().isEmpty() == false || projection.getExcludes().isEmpty() == false) {
+            builder.source(sc -> sc.filter(f -> {
+                if (projection.getIncludes().isEmpty() == false) {
+                    f.includes(projection.getIncludes());
+                }
+                if (projection.getExcludes().isEmpty() == false) {
+                    f.excludes(projection.getExcludes());
+                }
+                return f;
+            }));
+        }
+        for (String field : projection.getDocValueFields()) {
+            builder.docvalueFields(f -> f.field(field));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Runs the same query as {@link #createSearchRequest(String, String, int, int)} for every page
+     */
+    static MsearchRequest createMultiSearchRequest(String index, List<PageRequest> requests) {
+        return MsearchRequest.of(b -> {
+            b.index(index);
+            for (PageRequest request : requests) {
+                b.searches(s -> s.header(h -> h)
+                        .body(body -> body.from(request.getFrom()).size(request.getSize()).query(createQuery(request.getInput()))));
+            }
+            return b;
+        });
+    }
+
+    /**
+     * Runs the same query as {@link #createSearchRequest(String, String, int, int)} with the aggregations
+     * of the requested facets. Requests without hits are cached by the shard request cache.
+     */
+    static SearchRequest createFacetSearchRequest(String index, String input, int size, FacetRequest facets) {
+        final SearchRequest.Builder builder = new SearchRequest.Builder()
+                .index(index)
+                .size(size)
+                .query(createQuery(input))
+                // the aggregations visit every matching product anyway, so an exact total costs next to nothing
+                .trackTotalHits(th -> th.enabled(true));
+        if (size == 0) {
+            builder.requestCache(true);
+        }
+        if (facets.hasPriceHistogram()) {
+            builder.aggregations(PRICE_HISTOGRAM, a -> a
+                    .histogram(h -> h.field("price").interval(facets.getPriceInterval()))
+                    .aggregations(STOCK_AVERAGE, sub -> sub.avg(avg -> avg.field("stock_available"))));
+        }
+        final double[] priceRanges = facets.getPriceRanges();
+        if (priceRanges.length > 0) {
+            builder.aggregations(PRICE_RANGES, a -> a.range(r -> r.field("price").ranges(toRanges(priceRanges))));
+        }
+        final double[] stockRanges = Arrays.stream(facets.getStockRanges()).asDoubleStream().toArray();
+        if (stockRanges.length > 0) {
+            builder.aggregations(STOCK_RANGES, a -> a.range(r -> r.field("stock_available").ranges(toRanges(stockRanges))));
+        }
+        return builder.build();
+    }
+
+    // n boundaries result in n + 1 ranges, the first and the last one are open
+    private static List<AggregationRange> toRanges(double[] boundaries) {
+        final List<AggregationRange> ranges = new ArrayList<>(boundaries.length + 1);
+        ranges.add(AggregationRange.of(r -> r.to(String.valueOf(boundaries[0]))));
+        for (int i = 1; i < boundaries.length; i++) {
+            final double from = boundaries[i - 1];
+            final double to = boundaries[i];
+            ranges.add(AggregationRange.of(r -> r.from(String.valueOf(from)).to(String.valueOf(to))));
+        }
+        ranges.add(AggregationRange.of(r -> r.from(String.valueOf(boundaries[boundaries.length - 1]))));
+        return ranges;
+    }
+
+    static Facets createFacets(ResponseBody<?> response, FacetRequest facets) {
+        final Map<String, Aggregate> aggregations = response.aggregations();
+        final List<Facets.HistogramBucket> priceHistogram = new ArrayList<>();
+        if (facets.hasPriceHistogram() && aggregations.containsKey(PRICE_HISTOGRAM)) {
+            for (HistogramBucket bucket : aggregations.get(PRICE_HISTOGRAM).histogram().buckets().array()) {
+                final Aggregate stockAverage = bucket.aggregations().get(STOCK_AVERAGE);
+                priceHistogram.add(new Facets.HistogramBucket(bucket.key(), bucket.docCount(),
+                        stockAverage == null ? Double.NaN : stockAverage.avg().value()));
+            }
+        }
+        final long total = response.hits().total() == null ? 0 : response.hits().total().value();
+        return new Facets(total, priceHistogram, toRangeBuckets(aggregations.get(PRICE_RANGES)),
+                toRangeBuckets(aggregations.get(STOCK_RANGES)));
+    }
+
+    private static List<Facets.RangeBucket> toRangeBuckets(Aggregate aggregate) {
+        if (aggregate == null) {
+            return Collections.emptyList();
+        }
+        return aggregate.range().buckets().array().stream()
+                .map(bucket -> new Facets.RangeBucket(bucket.from(), bucket.to(), bucket.docCount()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Lower cases the query and collapses whitespace, so that equivalent queries share facet cache entries
+     */
+    static String normalizeQuery(String input) {
+        return WHITESPACE.matcher(input.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    // object headers and list entries, plus about 48 bytes per bucket
+    static long weigh(Facets facets) {
+        return 128 + 48L * facets.bucketCount();
+    }
+
+    record FacetKey(String input, FacetRequest facets) {
+    }
+
+    private static Query createQuery(String input) {
+        return Query.of(qb -> qb.multiMatch(mmqb -> mmqb.query(input).fields("name", "description")));
+    }
+
+    /**
+     * Searches a point in time instead of the index, so that the results do not shift while paging.
+     * The _shard_doc tiebreaker makes the sort unique, so search_after never skips or repeats a hit
+     * and page N costs the same as the first page.
+     */
+    static SearchRequest createPointInTimeSearchRequest(String input, int size, String pointInTimeId, Duration keepAlive,
+                                                        List<String> searchAfter) {
+        final SearchRequest.Builder builder = new SearchRequest.Builder()
+                .size(size)
+                .pit(pit -> pit.id(pointInTimeId).keepAlive(toTime(keepAlive)))
+                .query(createQuery(input))
+                .sort(sb -> sb.score(score -> score.order(SortOrder.Desc)))
+                .sort(sb -> sb.field(fs -> fs.field("_shard_doc").order(SortOrder.Asc)));
+        if (searchAfter != null) {
+            builder.searchAfter(searchAfter);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Runs the same query as {@link #search(String)}, but decodes the hits straight into the batch,
+     * without creating any products. Requires a client based on the low level rest client.
+     *
+     * @return the number of hits added to the batch
+     */
+    public int search(String input, int from, int size, ProductBatch batch) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final int added = doSearch(input, from, size, batch);
+            success = true;
+            return added;
+        } finally {
+            metrics.record(Operation.SEARCH, start, success);
+        }
+    }
+
+    private int doSearch(String input, int from, int size, ProductBatch batch) throws IOException {
+        final int previousSize = batch.size();
+        metrics.recordTook(Operation.SEARCH, search(createSearchRequest(index, input, from, size), parser -> readHit(parser, batch)));
+        return batch.size() - previousSize;
+    }
+
+    /**
+     * Runs the same query as {@link #search(String)}, but only fetches the parts of every hit selected
+     * by the projection and decodes them into the projection type. Requires a client based on the low
+     * level rest client.
+     */
+    public <T> Page<T> search(String input, Projection<T> projection) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final Page<T> page = doSearch(input, 0, 10, projection, Operation.SEARCH);
+            success = true;
+            return page;
+        } finally {
+            metrics.record(Operation.SEARCH, start, success);
+        }
+    }
+
+    /**
+     * Fetches the page following a page returned by {@link #search(String, Projection)}
+     */
+    public <T> Page<T> next(Page<T> page, Projection<T> projection) throws IOException {
+        if (page.hasPointInTime()) {
+            throw new IllegalArgumentException("projections are not supported for point in time searches");
+        }
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final Page<T> nextPage = doSearch(page.getInput(), page.getFrom() + page.getSize(), page.getSize(), projection, Operation.NEXT);
+            success = true;
+            return nextPage;
+        } finally {
+            metrics.record(Operation.NEXT, start, success);
+        }
+    }
+
+    private <T> Page<T> doSearch(String input, int from, int size, Projection<T> projection, Operation operation) throws IOException {
+        final List<T> hits = new ArrayList<>(size);
+        metrics.recordTook(operation, search(createSearchRequest(index, input, from, size, projection), parser -> readHit(parser, projection, hits)));
+        if (hits.isEmpty()) {
+            return Page.EMPTY;
+        }
+        return new Page<>(hits, input, from, size);
+    }
+
+    /**
+     * Sends the search with the low level client and hands every hit of the response to the reader
+     *
+     * @return the took time of the response
+     */
+    private long search(SearchRequest searchRequest, HitReader reader) throws IOException {
+        // the index is a path parameter and not part of the serialized body
+        final Request request = new Request("POST", "/" + index + "/_search");
+        request.setEntity(new ByteArrayEntity(toJson(searchRequest), ContentType.APPLICATION_JSON));
+        final Response response = lowLevelClient().performRequest(request);
+        try (InputStream content = response.getEntity().getContent(); JsonParser parser = jsonFactory.createParser(content)) {
+            return readSearchResponse(parser, reader);
+        }
+    }
+
+    private byte[] toJson(JsonpSerializable value) {
+        final JsonpMapper mapper = client._transport().jsonpMapper();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (jakarta.json.stream.JsonGenerator generator = mapper.jsonProvider().createGenerator(output)) {
+            value.serialize(generator, mapper);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Adds the id and source of every hit of a search response to the batch
+     *
+     * @return the took time of the response
+     */
+    static long readSearchResponse(JsonParser parser, ProductBatch batch) throws IOException {
+        return readSearchResponse(parser, hitParser -> readHit(hitParser, batch));
+    }
+
+    /**
+     * Decodes every hit of a search response with the projection and adds it to the list
+     *
+     * @return the took time of the response
+     */
+    static <T> long readSearchResponse(JsonParser parser, Projection<T> projection, List<T> hits) throws IOException {
+        return readSearchResponse(parser, hitParser -> readHit(hitParser, projection, hits));
+    }
+
+    private static long readSearchResponse(JsonParser parser, HitReader reader) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("unexpected search response, expected an object");
+        }
+        long took = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("took".equals(field)) {
+                took = parser.getValueAsLong();
+            } else if ("hits".equals(field)) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String hitsField = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY && "hits".equals(hitsField)) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            reader.read(parser);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return took;
+    }
+
+    private static void readHit(JsonParser parser, ProductBatch batch) throws IOException {
+        // _id comes before _source in every hit Elasticsearch returns
+        String id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("_id".equals(field)) {
+                id = parser.getText();
+            } else if ("_source".equals(field)) {
+                batch.readSource(id, parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static <T> void readHit(JsonParser parser, Projection<T> projection, List<T> hits) throws IOException {
+        final Projection.HitDecoder<T> decoder = projection.decoder();
+        String id = null;
+        T value = null;
+        boolean decoded = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("_id".equals(field)) {
+                id = parser.getText();
+            } else if ("_source".equals(field)) {
+                value = decoder.decode(id, parser);
+                decoded = true;
+            } else if ("fields".equals(field)) {
+                // doc value fields come after the source, hits without source are decoded first
+                if (decoded == false) {
+                    value = decoder.decode(id, null);
+                    decoded = true;
+                }
+                value = readDocValues(parser, decoder, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (decoded == false) {
+            value = decoder.decode(id, null);
+        }
+        if (value != null) {
+            hits.add(value);
+        }
+    }
+
+    private static <T> T readDocValues(JsonParser parser, Projection.HitDecoder<T> decoder, T value) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            // doc values are always returned as array, even for single values
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken().isNumeric()) {
+                    value = decoder.docValue(value, field, parser.getValueAsDouble());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return value;
+    }
+
+    private interface HitReader {
+        void read(JsonParser parser) throws IOException;
+    }
+
+    private RestClient lowLevelClient() {
+        if (restClient == null) {
+            throw new IllegalStateException("product batches and projections require a client based on the low level rest client");
+        }
+        return restClient;
+    }
+
+    static Time toTime(Duration duration) {
+        return Time.of(t -> t.time(duration.toMillis() + "ms"));
+    }
+
     @Override
     public void save(Product product) throws IOException {
         save(Collections.singletonList(product));
     }
 
+    @Override
     public void save(List<Product> products) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            doSave(products);
+            if (autocomplete != null) {
+                autocomplete.put(products);
+            }
+            success = true;
+        } finally {
+            metrics.record(Operation.SAVE, start, success);
+        }
+    }
+
+    /**
+     * Saves all products of the batch, split into bulk requests of {@value #BATCH_BULK_SIZE} products.
+     * Batches are written directly, even if a bulk indexer is configured, but are appended to the spool
+     * if there is one. Generated ids are set on the batch.
+     */
+    @Override
+    public void save(ProductBatch batch) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            if (spool != null) {
+                final List<Product> products = toProducts(batch);
+                spool.append(products);
+                for (int row = 0; row < batch.size(); row++) {
+                    batch.setId(row, products.get(row).getId());
+                }
+            } else {
+                doSave(batch);
+            }
+            if (autocomplete != null) {
+                // read after the save, which sets the generated ids on the batch
+                autocomplete.put(toProducts(batch));
+            }
+            success = true;
+        } finally {
+            metrics.record(Operation.SAVE, start, success);
+        }
+    }
+
+    private static List<Product> toProducts(ProductBatch batch) {
+        final List<Product> products = new ArrayList<>(batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+            products.add(batch.get(row));
+        }
+        return products;
+    }
+
+    @Override
+    public VersionedProduct save(VersionedProduct versionedProduct) throws IOException {
+        final Product product = versionedProduct.getProduct();
+        if (product.getId() == null) {
+            throw new IllegalArgumentException("a product has to have an id to be saved with its sequence number");
+        }
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            awaitSpool();
+            final IndexResponse response = client.index(builder -> builder.index(index)
+                    .id(product.getId())
+                    .document(product)
+                    .ifSeqNo(versionedProduct.getSeqNo())
+                    .ifPrimaryTerm(versionedProduct.getPrimaryTerm()));
+            success = true;
+            if (autocomplete != null) {
+                autocomplete.put(List.of(product));
+            }
+            return new VersionedProduct(product, response.seqNo(), response.primaryTerm());
+        } finally {
+            metrics.record(Operation.SAVE, start, success);
+        }
+    }
+
+    private void doSave(ProductBatch batch) throws IOException {
+        lowLevelClient();
+        int failures = 0;
+        for (int from = 0; from < batch.size(); from += BATCH_BULK_SIZE) {
+            final NdjsonBulkWriter.Result result = batchWriter.write(index, batch.range(from, Math.min(from + BATCH_BULK_SIZE, batch.size())));
+            metrics.recordTook(Operation.SAVE, result.getTook());
+            failures += result.getFailures();
+        }
+        metrics.recordBulk(batch.size(), failures);
+    }
+
+    /**
+     * Waits for the spool to replay the saves made so far, so that writes bypassing it are not
+     * overwritten by an older save replayed later
+     */
+    private void awaitSpool() throws IOException {
+        if (spool == null) {
+            return;
+        }
+        try {
+            if (spool.awaitReplayed(spoolTimeout) == false) {
+                throw new IOException("spool [" + index + "] did not replay earlier saves within [" + spoolTimeout + "]");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private void doSave(List<Product> products) throws IOException {
+        if (spool != null) {
+            spool.append(products);
+            return;
+        }
+        if (bulkIndexer != null) {
+            saveWithBulkIndexer(products);
+            return;
+        }
+        if (bulkWriter != null) {
+            final NdjsonBulkWriter.Result result = bulkWriter.write(index, products);
+            metrics.recordTook(Operation.SAVE, result.getTook());
+            metrics.recordBulk(products.size(), result.getFailures());
+            return;
+        }
+
         final BulkResponse response = client.bulk(builder -> {
             for (Product product : products) {
                 builder.index(index)
@@ -86,9 +1039,219 @@ public class ProductServiceImpl implements ProductService {
             return builder;
         });
 
+        metrics.recordTook(Operation.SAVE, response.took());
+        int failures = 0;
         final int size = products.size();
         for (int i = 0; i < size; i++) {
-            products.get(i).setId(response.items().get(i).id());
+            final BulkResponseItem item = response.items().get(i);
+            products.get(i).setId(item.id());
+            if (item.error() != null) {
+                failures++;
+            }
+        }
+        metrics.recordBulk(size, failures);
+    }
+
+    @Override
+    public void update(ProductUpdate update) throws IOException {
+        update(Collections.singletonList(update));
+    }
+
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            doUpdate(updates);
+            if (autocomplete != null) {
+                autocomplete.apply(updates);
+            }
+            success = true;
+        } finally {
+            metrics.record(Operation.UPDATE, start, success);
+        }
+    }
+
+    private void doUpdate(List<ProductUpdate> updates) throws IOException {
+        awaitSpool();
+        if (updater != null) {
+            final CompletableFuture<?>[] futures = new CompletableFuture[updates.size()];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = updater.update(updates.get(i));
+            }
+            Futures.await(CompletableFuture.allOf(futures));
+            return;
+        }
+
+        if (updateScriptCreated == false) {
+            client.putScript(ProductUpdater.createScriptRequest(ProductUpdater.DEFAULT_SCRIPT_ID));
+            updateScriptCreated = true;
+        }
+        final List<ProductUpdate> coalesced = ProductUpdater.coalesce(updates);
+        final BulkResponse response = client.bulk(builder -> {
+            builder.index(index);
+            for (ProductUpdate update : coalesced) {
+                builder.operations(ProductUpdater.toOperation(update, ProductUpdater.DEFAULT_SCRIPT_ID, 3));
+            }
+            return builder;
+        });
+
+        metrics.recordTook(Operation.UPDATE, response.took());
+        int failures = 0;
+        String firstFailure = null;
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() != null) {
+                if (failures++ == 0) {
+                    firstFailure = "[" + item.id() + "], status [" + item.status() + "]: " + item.error().reason();
+                }
+            }
+        }
+        metrics.recordBulk(coalesced.size(), failures);
+        if (failures > 0) {
+            throw new IOException("failed to update [" + failures + "] products, first failure " + firstFailure);
+        }
+    }
+
+    private void saveWithBulkIndexer(List<Product> products) throws IOException {
+        final CompletableFuture<?>[] futures = new CompletableFuture[products.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = bulkIndexer.add(products.get(i));
+        }
+        Futures.await(CompletableFuture.allOf(futures));
+    }
+
+    public static class Builder {
+
+        private final String index;
+        private final ElasticsearchClient client;
+        private BulkIndexer bulkIndexer;
+        private ProductServiceMetrics metrics = new ProductServiceMetrics();
+        private DocumentCodec<Product> codec;
+        private ProductUpdater updater;
+        private RequestHedger hedger;
+        private boolean prefetch = false;
+        private Duration facetCacheTtl = Duration.ZERO;
+        private long maximumCachedFacets = 1000;
+        private ProductSpool spool;
+        private Duration spoolTimeout;
+        private ProductAutocomplete autocomplete;
+
+        private Builder(String index, ElasticsearchClient client) {
+            this.index = index;
+            this.client = client;
+        }
+
+        /**
+         * Hands all saves over to the bulk indexer, takes precedence over {@link #codec(DocumentCodec)}
+         */
+        public Builder bulkIndexer(BulkIndexer bulkIndexer) {
+            this.bulkIndexer = bulkIndexer;
+            return this;
+        }
+
+        public Builder metrics(ProductServiceMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Writes bulk requests with the codec into pooled buffers, instead of using the bulk API
+         * of the client. Requires a client based on the low level rest client.
+         */
+        public Builder codec(DocumentCodec<Product> codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * Hands all updates over to the updater, which merges updates of concurrent callers within its flush window
+         */
+        public Builder updater(ProductUpdater updater) {
+            this.updater = updater;
+            return this;
+        }
+
+        /**
+         * Hedges {@link #findById(String)} and all searches, that do not use a point in time
+         */
+        public Builder hedger(RequestHedger hedger) {
+            this.hedger = hedger;
+            return this;
+        }
+
+        /**
+         * Fetches the following page together with every page of {@link #search(String)} and {@link #next(Page)}
+         * in a single multi search, so that the next page is served without another round trip
+         */
+        public Builder prefetch(boolean prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        /**
+         * Caches the facets of {@link #searchWithFacets(String, int, FacetRequest)} on the client, so that
+         * popular category pages do not run their aggregations for every visitor. Zero disables the cache.
+         *
+         * @param facetCacheTtl       how long facets are cached, counts are off by the changes made in the meantime
+         * @param maximumCachedFacets the number of query and facet combinations to cache
+         */
+        public Builder facetCache(Duration facetCacheTtl, long maximumCachedFacets) {
+            this.facetCacheTtl = facetCacheTtl;
+            this.maximumCachedFacets = maximumCachedFacets;
+            return this;
+        }
+
+        /**
+         * Appends all saves to the spool, which indexes them in the background, takes precedence over
+         * {@link #bulkIndexer(BulkIndexer)} and {@link #codec(DocumentCodec)}. Saves return once the products
+         * are on the local disk, so they are not searchable yet, even if the index is refreshed. This includes
+         * {@link ProductServiceImpl#save(ProductBatch)}, the other writes cannot be replayed later, a versioned
+         * save needs the current sequence number and an update the current stock. Those wait until the spool has
+         * replayed all saves made before, for at most 30 seconds, see {@link #spool(ProductSpool, Duration)}.
+         *
+         * @throws IllegalArgumentException if the spool writes to another index
+         */
+        public Builder spool(ProductSpool spool) {
+            return spool(spool, Duration.ofSeconds(30));
+        }
+
+        /**
+         * Like {@link #spool(ProductSpool)}
+         *
+         * @param timeout how long versioned saves and updates wait for the spool, they fail with an IOException after that
+         */
+        public Builder spool(ProductSpool spool, Duration timeout) {
+            if (spool.getIndex().equals(index) == false) {
+                throw new IllegalArgumentException("spool writes to index [" + spool.getIndex() + "], not to [" + index + "]");
+            }
+            this.spool = spool;
+            this.spoolTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Keeps the autocomplete up to date with all saves and updates, call {@link #rebuildAutocomplete()}
+         * to load the products already in the index
+         */
+        public Builder autocomplete(ProductAutocomplete autocomplete) {
+            this.autocomplete = autocomplete;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the client is not based on the low level rest client, which product
+         *                                  batches and projections need
+         */
+        public ProductServiceImpl build() {
+            if (client._transport() instanceof RestClientTransport == false) {
+                throw new IllegalArgumentException("transport must be a RestClientTransport, but was "
+                        + client._transport().getClass().getName());
+            }
+            final NdjsonBulkWriter<Product> bulkWriter = codec == null ? null : NdjsonBulkWriter.of(client._transport(), codec);
+            final TtlCache<FacetKey, Facets> facetCache = facetCacheTtl.isZero() ? null
+                    : new TtlCache<>(maximumCachedFacets, Long.MAX_VALUE, facetCacheTtl, ProductServiceImpl::weigh, System::nanoTime);
+            return new ProductServiceImpl(index, client, bulkIndexer, metrics, bulkWriter, updater, hedger, prefetch, facetCache, spool,
+                    spoolTimeout, autocomplete);
         }
     }
 }
@@ -0,0 +1,118 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters for every product service operation.
+ *
+ * For each operation two latencies are recorded: the total time spent in the service,
+ * including serialization and response parsing, and, where Elasticsearch reports it, the
+ * {@code took} time spent in the cluster. A large gap between the two points to the client
+ * side, a large took time to the cluster.
+ *
+ * Recording does not allocate and is safe to use from any number of threads, so these
+ * metrics can be enabled in production. Use {@link #snapshot()} or a {@link MetricsReporter}
+ * to read them.
+ */
+public class ProductServiceMetrics {
+
+    public enum Operation {
+        FIND_BY_ID, FIND_BY_IDS, SEARCH, SEARCH_BATCH, SEARCH_WITH_FACETS, NEXT, SAVE, UPDATE, CLOSE
+    }
+
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+    private final LongAdder bulkItems = new LongAdder();
+    private final LongAdder bulkItemFailures = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    public ProductServiceMetrics() {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+    }
+
+    /**
+     * Records the latency of an operation, that started at {@code startNanos} as returned by {@link System#nanoTime()}
+     */
+    public void record(Operation operation, long startNanos, boolean success) {
+        final OperationMetrics metrics = operations.get(operation);
+        metrics.latency.record(System.nanoTime() - startNanos);
+        metrics.requests.increment();
+        if (success == false) {
+            metrics.errors.increment();
+        }
+    }
+
+    /**
+     * Records the time Elasticsearch reported to have spent on a request
+     */
+    public void recordTook(Operation operation, long tookMillis) {
+        operations.get(operation).took.recordMillis(tookMillis);
+    }
+
+    public void recordBulk(int items, int failures) {
+        bulkItems.add(items);
+        bulkItemFailures.add(failures);
+    }
+
+    public void recordBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void recordBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * Counts the bytes of requests sent to and of response bodies received from Elasticsearch. Requests are
+     * counted as they went over the connection, after compression and including request line and headers, as
+     * compressed bodies have no length up front. Register it with {@code HttpAsyncClientBuilder.addInterceptorLast()}
+     * in the http client config callback.
+     */
+    public HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> {
+            final HttpConnectionMetrics connectionMetrics = connectionMetrics(context);
+            if (connectionMetrics != null) {
+                // the connection is reset after every response, so it only counted the request of this one
+                bytesSent.add(connectionMetrics.getSentBytesCount());
+                connectionMetrics.reset();
+            }
+            final HttpEntity entity = response.getEntity();
+            if (entity != null && entity.getContentLength() > 0) {
+                bytesReceived.add(entity.getContentLength());
+            }
+        };
+    }
+
+    private static HttpConnectionMetrics connectionMetrics(HttpContext context) {
+        return context.getAttribute(HttpCoreContext.HTTP_CONNECTION) instanceof HttpConnection connection ? connection.getMetrics() : null;
+    }
+
+    public MetricsSnapshot snapshot() {
+        final Map<Operation, MetricsSnapshot.OperationSnapshot> snapshots = new EnumMap<>(Operation.class);
+        operations.forEach((operation, metrics) -> snapshots.put(operation, new MetricsSnapshot.OperationSnapshot(
+                metrics.requests.sum(), metrics.errors.sum(), metrics.latency.snapshot(), metrics.took.snapshot())));
+        return new MetricsSnapshot(snapshots, bulkItems.sum(), bulkItemFailures.sum(), bytesSent.sum(), bytesReceived.sum());
+    }
+
+    public void reportTo(MetricsReporter reporter) {
+        reporter.report(snapshot());
+    }
+
+    private static final class OperationMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram took = new LatencyHistogram();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+}
@@ -0,0 +1,402 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durable write buffer for saves, that keeps working while the cluster is unavailable or overloaded.
+ *
+ * Products are appended to memory mapped segment files on the local disk, see {@link DiskSpool}, and
+ * the call returns as soon as they are written there. A single background thread replays them in the
+ * order they were appended, in bulk requests of up to {@code batchSize} products. While bulk requests
+ * fail, the same batch is retried with exponential backoff, so the backlog grows on disk instead of on
+ * the heap. Batches rejected as too large are split in halves, which are sent one after the other. Products
+ * rejected with a status retrying does not fix, like a mapping error, are logged and dropped, as are whole
+ * batches rejected with such a status, except for authentication and authorization failures. Records that cannot be read anymore are moved to the file {@value #QUARANTINE_FILE} in the
+ * spool directory, one base64 encoded record per line, so they cannot block the records behind them.
+ *
+ * Products are replayed at least once, a crash after a bulk request but before its batch was committed
+ * replays that batch again after the restart. Products without id get a random id when they are appended,
+ * so a replay overwrites the same document instead of indexing a duplicate.
+ */
+public class ProductSpool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductSpool.class);
+
+    static final String QUARANTINE_FILE = "quarantine.txt";
+
+    /**
+     * Sends a batch of products in a single bulk request
+     */
+    interface Sink {
+        NdjsonBulkWriter.Result write(List<Product> products) throws IOException;
+    }
+
+    private final String index;
+    private final Path directory;
+    private final DiskSpool spool;
+    private final Sink sink;
+    private final int batchSize;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ProductServiceMetrics metrics;
+    private final ProductCodec codec = new ProductCodec();
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Thread drainer;
+
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private volatile boolean closed = false;
+
+    private ProductSpool(Builder builder) throws IOException {
+        this.index = builder.index;
+        this.directory = builder.directory;
+        this.spool = new DiskSpool(builder.directory, builder.segmentSize, builder.maxSegments, builder.syncOnAppend,
+                System::currentTimeMillis);
+        if (builder.sink != null) {
+            this.sink = builder.sink;
+        } else {
+            final NdjsonBulkWriter<Product> writer = NdjsonBulkWriter.of(builder.client._transport(), codec);
+            this.sink = products -> writer.write(index, products);
+        }
+        this.batchSize = builder.batchSize;
+        this.initialBackoffMillis = builder.initialBackoff.toMillis();
+        this.maxBackoffMillis = builder.maxBackoff.toMillis();
+        this.metrics = builder.metrics;
+        this.drainer = new Thread(this::drain, "product-spool-" + index);
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    public static Builder builder(ElasticsearchClient client, String index, Path directory) {
+        return new Builder(client, index, directory);
+    }
+
+    /**
+     * Appends the products to the spool, they are indexed in the background. Products without id get a random id.
+     *
+     * @throws RejectedExecutionException if the spool is full
+     */
+    public void append(List<Product> products) throws IOException {
+        if (closed) {
+            throw new IOException("product spool [" + directory + "] is closed");
+        }
+        final List<byte[]> records = new ArrayList<>(products.size());
+        for (Product product : products) {
+            if (product.getId() == null) {
+                product.setId(UUID.randomUUID().toString());
+            }
+            records.add(encode(product));
+        }
+        spool.append(records);
+    }
+
+    byte[] encode(Product product) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = jsonFactory.createGenerator(output)) {
+            codec.write(product, generator);
+        }
+        return output.toByteArray();
+    }
+
+    Product decode(byte[] record) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(record)) {
+            parser.nextToken();
+            return codec.read(parser);
+        }
+    }
+
+    private void drain() {
+        long backoff = initialBackoffMillis;
+        while (closed == false) {
+            boolean success = false;
+            try {
+                if (spool.awaitRecords(1000) == false) {
+                    continue;
+                }
+                final DiskSpool.Batch batch = spool.peek(batchSize);
+                if (replay(batch)) {
+                    spool.commit(batch);
+                    success = true;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+                logger.warn("failed to drain product spool [{}]", directory, e);
+            }
+            if (success) {
+                backoff = initialBackoffMillis;
+            } else if (closed == false) {
+                retries.increment();
+                if (pause(backoff) == false) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, maxBackoffMillis);
+            }
+        }
+    }
+
+    /**
+     * @return false if the batch has to be sent again
+     */
+    private boolean replay(DiskSpool.Batch batch) throws IOException {
+        final List<Product> products = new ArrayList<>(batch.records().size());
+        final List<byte[]> undecodable = new ArrayList<>();
+        for (byte[] record : batch.records()) {
+            try {
+                products.add(decode(record));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("cannot decode record of [{}] bytes in spool [{}], moving it to [{}]", record.length, directory,
+                        QUARANTINE_FILE, e);
+                undecodable.add(record);
+            }
+        }
+        if (products.isEmpty() == false && send(products) == false) {
+            return false;
+        }
+        quarantine(undecodable);
+        return true;
+    }
+
+    private boolean send(List<Product> products) {
+        final long start = System.nanoTime();
+        final NdjsonBulkWriter.Result result;
+        try {
+            result = sink.write(products);
+        } catch (IOException | RuntimeException e) {
+            if (metrics != null) {
+                metrics.record(ProductServiceMetrics.Operation.SAVE, start, false);
+            }
+            if (BulkIndexer.status(e) == 413 && products.size() > 1) {
+                // the request exceeds http.max_content_length, a failure of the second half resends the first one
+                // as well, which is harmless like any other replay
+                logger.debug("bulk request of [{}] products from spool [{}] is too large, splitting it", products.size(), directory);
+                final int half = products.size() / 2;
+                return send(products.subList(0, half)) && send(products.subList(half, products.size()));
+            }
+            if (isPermanent(e)) {
+                dropped.add(products.size());
+                logger.warn("dropping [{}] products from spool [{}], the bulk request was rejected", products.size(), directory, e);
+                return true;
+            }
+            // failures without a status, like a cluster that cannot be reached, usually go away
+            logger.debug("failed to replay [{}] products from spool [{}], retrying", products.size(), directory, e);
+            return false;
+        }
+        if (metrics != null) {
+            metrics.record(ProductServiceMetrics.Operation.SAVE, start, true);
+            metrics.recordTook(ProductServiceMetrics.Operation.SAVE, result.getTook());
+            metrics.recordBulk(products.size(), result.getFailures());
+        }
+
+        for (int i = 0; i < products.size(); i++) {
+            if (result.getError(i) != null && BulkIndexer.isRetryable(result.getStatus(i))) {
+                // resending the whole batch keeps the order, indexing the other products again is harmless
+                return false;
+            }
+        }
+        for (int i = 0; i < products.size(); i++) {
+            if (result.getError(i) != null) {
+                dropped.increment();
+                logger.warn("dropping product [{}] from spool [{}], status [{}]: {}", products.get(i).getId(), directory,
+                        result.getStatus(i), result.getError(i));
+            } else {
+                replayed.increment();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A request rejected as a whole with a client error fails the same way every time, except for authentication
+     * and authorization failures, which may be fixed on the cluster while the spool keeps waiting
+     */
+    static boolean isPermanent(Throwable throwable) {
+        final int status = BulkIndexer.status(throwable);
+        return status >= 400 && status < 500 && status != 401 && status != 403 && status != 408 && status != 429;
+    }
+
+    private void quarantine(List<byte[]> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        final StringBuilder lines = new StringBuilder();
+        for (byte[] record : records) {
+            lines.append(Base64.getEncoder().encodeToString(record)).append('\n');
+        }
+        Files.writeString(directory.resolve(QUARANTINE_FILE), lines, StandardCharsets.US_ASCII,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        dropped.add(records.size());
+    }
+
+    private synchronized boolean pause(long millis) {
+        try {
+            if (closed == false) {
+                wait(millis);
+            }
+            return closed == false;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Waits until all appended products have been replayed
+     *
+     * @return true if the spool is empty
+     */
+    public boolean awaitEmpty(Duration timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        while (spool.pendingRecords() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until all products appended before this call have been replayed or dropped, products appended
+     * in the meantime are not waited for
+     *
+     * @return true if they have been replayed within the timeout
+     */
+    public boolean awaitReplayed(Duration timeout) throws InterruptedException {
+        final long position = spool.appendedPosition();
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        while (spool.committed() < position) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public SpoolStats stats() {
+        return new SpoolStats(spool.pendingRecords(), spool.pendingBytes(), Duration.ofMillis(spool.lagMillis()),
+                spool.segmentCount(), spool.appended(), replayed.sum(), dropped.sum(), retries.sum(), spool.corrupted());
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * Stops replaying, waits up to ten seconds for a running bulk request. Pending products stay on disk and
+     * are replayed once the spool is opened again.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            drainer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            spool.close();
+        }
+    }
+
+    public static final class Builder {
+        private final ElasticsearchClient client;
+        private final String index;
+        private final Path directory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private int maxSegments = 16;
+        private boolean syncOnAppend = false;
+        private int batchSize = 1000;
+        private Duration initialBackoff = Duration.ofMillis(100);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+        private ProductServiceMetrics metrics;
+        private Sink sink;
+
+        private Builder(ElasticsearchClient client, String index, Path directory) {
+            this.client = client;
+            this.index = index;
+            this.directory = directory;
+        }
+
+        /**
+         * @param segmentSize the size of a single segment file in bytes, a record has to fit into a single segment
+         */
+        public Builder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param maxSegments the number of segments, before appends are rejected
+         */
+        public Builder maxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * @param syncOnAppend forces every append to disk, so saved products survive a power loss as well
+         */
+        public Builder syncOnAppend(boolean syncOnAppend) {
+            this.syncOnAppend = syncOnAppend;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder backoff(Duration initialBackoff, Duration maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder metrics(ProductServiceMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        Builder sink(Sink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        /**
+         * Opens the spool, recovers the products appended before the last shutdown and starts replaying them
+         */
+        public ProductSpool build() throws IOException {
+            return new ProductSpool(this);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package de.spinscale.restclient;
+
+/**
+ * The fields of a product shown in list views, see {@link Projection#summaries()}
+ */
+public class ProductSummary {
+
+    private String id;
+    private String name;
+    private double price;
+    private int stockAvailable;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+    public int getStockAvailable() {
+        return stockAvailable;
+    }
+
+    public void setStockAvailable(int stockAvailable) {
+        this.stockAvailable = stockAvailable;
+    }
+}
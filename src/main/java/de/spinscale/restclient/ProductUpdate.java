@@ -0,0 +1,121 @@
+package de.spinscale.restclient;
+
+import java.util.Objects;
+
+/**
+ * A partial change of a single product. Setting the price is sent as a partial document,
+ * stock changes as a stored script, so that concurrent increments and decrements of
+ * different writers do not overwrite each other. An upsert carries the full product, which
+ * is indexed if the product does not exist yet and merged into it otherwise.
+ *
+ * Several updates of the same product can be combined with {@link #merge(ProductUpdate)}.
+ */
+public final class ProductUpdate {
+
+    private final String id;
+    private final Double price;
+    private final int stockDelta;
+    private final Product document;
+
+    private ProductUpdate(String id, Double price, int stockDelta, Product document) {
+        this.id = Objects.requireNonNull(id, "id");
+        this.price = price;
+        this.stockDelta = stockDelta;
+        this.document = document;
+    }
+
+    public static ProductUpdate setPrice(String id, double price) {
+        return new ProductUpdate(id, price, 0, null);
+    }
+
+    public static ProductUpdate incrementStock(String id, int amount) {
+        return new ProductUpdate(id, null, amount, null);
+    }
+
+    public static ProductUpdate decrementStock(String id, int amount) {
+        return new ProductUpdate(id, null, -amount, null);
+    }
+
+    /**
+     * Creates the product or merges it into the stored one as a partial document, so fields that are
+     * not part of the serialized product are kept. The product requires an id
+     */
+    public static ProductUpdate upsert(Product product) {
+        return new ProductUpdate(product.getId(), null, 0, copy(product));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the new price or null, if the price is not changed
+     */
+    public Double getPrice() {
+        return price;
+    }
+
+    public int getStockDelta() {
+        return stockDelta;
+    }
+
+    /**
+     * @return the full product of an upsert or null
+     */
+    public Product getDocument() {
+        return document;
+    }
+
+    public boolean isUpsert() {
+        return document != null;
+    }
+
+    /**
+     * @return true if applying the update twice has the same effect as applying it once, which is the case
+     *         for upserts and price changes, but not for stock changes
+     */
+    public boolean isIdempotent() {
+        return document != null || stockDelta == 0;
+    }
+
+    /**
+     * Combines this update with a later update of the same product into a single one, that
+     * has the same effect as applying both in order
+     */
+    public ProductUpdate merge(ProductUpdate later) {
+        if (id.equals(later.id) == false) {
+            throw new IllegalArgumentException("cannot merge updates of products [" + id + "] and [" + later.id + "]");
+        }
+        if (later.document != null) {
+            return later;
+        }
+        if (document != null) {
+            // the upsert sets absolute values, so later changes can be applied to it directly
+            final Product merged = copy(document);
+            if (later.price != null) {
+                merged.setPrice(later.price);
+            }
+            merged.setStockAvailable(merged.getStockAvailable() + later.stockDelta);
+            return new ProductUpdate(id, null, 0, merged);
+        }
+        return new ProductUpdate(id, later.price != null ? later.price : price, stockDelta + later.stockDelta, null);
+    }
+
+    private static Product copy(Product product) {
+        final Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setDescription(product.getDescription());
+        copy.setPrice(product.getPrice());
+        copy.setStockAvailable(product.getStockAvailable());
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        if (document != null) {
+            return "upsert [" + id + "]";
+        }
+        return "update [" + id + "], price [" + price + "], stock delta [" + stockDelta + "]";
+    }
+}
@@ -0,0 +1,405 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ScriptLanguage;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.PutScriptRequest;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects partial product updates from any number of threads and sends them as bulk
+ * {@code update} operations in the background. All updates of the same product within a
+ * flush window are merged into a single operation, so a product that sells a hundred times
+ * per second costs one update per window instead of a hundred.
+ *
+ * A bulk is sent once {@code maxUpdates} different products are pending, or when the oldest
+ * update has been waiting for {@code flushInterval}. Only one bulk request is in flight at a
+ * time, so updates of the same product are applied in the order they were added. Items
+ * rejected with a 429 or a 5xx status are merged back into the pending updates and go out
+ * with the next bulk. If the whole request fails, because of a connection problem, a timeout
+ * or a 5xx status, it is unknown whether it has been applied. Then only upserts and price
+ * changes are retried, stock changes fail instead of possibly being applied twice. Version
+ * conflicts are retried by Elasticsearch, see {@link Builder#retryOnConflict(int)}.
+ *
+ * Stock changes use the stored script {@code scriptId}, which is created on the first flush.
+ */
+public class ProductUpdater implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductUpdater.class);
+
+    public static final String DEFAULT_SCRIPT_ID = "product-update";
+
+    static final String SCRIPT_SOURCE = """
+            if (params.containsKey('price')) { ctx._source.price = params.price; }
+            if (params.containsKey('stock_delta')) { ctx._source.stock_available += params.stock_delta; }
+            """;
+
+    private final ElasticsearchAsyncClient client;
+    private final String index;
+    private final int maxUpdates;
+    private final long flushIntervalNanos;
+    private final int maxRetries;
+    private final int retryOnConflict;
+    private final String scriptId;
+    private final ProductServiceMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore inFlight = new Semaphore(1);
+    private final Set<CompletableFuture<Void>> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final Object lock = new Object();
+    private Map<String, Pending> pending = new LinkedHashMap<>();
+    private long firstUpdateNanos = 0;
+    private volatile boolean scriptCreated = false;
+    private boolean closed = false;
+
+    private ProductUpdater(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.maxUpdates = builder.maxUpdates;
+        this.flushIntervalNanos = builder.flushInterval.toNanos();
+        this.maxRetries = builder.maxRetries;
+        this.retryOnConflict = builder.retryOnConflict;
+        this.scriptId = builder.scriptId;
+        this.metrics = builder.metrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "product-updater-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long tick = Math.max(1, builder.flushInterval.toMillis() / 2);
+        scheduler.scheduleWithFixedDelay(this::flushIfExpired, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(ElasticsearchAsyncClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    /**
+     * Queues an update. The returned future completes once the merged update, that contains
+     * this one, has been applied.
+     */
+    public CompletableFuture<Void> update(ProductUpdate update) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final boolean full;
+        // checked under the lock, so that close() either sees the update in its flush or update() sees it closed
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("product updater is closed"));
+            }
+            outstanding.add(future);
+            future.whenComplete((v, throwable) -> outstanding.remove(future));
+            if (pending.isEmpty()) {
+                firstUpdateNanos = System.nanoTime();
+            }
+            pending.merge(update.getId(), new Pending(update, future), Pending::merge);
+            full = pending.size() >= maxUpdates;
+        }
+        if (full) {
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * Sends all pending updates right away, blocks while another bulk request is in flight
+     */
+    public void flush() {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        sendPending();
+    }
+
+    /**
+     * Flushes the remaining updates and waits until all of them, including retries, are done
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+        }
+        try {
+            while (outstanding.isEmpty() == false) {
+                flush();
+                try {
+                    CompletableFuture.allOf(outstanding.toArray(new CompletableFuture[0])).join();
+                } catch (CompletionException e) {
+                    // individual failures have been reported through the futures returned by update()
+                }
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private void flushIfExpired() {
+        synchronized (lock) {
+            if (pending.isEmpty() || System.nanoTime() - firstUpdateNanos < flushIntervalNanos) {
+                return;
+            }
+        }
+        // if a request is in flight, the next tick tries again
+        if (inFlight.tryAcquire()) {
+            sendPending();
+        }
+    }
+
+    // must be called with the in flight permit, which is released once the bulk request is done
+    private void sendPending() {
+        final List<Pending> batch;
+        synchronized (lock) {
+            batch = new ArrayList<>(pending.values());
+            pending = new LinkedHashMap<>();
+        }
+        if (batch.isEmpty()) {
+            inFlight.release();
+            return;
+        }
+
+        final CompletableFuture<BulkResponse> response;
+        try {
+            response = createScript().thenCompose(v -> {
+                try {
+                    return client.bulk(builder -> {
+                        builder.index(index);
+                        for (Pending item : batch) {
+                            builder.operations(toOperation(item.update, scriptId, retryOnConflict));
+                        }
+                        return builder;
+                    });
+                } catch (RuntimeException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            batch.forEach(item -> item.completeExceptionally(e));
+            return;
+        }
+
+        response.whenComplete((bulkResponse, throwable) -> {
+            try {
+                if (throwable != null) {
+                    onRequestFailure(batch, throwable);
+                } else {
+                    onResponse(batch, bulkResponse);
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private CompletableFuture<Void> createScript() {
+        if (scriptCreated) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return client.putScript(createScriptRequest(scriptId)).thenAccept(r -> scriptCreated = true);
+    }
+
+    private void onResponse(List<Pending> batch, BulkResponse response) {
+        final List<BulkResponseItem> responseItems = response.items();
+        if (metrics != null) {
+            metrics.recordTook(ProductServiceMetrics.Operation.UPDATE, response.took());
+            metrics.recordBulk(batch.size(), (int) responseItems.stream().filter(item -> item.error() != null).count());
+        }
+        final List<Pending> retries = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            final Pending item = batch.get(i);
+            final BulkResponseItem responseItem = responseItems.get(i);
+            if (responseItem.error() == null) {
+                item.futures.forEach(future -> future.complete(null));
+            } else if (BulkIndexer.isRetryable(responseItem.status()) && item.attempts < maxRetries) {
+                retries.add(item);
+            } else {
+                item.completeExceptionally(new IOException("failed to update product [" + responseItem.id() +
+                        "], status [" + responseItem.status() + "]: " + responseItem.error().reason()));
+            }
+        }
+        retry(retries);
+    }
+
+    private void onRequestFailure(List<Pending> batch, Throwable throwable) {
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        final boolean retryable = BulkIndexer.isRetryable(cause);
+        final List<Pending> retries = new ArrayList<>();
+        for (Pending item : batch) {
+            if (retryable == false || item.attempts >= maxRetries) {
+                item.completeExceptionally(cause);
+            } else if (item.update.isIdempotent()) {
+                retries.add(item);
+            } else {
+                // the bulk may have been applied, sending the stock change again could apply it twice
+                item.completeExceptionally(new IOException("failed to update product [" + item.update.getId() +
+                        "], the stock change may or may not have been applied", cause));
+            }
+        }
+        retry(retries);
+    }
+
+    private void retry(List<Pending> retries) {
+        if (retries.isEmpty()) {
+            return;
+        }
+        logger.debug("retrying [{}] product updates with the next bulk", retries.size());
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                firstUpdateNanos = System.nanoTime();
+            }
+            for (Pending retry : retries) {
+                retry.attempts++;
+                // the retried update happened before anything added in the meantime
+                pending.merge(retry.update.getId(), retry, (newer, older) -> older.merge(newer));
+            }
+        }
+    }
+
+    /**
+     * Merges all updates of the same product, keeping the order of the first update of every product
+     */
+    static List<ProductUpdate> coalesce(List<ProductUpdate> updates) {
+        final Map<String, ProductUpdate> merged = new LinkedHashMap<>();
+        for (ProductUpdate update : updates) {
+            merged.merge(update.getId(), update, ProductUpdate::merge);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Upserts become a partial document with the full product, price only changes a partial document
+     * with the price and everything else a call to the stored script
+     */
+    static BulkOperation toOperation(ProductUpdate update, String scriptId, int retryOnConflict) {
+        return BulkOperation.of(ob -> ob.update(u -> {
+            u.id(update.getId()).retryOnConflict(retryOnConflict);
+            if (update.isUpsert()) {
+                return u.action(a -> a.doc(update.getDocument()).docAsUpsert(true));
+            }
+            if (update.getStockDelta() == 0 && update.getPrice() != null) {
+                return u.action(a -> a.doc(Map.of("price", update.getPrice())));
+            }
+            final Map<String, JsonData> params = new HashMap<>();
+            if (update.getPrice() != null) {
+                params.put("price", JsonData.of(update.getPrice()));
+            }
+            params.put("stock_delta", JsonData.of(update.getStockDelta()));
+            return u.action(a -> a.script(s -> s.stored(stored -> stored.id(scriptId).params(params))));
+        }));
+    }
+
+    static PutScriptRequest createScriptRequest(String scriptId) {
+        return PutScriptRequest.of(b -> b.id(scriptId).script(s -> s.lang(ScriptLanguage.Painless).source(SCRIPT_SOURCE)));
+    }
+
+    private static final class Pending {
+        private final ProductUpdate update;
+        private final List<CompletableFuture<Void>> futures;
+        private int attempts = 0;
+
+        private Pending(ProductUpdate update, CompletableFuture<Void> future) {
+            this(update, new ArrayList<>(List.of(future)), 0);
+        }
+
+        private Pending(ProductUpdate update, List<CompletableFuture<Void>> futures, int attempts) {
+            this.update = update;
+            this.futures = futures;
+            this.attempts = attempts;
+        }
+
+        private Pending merge(Pending later) {
+            final List<CompletableFuture<Void>> merged = new ArrayList<>(futures);
+            merged.addAll(later.futures);
+            return new Pending(update.merge(later.update), merged, Math.max(attempts, later.attempts));
+        }
+
+        private void completeExceptionally(Throwable throwable) {
+            futures.forEach(future -> future.completeExceptionally(throwable));
+        }
+    }
+
+    public static final class Builder {
+        private final ElasticsearchAsyncClient client;
+        private final String index;
+        private int maxUpdates = 1000;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private int maxRetries = 3;
+        private int retryOnConflict = 3;
+        private String scriptId = DEFAULT_SCRIPT_ID;
+        private ProductServiceMetrics metrics;
+
+        private Builder(ElasticsearchAsyncClient client, String index) {
+            this.client = client;
+            this.index = index;
+        }
+
+        /**
+         * @param maxUpdates the number of different products, after which the pending updates are sent
+         */
+        public Builder maxUpdates(int maxUpdates) {
+            this.maxUpdates = maxUpdates;
+            return this;
+        }
+
+        /**
+         * @param flushInterval the window, in which updates of the same product are merged
+         */
+        public Builder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * @param retryOnConflict how often Elasticsearch retries an update, that hit a version conflict with a concurrent write
+         */
+        public Builder retryOnConflict(int retryOnConflict) {
+            this.retryOnConflict = retryOnConflict;
+            return this;
+        }
+
+        public Builder scriptId(String scriptId) {
+            this.scriptId = scriptId;
+            return this;
+        }
+
+        /**
+         * @param metrics records took times and the number of sent and failed items of every bulk request
+         */
+        public Builder metrics(ProductServiceMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public ProductUpdater build() {
+            return new ProductUpdater(this);
+        }
+    }
+}
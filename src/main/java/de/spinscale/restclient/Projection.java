@@ -0,0 +1,183 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fetches only parts of every hit and decodes them into a projection type instead of a full
+ * {@link Product}, so that list views neither transfer nor parse the long description.
+ *
+ * The {@code _source} can be filtered by includes and excludes or skipped entirely. Numeric
+ * fields can be read from doc values instead, which does not require loading the source at
+ * all. Keep in mind that doc values return the precision of the mapped type, a price mapped
+ * as {@code float} comes back as 12.989999771118164 instead of 12.99.
+ */
+public final class Projection<T> {
+
+    /**
+     * Decodes a single hit, the parsers are only valid during the call
+     */
+    public interface HitDecoder<T> {
+
+        /**
+         * @param source the parser positioned at the start of the filtered source object, null if the hit has no source.
+         *               After returning the parser has to be positioned at the end of that object.
+         */
+        T decode(String id, JsonParser source) throws IOException;
+
+        /**
+         * Called for every doc value field of the hit, after {@link #decode(String, JsonParser)}
+         */
+        default T docValue(T value, String field, double docValue) {
+            return value;
+        }
+    }
+
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final boolean fetchSource;
+    private final List<String> docValueFields;
+    private final HitDecoder<T> decoder;
+
+    private Projection(Builder<T> builder) {
+        this.includes = builder.includes;
+        this.excludes = builder.excludes;
+        this.fetchSource = builder.fetchSource;
+        this.docValueFields = builder.docValueFields;
+        this.decoder = builder.decoder;
+    }
+
+    public static <T> Builder<T> builder(HitDecoder<T> decoder) {
+        return new Builder<>(decoder);
+    }
+
+    /**
+     * Only returns the ids of the hits, without any source
+     */
+    public static Projection<String> ids() {
+        return builder((id, source) -> id).fetchSource(false).build();
+    }
+
+    /**
+     * Name and price from the source, stock from doc values
+     */
+    public static Projection<ProductSummary> summaries() {
+        return builder(new SummaryDecoder())
+                .includes("name", "price")
+                .docValueFields("stock_available")
+                .build();
+    }
+
+    /**
+     * Decodes the filtered source with the codec, fields that are not included keep their default values
+     */
+    public static <T> Projection<T> of(DocumentCodec<T> codec, String... includes) {
+        return builder((String id, JsonParser source) -> {
+            if (source == null) {
+                return null;
+            }
+            final T document = codec.read(source);
+            codec.setId(document, id);
+            return document;
+        }).includes(includes).build();
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public boolean isFetchSource() {
+        return fetchSource;
+    }
+
+    public List<String> getDocValueFields() {
+        return docValueFields;
+    }
+
+    HitDecoder<T> decoder() {
+        return decoder;
+    }
+
+    private static final class SummaryDecoder implements HitDecoder<ProductSummary> {
+
+        @Override
+        public ProductSummary decode(String id, JsonParser source) throws IOException {
+            final ProductSummary summary = new ProductSummary();
+            summary.setId(id);
+            if (source == null) {
+                return summary;
+            }
+            while (source.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = source.getCurrentName();
+                if (source.nextToken() == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "name" -> summary.setName(source.getText());
+                    case "price" -> summary.setPrice(source.getValueAsDouble());
+                    default -> source.skipChildren();
+                }
+            }
+            return summary;
+        }
+
+        @Override
+        public ProductSummary docValue(ProductSummary summary, String field, double docValue) {
+            if ("stock_available".equals(field)) {
+                summary.setStockAvailable((int) docValue);
+            }
+            return summary;
+        }
+    }
+
+    public static final class Builder<T> {
+        private final HitDecoder<T> decoder;
+        private List<String> includes = Collections.emptyList();
+        private List<String> excludes = Collections.emptyList();
+        private boolean fetchSource = true;
+        private List<String> docValueFields = Collections.emptyList();
+
+        private Builder(HitDecoder<T> decoder) {
+            this.decoder = decoder;
+        }
+
+        public Builder<T> includes(String... includes) {
+            this.includes = Arrays.asList(includes);
+            return this;
+        }
+
+        public Builder<T> excludes(String... excludes) {
+            this.excludes = Arrays.asList(excludes);
+            return this;
+        }
+
+        /**
+         * @param fetchSource false to not return any source, the decoder is called with a null source
+         */
+        public Builder<T> fetchSource(boolean fetchSource) {
+            this.fetchSource = fetchSource;
+            return this;
+        }
+
+        /**
+         * @param docValueFields numeric fields, that are read from doc values instead of the source
+         */
+        public Builder<T> docValueFields(String... docValueFields) {
+            this.docValueFields = Arrays.asList(docValueFields);
+            return this;
+        }
+
+        public Projection<T> build() {
+            return new Projection<>(this);
+        }
+    }
+}
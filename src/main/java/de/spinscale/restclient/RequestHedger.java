@@ -0,0 +1,269 @@
+package de.spinscale.restclient;
+
+import de.spinscale.restclient.ProductServiceMetrics.Operation;
+import org.apache.http.HttpHost;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second request to another node, if the first one has not been answered within the
+ * latency budget of the operation, and returns whichever response arrives first. The other
+ * request is cancelled. If the first request fails with a retryable error before the budget is
+ * used up, the second request is sent right away.
+ *
+ * The budget is the {@code quantile} of the recent latencies of each operation, but at least
+ * {@code minimumBudget}. Until {@code minimumSamples} latencies have been recorded, nothing is
+ * hedged. With the default p95 budget, at most about 5% of the requests are duplicated.
+ *
+ * Both requests are pinned to a single node by the {@link AdaptiveNodeSelector}, which has to
+ * be the node selector of the rest client, the second request always goes to a different node
+ * than the first, if there is one.
+ */
+public class RequestHedger implements Closeable {
+
+    private final AdaptiveNodeSelector selector;
+    private final double quantile;
+    private final long minimumBudgetNanos;
+    private final long minimumSamples;
+    private final long budgetRefreshNanos;
+    private final Map<Operation, Budget> budgets = new EnumMap<>(Operation.class);
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedgedRequests = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private RequestHedger(Builder builder) {
+        this.selector = builder.selector;
+        this.quantile = builder.quantile;
+        this.minimumBudgetNanos = builder.minimumBudget.toNanos();
+        this.minimumSamples = builder.minimumSamples;
+        this.budgetRefreshNanos = builder.budgetRefreshInterval.toNanos();
+        for (Operation operation : Operation.values()) {
+            budgets.put(operation, new Budget());
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "request-hedger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder(AdaptiveNodeSelector selector) {
+        return new Builder(selector);
+    }
+
+    /**
+     * Runs the call and possibly a second one, the call has to send exactly one request with the async client
+     */
+    public <T> CompletableFuture<T> execute(Operation operation, Supplier<CompletableFuture<T>> call) {
+        requests.increment();
+        final Budget budget = budgets.get(operation);
+        final long budgetNanos = budget.get();
+        final long start = System.nanoTime();
+        final Attempts<T> attempts = new Attempts<>();
+
+        final AdaptiveNodeSelector.Pinned<CompletableFuture<T>> primary = selector.pinned(null, call);
+        attempts.primary = primary.result();
+        attempts.primary.whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                if (attempts.win()) {
+                    attempts.result.complete(result);
+                }
+                return;
+            }
+            if (budgetNanos > 0 && BulkIndexer.isRetryable(unwrap(throwable)) && attempts.sendHedge()) {
+                sendHedge(attempts, call, primary.host());
+            }
+            attempts.fail(throwable);
+        });
+
+        if (budgetNanos > 0) {
+            attempts.timer = scheduler.schedule(() -> {
+                if (attempts.result.isDone() == false && attempts.sendHedge()) {
+                    sendHedge(attempts, call, primary.host());
+                }
+            }, budgetNanos, TimeUnit.NANOSECONDS);
+        }
+        attempts.result.whenComplete((result, throwable) -> {
+            attempts.cancelOutstanding();
+            if (throwable == null) {
+                budget.record(System.nanoTime() - start);
+            }
+        });
+        return attempts.result;
+    }
+
+    private <T> void sendHedge(Attempts<T> attempts, Supplier<CompletableFuture<T>> call, HttpHost primaryHost) {
+        hedgedRequests.increment();
+        final CompletableFuture<T> hedge;
+        try {
+            hedge = selector.pinned(primaryHost == null ? null : Collections.singleton(primaryHost), call).result();
+        } catch (RuntimeException e) {
+            attempts.fail(e);
+            return;
+        }
+        attempts.hedge = hedge;
+        hedge.whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                if (attempts.win()) {
+                    hedgeWins.increment();
+                    attempts.result.complete(result);
+                }
+            } else {
+                attempts.fail(throwable);
+            }
+        });
+        if (attempts.result.isDone()) {
+            hedge.cancel(true);
+        }
+    }
+
+    /**
+     * @return the current budget of an operation, 0 if requests of this operation are not hedged yet
+     */
+    public Duration getBudget(Operation operation) {
+        return Duration.ofNanos(budgets.get(operation).get());
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getHedgedRequests() {
+        return hedgedRequests.sum();
+    }
+
+    /**
+     * @return the number of hedged requests, whose response arrived before the one of the first request
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+
+    private static final class Attempts<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicBoolean hedgeSent = new AtomicBoolean();
+        private final AtomicBoolean won = new AtomicBoolean();
+        // the number of attempts, that may still succeed
+        private final AtomicInteger running = new AtomicInteger(1);
+        private volatile CompletableFuture<T> primary;
+        private volatile CompletableFuture<T> hedge;
+        private volatile ScheduledFuture<?> timer;
+
+        private boolean sendHedge() {
+            if (hedgeSent.compareAndSet(false, true)) {
+                running.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        // decides which of the two successful attempts provides the result
+        private boolean win() {
+            return won.compareAndSet(false, true);
+        }
+
+        private void fail(Throwable throwable) {
+            if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(unwrap(throwable));
+            }
+        }
+
+        private void cancelOutstanding() {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            if (primary != null) {
+                primary.cancel(true);
+            }
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Latencies of a single operation, the budget is recalculated after {@code budgetRefreshInterval}
+     * from the latencies recorded since the last calculation
+     */
+    private final class Budget {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong lastRefreshNanos = new AtomicLong(System.nanoTime());
+        private volatile long budgetNanos = 0;
+
+        private void record(long nanos) {
+            latencies.record(nanos);
+        }
+
+        private long get() {
+            final long now = System.nanoTime();
+            final long lastRefresh = lastRefreshNanos.get();
+            if (now - lastRefresh >= budgetRefreshNanos && latencies.count() >= minimumSamples
+                    && lastRefreshNanos.compareAndSet(lastRefresh, now)) {
+                budgetNanos = Math.max(minimumBudgetNanos, latencies.percentile(quantile));
+                latencies.reset();
+            }
+            return budgetNanos;
+        }
+    }
+
+    public static final class Builder {
+        private final AdaptiveNodeSelector selector;
+        private double quantile = 0.95;
+        private Duration minimumBudget = Duration.ofMillis(5);
+        private long minimumSamples = 100;
+        private Duration budgetRefreshInterval = Duration.ofSeconds(1);
+
+        private Builder(AdaptiveNodeSelector selector) {
+            this.selector = selector;
+        }
+
+        public Builder quantile(double quantile) {
+            this.quantile = quantile;
+            return this;
+        }
+
+        public Builder minimumBudget(Duration minimumBudget) {
+            this.minimumBudget = minimumBudget;
+            return this;
+        }
+
+        public Builder minimumSamples(long minimumSamples) {
+            this.minimumSamples = minimumSamples;
+            return this;
+        }
+
+        public Builder budgetRefreshInterval(Duration budgetRefreshInterval) {
+            this.budgetRefreshInterval = budgetRefreshInterval;
+            return this;
+        }
+
+        public RequestHedger build() {
+            return new RequestHedger(this);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package de.spinscale.restclient;
+
+/**
+ * Point in time view of the state and counters of a {@link ResilientProductService}
+ */
+public class ResilienceStats {
+
+    public enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final CircuitState state;
+    private final double failureRate;
+    private final double slowCallRate;
+    private final long opened;
+    private final long shortCircuited;
+    private final long shed;
+    private final long timeouts;
+    private final long retries;
+    private final long retriesDenied;
+    private final double retryTokens;
+    private final int active;
+    private final int queued;
+
+    public ResilienceStats(CircuitState state, double failureRate, double slowCallRate, long opened, long shortCircuited,
+                           long shed, long timeouts, long retries, long retriesDenied, double retryTokens, int active,
+                           int queued) {
+        this.state = state;
+        this.failureRate = failureRate;
+        this.slowCallRate = slowCallRate;
+        this.opened = opened;
+        this.shortCircuited = shortCircuited;
+        this.shed = shed;
+        this.timeouts = timeouts;
+        this.retries = retries;
+        this.retriesDenied = retriesDenied;
+        this.retryTokens = retryTokens;
+        this.active = active;
+        this.queued = queued;
+    }
+
+    public CircuitState getState() {
+        return state;
+    }
+
+    /**
+     * @return the share of failed calls in the current window of the circuit breaker
+     */
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public double getSlowCallRate() {
+        return slowCallRate;
+    }
+
+    /**
+     * @return how often the circuit breaker opened
+     */
+    public long getOpened() {
+        return opened;
+    }
+
+    /**
+     * @return the number of calls rejected, because the circuit breaker was open
+     */
+    public long getShortCircuited() {
+        return shortCircuited;
+    }
+
+    /**
+     * @return the number of calls rejected, because the queue was full
+     */
+    public long getShed() {
+        return shed;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of retryable failures, that were not retried because the retry budget was used up
+     */
+    public long getRetriesDenied() {
+        return retriesDenied;
+    }
+
+    public double getRetryTokens() {
+        return retryTokens;
+    }
+
+    /**
+     * @return the number of calls currently running against the delegate
+     */
+    public int getActive() {
+        return active;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    @Override
+    public String toString() {
+        return "state [" + state + "], failure rate [" + failureRate + "], slow call rate [" + slowCallRate + "], opened [" +
+                opened + "], short circuited [" + shortCircuited + "], shed [" + shed + "], timeouts [" + timeouts +
+                "], retries [" + retries + "], retries denied [" + retriesDenied + "], retry tokens [" + retryTokens +
+                "], active [" + active + "], queued [" + queued + "]";
+    }
+}
@@ -0,0 +1,393 @@
+package de.spinscale.restclient;
+
+import de.spinscale.restclient.ProductServiceMetrics.Operation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Protects callers from a slow or failing cluster. Calls to the delegate run on a bounded pool
+ * of {@code maxConcurrent} threads, with room for {@code maxQueued} waiting calls. Everything
+ * beyond that is rejected right away with a {@link RejectedExecutionException}, instead of
+ * piling up blocked caller threads.
+ *
+ * Every call has a timeout per operation. Timeouts and retryable failures feed a circuit
+ * breaker, which rejects all calls for a while once the failure rate or the share of slow
+ * calls in its window gets too high. Reads are retried on retryable failures, as long as the
+ * retry budget has tokens left, after an exponential backoff with jitter, so retries do not
+ * hit an overloaded cluster right away and callers failing together do not retry together.
+ * Saves and updates are never retried, as they are not idempotent.
+ *
+ * Use {@link #stats()} to watch the state of the breaker, the retry budget and the queue.
+ */
+public class ResilientProductService implements ProductService, Closeable {
+
+    private interface Call<T> {
+        T call() throws IOException;
+    }
+
+    private final ProductService delegate;
+    private final ThreadPoolExecutor executor;
+    private final int maxQueued;
+    private final Map<Operation, Long> timeoutNanos = new EnumMap<>(Operation.class);
+    private final int maxRetries;
+    private final long retryBackoffNanos;
+    private final CircuitBreaker breaker;
+    private final RetryBudget retryBudget;
+    private final LongSupplier ticker;
+
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesDenied = new LongAdder();
+
+    private ResilientProductService(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxQueued = builder.maxQueued;
+        final BlockingQueue<Runnable> queue = builder.maxQueued == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(builder.maxQueued);
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(builder.maxConcurrent, builder.maxConcurrent, 0, TimeUnit.MILLISECONDS, queue, r -> {
+            Thread thread = new Thread(r, "resilient-product-service-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Operation operation : Operation.values()) {
+            timeoutNanos.put(operation, builder.timeouts.getOrDefault(operation, builder.timeout).toNanos());
+        }
+        this.maxRetries = builder.maxRetries;
+        this.retryBackoffNanos = builder.retryBackoff.toNanos();
+        this.breaker = new CircuitBreaker(builder.windowSize, builder.minimumCalls, builder.failureRateThreshold,
+                builder.slowCallRateThreshold, builder.slowCallDuration.toNanos(), builder.openDuration.toNanos(),
+                builder.halfOpenCalls, builder.ticker);
+        this.retryBudget = new RetryBudget(builder.retryRatio, builder.maxRetryTokens);
+        this.ticker = builder.ticker;
+    }
+
+    public static Builder builder(ProductService delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    public Product findById(String id) throws IOException {
+        return call(Operation.FIND_BY_ID, true, () -> delegate.findById(id));
+    }
+
+    @Override
+    public VersionedProduct findVersionedById(String id) throws IOException {
+        return call(Operation.FIND_BY_ID, true, () -> delegate.findVersionedById(id));
+    }
+
+    @Override
+    public List<Optional<Product>> findByIds(Collection<String> ids) throws IOException {
+        return call(Operation.FIND_BY_IDS, true, () -> delegate.findByIds(ids));
+    }
+
+    @Override
+    public Page<Product> search(String query) throws IOException {
+        return call(Operation.SEARCH, true, () -> delegate.search(query));
+    }
+
+    /**
+     * Not retried, every attempt would open another point in time
+     */
+    @Override
+    public Page<Product> search(String query, Duration keepAlive) throws IOException {
+        return call(Operation.SEARCH, false, () -> delegate.search(query, keepAlive));
+    }
+
+    @Override
+    public List<Page<Product>> searchBatch(List<PageRequest> requests) throws IOException {
+        return call(Operation.SEARCH_BATCH, true, () -> delegate.searchBatch(requests));
+    }
+
+    @Override
+    public FacetedPage searchWithFacets(String query, int size, FacetRequest facets) throws IOException {
+        return call(Operation.SEARCH_WITH_FACETS, true, () -> delegate.searchWithFacets(query, size, facets));
+    }
+
+    @Override
+    public Page<Product> next(Page page) throws IOException {
+        return call(Operation.NEXT, true, () -> delegate.next(page));
+    }
+
+    @Override
+    public void close(Page page) throws IOException {
+        call(Operation.CLOSE, false, () -> {
+            delegate.close(page);
+            return null;
+        });
+    }
+
+    @Override
+    public void save(Product product) throws IOException {
+        call(Operation.SAVE, false, () -> {
+            delegate.save(product);
+            return null;
+        });
+    }
+
+    @Override
+    public void save(List<Product> products) throws IOException {
+        call(Operation.SAVE, false, () -> {
+            delegate.save(products);
+            return null;
+        });
+    }
+
+    @Override
+    public void save(ProductBatch batch) throws IOException {
+        call(Operation.SAVE, false, () -> {
+            delegate.save(batch);
+            return null;
+        });
+    }
+
+    @Override
+    public VersionedProduct save(VersionedProduct product) throws IOException {
+        return call(Operation.SAVE, false, () -> delegate.save(product));
+    }
+
+    @Override
+    public void update(ProductUpdate update) throws IOException {
+        call(Operation.UPDATE, false, () -> {
+            delegate.update(update);
+            return null;
+        });
+    }
+
+    @Override
+    public void update(List<ProductUpdate> updates) throws IOException {
+        call(Operation.UPDATE, false, () -> {
+            delegate.update(updates);
+            return null;
+        });
+    }
+
+    private <T> T call(Operation operation, boolean idempotent, Call<T> call) throws IOException {
+        retryBudget.deposit();
+        int attempt = 0;
+        while (true) {
+            try {
+                return attempt(operation, call);
+            } catch (IOException | RuntimeException e) {
+                if (idempotent == false || attempt >= maxRetries || BulkIndexer.isRetryable(e) == false) {
+                    throw e;
+                }
+                if (retryBudget.tryWithdraw() == false) {
+                    retriesDenied.increment();
+                    throw e;
+                }
+                attempt++;
+                retries.increment();
+                backoff(attempt);
+            }
+        }
+    }
+
+    // at least half of the exponential delay, the other half is random
+    private void backoff(int attempt) throws IOException {
+        if (retryBackoffNanos <= 0) {
+            return;
+        }
+        final long delay = retryBackoffNanos << Math.min(attempt - 1, 16);
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private <T> T attempt(Operation operation, Call<T> call) throws IOException {
+        if (breaker.tryAcquire() == false) {
+            shortCircuited.increment();
+            throw new RejectedExecutionException("circuit breaker is open, not calling [" + operation + "]");
+        }
+
+        final long start = ticker.getAsLong();
+        final Future<T> future;
+        try {
+            future = executor.submit(call::call);
+        } catch (RejectedExecutionException e) {
+            breaker.release();
+            shed.increment();
+            throw new RejectedExecutionException("too many pending calls, limit is [" + maxQueued + "]");
+        }
+
+        final long timeout = timeoutNanos.get(operation);
+        try {
+            final T result = future.get(timeout, TimeUnit.NANOSECONDS);
+            breaker.record(false, ticker.getAsLong() - start);
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.increment();
+            breaker.record(true, ticker.getAsLong() - start);
+            throw new IOException("[" + operation + "] timed out after [" + Duration.ofNanos(timeout) + "]", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            breaker.release();
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            // client errors like a missing index say nothing about the health of the cluster
+            breaker.record(BulkIndexer.isRetryable(cause), ticker.getAsLong() - start);
+            throw Futures.unwrap(cause);
+        }
+    }
+
+    public ResilienceStats stats() {
+        return new ResilienceStats(breaker.state(), breaker.failureRate(), breaker.slowCallRate(), breaker.opened(),
+                shortCircuited.sum(), shed.sum(), timeouts.sum(), retries.sum(), retriesDenied.sum(), retryBudget.tokens(),
+                executor.getActiveCount(), executor.getQueue().size());
+    }
+
+    /**
+     * Stops the threads, calls still running are interrupted
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public static final class Builder {
+        private final ProductService delegate;
+        private int maxConcurrent = 64;
+        private int maxQueued = 256;
+        private Duration timeout = Duration.ofSeconds(10);
+        private final Map<Operation, Duration> timeouts = new EnumMap<>(Operation.class);
+        private int maxRetries = 2;
+        private Duration retryBackoff = Duration.ofMillis(50);
+        private double retryRatio = 0.1;
+        private double maxRetryTokens = 10;
+        private int windowSize = 100;
+        private int minimumCalls = 20;
+        private double failureRateThreshold = 0.5;
+        private double slowCallRateThreshold = 0.8;
+        private Duration slowCallDuration = Duration.ofSeconds(2);
+        private Duration openDuration = Duration.ofSeconds(10);
+        private int halfOpenCalls = 5;
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder(ProductService delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * @param maxConcurrent the number of threads calling the delegate
+         */
+        public Builder maxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+            return this;
+        }
+
+        /**
+         * @param maxQueued the number of calls waiting for a thread, before new calls are rejected
+         */
+        public Builder maxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        /**
+         * @param timeout the timeout of all operations without their own timeout, includes the time spent in the queue
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder timeout(Operation operation, Duration timeout) {
+            this.timeouts.put(operation, timeout);
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * @param retryBackoff the delay before the first retry, doubled for every further retry, every delay is
+         *                     randomized between half and all of it, zero retries right away
+         */
+        public Builder retryBackoff(Duration retryBackoff) {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        /**
+         * @param retryRatio      the share of calls, that may be retried on average
+         * @param maxRetryTokens  the number of retries, that may be spent at once after a quiet period
+         */
+        public Builder retryBudget(double retryRatio, double maxRetryTokens) {
+            this.retryRatio = retryRatio;
+            this.maxRetryTokens = maxRetryTokens;
+            return this;
+        }
+
+        /**
+         * @param windowSize   the number of recent calls the breaker looks at
+         * @param minimumCalls the number of calls needed, before the breaker opens
+         */
+        public Builder window(int windowSize, int minimumCalls) {
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param slowCallRateThreshold the share of calls slower than {@code slowCallDuration}, that opens the breaker
+         */
+        public Builder slowCalls(Duration slowCallDuration, double slowCallRateThreshold) {
+            this.slowCallDuration = slowCallDuration;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param openDuration  how long an open breaker rejects all calls
+         * @param halfOpenCalls the number of successful probes needed to close the breaker again
+         */
+        public Builder openDuration(Duration openDuration, int halfOpenCalls) {
+            this.openDuration = openDuration;
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        Builder ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public ResilientProductService build() {
+            return new ResilientProductService(this);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.spinscale.restclient;
+
+/**
+ * Token bucket, that limits retries to a share of all calls. Every call deposits
+ * {@code retryRatio} tokens, every retry takes a whole token. When a cluster is failing
+ * everything, the bucket runs dry quickly and calls fail instead of multiplying the load.
+ */
+final class RetryBudget {
+
+    private final double retryRatio;
+    private final double maxTokens;
+    private double tokens;
+
+    RetryBudget(double retryRatio, double maxTokens) {
+        this.retryRatio = retryRatio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    synchronized void deposit() {
+        tokens = Math.min(maxTokens, tokens + retryRatio);
+    }
+
+    synchronized boolean tryWithdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    synchronized double tokens() {
+        return tokens;
+    }
+}
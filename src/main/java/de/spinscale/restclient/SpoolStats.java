@@ -0,0 +1,91 @@
+package de.spinscale.restclient;
+
+import java.time.Duration;
+
+/**
+ * Point in time view of the backlog and counters of a {@link ProductSpool}
+ */
+public class SpoolStats {
+
+    private final long pendingRecords;
+    private final long pendingBytes;
+    private final Duration lag;
+    private final int segments;
+    private final long appended;
+    private final long replayed;
+    private final long dropped;
+    private final long retries;
+    private final long corrupted;
+
+    public SpoolStats(long pendingRecords, long pendingBytes, Duration lag, int segments, long appended, long replayed,
+                      long dropped, long retries, long corrupted) {
+        this.pendingRecords = pendingRecords;
+        this.pendingBytes = pendingBytes;
+        this.lag = lag;
+        this.segments = segments;
+        this.appended = appended;
+        this.replayed = replayed;
+        this.dropped = dropped;
+        this.retries = retries;
+        this.corrupted = corrupted;
+    }
+
+    /**
+     * @return the number of products, that were saved but not replayed yet
+     */
+    public long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return the age of the oldest product, that was not replayed yet
+     */
+    public Duration getLag() {
+        return lag;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public long getAppended() {
+        return appended;
+    }
+
+    public long getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * @return the number of products rejected by Elasticsearch with a status, that retrying does not fix, and of
+     *         records, that could not be decoded and were moved to the quarantine file
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of bulk requests, that were sent again after a failure
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of corrupted records found when opening the spool
+     */
+    public long getCorrupted() {
+        return corrupted;
+    }
+
+    @Override
+    public String toString() {
+        return "pending records [" + pendingRecords + "], pending bytes [" + pendingBytes + "], lag [" + lag +
+                "], segments [" + segments + "], appended [" + appended + "], replayed [" + replayed + "], dropped [" +
+                dropped + "], retries [" + retries + "], corrupted [" + corrupted + "]";
+    }
+}
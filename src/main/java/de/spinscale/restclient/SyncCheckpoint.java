@@ -0,0 +1,81 @@
+package de.spinscale.restclient;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The highest sequence number per shard, up to which all changes of an index have been synced.
+ * Persist it together with the synced products and pass it to {@link CatalogSync.Builder#checkpoint(SyncCheckpoint)}
+ * to continue after a restart.
+ *
+ * Sequence numbers are only comparable within the same index, so the checkpoint remembers the uuid of the index.
+ * If the index is replaced, for example because an alias was switched after a reindex, the sync starts over.
+ */
+public final class SyncCheckpoint {
+
+    private static final SyncCheckpoint EMPTY = new SyncCheckpoint(null, Collections.emptyMap());
+
+    private final String indexUuid;
+    private final Map<Integer, Long> seqNos;
+
+    public SyncCheckpoint(String indexUuid, Map<Integer, Long> seqNos) {
+        this.indexUuid = indexUuid;
+        this.seqNos = Collections.unmodifiableMap(new TreeMap<>(seqNos));
+    }
+
+    /**
+     * @return a checkpoint before the first change of any index
+     */
+    public static SyncCheckpoint empty() {
+        return EMPTY;
+    }
+
+    public String getIndexUuid() {
+        return indexUuid;
+    }
+
+    /**
+     * @return the highest synced sequence number per shard
+     */
+    public Map<Integer, Long> getSeqNos() {
+        return seqNos;
+    }
+
+    /**
+     * @return the highest synced sequence number of the shard, -1 if nothing was synced yet
+     */
+    public long getSeqNo(int shard) {
+        return seqNos.getOrDefault(shard, -1L);
+    }
+
+    SyncCheckpoint withSeqNo(int shard, long seqNo) {
+        final Map<Integer, Long> copy = new HashMap<>(seqNos);
+        copy.put(shard, seqNo);
+        return new SyncCheckpoint(indexUuid, copy);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SyncCheckpoint that = (SyncCheckpoint) o;
+        return Objects.equals(indexUuid, that.indexUuid) && seqNos.equals(that.seqNos);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(indexUuid, seqNos);
+    }
+
+    @Override
+    public String toString() {
+        return "index uuid [" + indexUuid + "], seq nos " + seqNos;
+    }
+}
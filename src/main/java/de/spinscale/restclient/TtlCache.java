@@ -0,0 +1,170 @@
+package de.spinscale.restclient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Small LRU cache bounded by number of entries and total weight, entries expire after a
+ * fixed time to live. Concurrent misses for the same key are coalesced, so only one caller
+ * runs the loader while all others wait for its result.
+ *
+ * This is deliberately simple, a single lock guards the LRU map. Use caffeine if you need
+ * anything more sophisticated.
+ */
+class TtlCache<K, V> {
+
+    interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    private final long maxEntries;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToLongFunction<V> weigher;
+    private final LongSupplier ticker;
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private long weight = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    TtlCache(long maxEntries, long maxWeight, Duration ttl, ToLongFunction<V> weigher, LongSupplier ticker) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+        this.weigher = weigher;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return the cached value or null, counts as hit or miss
+     */
+    V get(K key) {
+        final V value = getIfPresent(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached value or loads it. Only one loader per key runs at any time, null
+     * values are returned but not cached.
+     */
+    V get(K key, Loader<V> loader) throws IOException {
+        final V cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return Futures.await(existing);
+        }
+
+        try {
+            final V value = loader.load();
+            synchronized (this) {
+                // only cache if there was no invalidation while loading
+                if (value != null && loading.get(key) == future) {
+                    putLocked(key, value);
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    synchronized void put(K key, V value) {
+        loading.remove(key);
+        putLocked(key, value);
+    }
+
+    synchronized void invalidate(K key) {
+        loading.remove(key);
+        final Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    synchronized void invalidateAll() {
+        loading.clear();
+        entries.clear();
+        weight = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long weight() {
+        return weight;
+    }
+
+    CacheStats stats() {
+        final int size;
+        final long currentWeight;
+        synchronized (this) {
+            size = entries.size();
+            currentWeight = weight;
+        }
+        return new CacheStats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), expirations.sum(), size, currentWeight);
+    }
+
+    private synchronized V getIfPresent(K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (ticker.getAsLong() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            weight -= entry.weight;
+            expirations.increment();
+            return null;
+        }
+        return entry.value;
+    }
+
+    private void putLocked(K key, V value) {
+        final Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value), ticker.getAsLong() + ttlNanos);
+        final Entry<V> previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entry.weight;
+
+        final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && iterator.hasNext()) {
+            final Entry<V> eldest = iterator.next().getValue();
+            iterator.remove();
+            weight -= eldest.weight;
+            evictions.increment();
+        }
+    }
+
+    private record Entry<V>(V value, long weight, long expiresAt) {
+    }
+}
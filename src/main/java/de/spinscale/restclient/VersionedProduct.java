@@ -0,0 +1,36 @@
+package de.spinscale.restclient;
+
+/**
+ * A product together with the sequence number and primary term of the operation that wrote it.
+ * Passing it back to {@link ProductService#save(VersionedProduct)} only saves the product if
+ * nobody else changed it in the meantime.
+ */
+public final class VersionedProduct {
+
+    private final Product product;
+    private final long seqNo;
+    private final long primaryTerm;
+
+    public VersionedProduct(Product product, long seqNo, long primaryTerm) {
+        this.product = product;
+        this.seqNo = seqNo;
+        this.primaryTerm = primaryTerm;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public long getSeqNo() {
+        return seqNo;
+    }
+
+    public long getPrimaryTerm() {
+        return primaryTerm;
+    }
+
+    @Override
+    public String toString() {
+        return "product [" + product.getId() + "], seq no [" + seqNo + "], primary term [" + primaryTerm + "]";
+    }
+}
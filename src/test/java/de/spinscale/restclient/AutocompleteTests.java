@@ -0,0 +1,211 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AutocompleteTests {
+
+    @Test
+    public void testPrefixMatchesEveryWord() {
+        final ProductAutocomplete autocomplete = ProductAutocomplete.builder().build();
+        autocomplete.rebuild(Stream.of(
+                product("1", "Red Shirt", 20, 5),
+                product("2", "Blue shirt", 15, 50),
+                product("3", "Shiny Shoes", 80, 10),
+                product("4", "Super Shirt Shop", 30, 1),
+                product("5", "T-Shirt", 10, 7)));
+
+        assertThat(ids(autocomplete.suggest("sh", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("2", "3", "5", "1", "4");
+        assertThat(ids(autocomplete.suggest("SHI", 3, ProductAutocomplete.Ranking.PRICE))).containsExactly("5", "2", "1");
+        assertThat(ids(autocomplete.suggest("  red s", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("1");
+        assertThat(ids(autocomplete.suggest("shirt shop", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("4");
+        assertThat(autocomplete.suggest("irt", 10, ProductAutocomplete.Ranking.STOCK)).isEmpty();
+        assertThat(autocomplete.suggest("", 10, ProductAutocomplete.Ranking.STOCK)).isEmpty();
+
+        final ProductSummary summary = autocomplete.suggest("blue", 1, ProductAutocomplete.Ranking.STOCK).get(0);
+        assertThat(summary.getName()).isEqualTo("Blue shirt");
+        assertThat(summary.getPrice()).isEqualTo(15);
+        assertThat(summary.getStockAvailable()).isEqualTo(50);
+    }
+
+    @Test
+    public void testPendingChanges() throws Exception {
+        final ProductAutocomplete autocomplete = ProductAutocomplete.builder().maxPendingChanges(2).build();
+        autocomplete.rebuild(Stream.of(product("1", "Red Shirt", 20, 5), product("2", "Blue Shirt", 15, 50)));
+        assertThat(autocomplete.stats().getRebuilds()).isEqualTo(1);
+
+        autocomplete.put(List.of(product("1", "Red Shirt", 20, 100), product("3", "Green Shirt", 10, 10)));
+        assertThat(autocomplete.stats().getPendingChanges()).isEqualTo(2);
+        assertThat(ids(autocomplete.suggest("shirt", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("1", "2", "3");
+        assertThat(ids(autocomplete.suggest("gre", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("3");
+
+        // renamed products are not found by their old name anymore, even before the compaction is done
+        autocomplete.put(List.of(product("2", "Blue Hat", 15, 50)));
+        assertThat(ids(autocomplete.suggest("shirt", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("1", "3");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (autocomplete.stats().getRebuilds() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(autocomplete.stats().getRebuilds()).isEqualTo(2);
+        assertThat(autocomplete.stats().getPendingChanges()).isEqualTo(0);
+        assertThat(autocomplete.stats().getProducts()).isEqualTo(3);
+        assertThat(ids(autocomplete.suggest("shirt", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("1", "3");
+        assertThat(ids(autocomplete.suggest("hat", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("2");
+    }
+
+    @Test
+    public void testUpdates() {
+        final ProductAutocomplete autocomplete = ProductAutocomplete.builder().build();
+        autocomplete.rebuild(Stream.of(product("1", "Red Shirt", 20, 5), product("2", "Blue Shirt", 15, 50)));
+
+        autocomplete.apply(List.of(ProductUpdate.setPrice("1", 5), ProductUpdate.incrementStock("1", 10),
+                ProductUpdate.incrementStock("1", 10), ProductUpdate.decrementStock("unknown", 1),
+                ProductUpdate.upsert(product("3", "Green Shirt", 1, 1))));
+
+        final List<ProductSummary> suggestions = autocomplete.suggest("shirt", 10, ProductAutocomplete.Ranking.PRICE);
+        assertThat(ids(suggestions)).containsExactly("3", "1", "2");
+        assertThat(suggestions.get(1).getStockAvailable()).isEqualTo(25);
+    }
+
+    @Test
+    public void testSavesDuringRebuildAreKept() {
+        final ProductAutocomplete autocomplete = ProductAutocomplete.builder().build();
+        autocomplete.rebuild(Stream.of(product("1", "Red Shirt", 20, 5))
+                .peek(product -> autocomplete.put(List.of(product("1", "Red Shirt", 20, 99), product("2", "Blue Shirt", 15, 50)))));
+
+        final List<ProductSummary> suggestions = autocomplete.suggest("shirt", 10, ProductAutocomplete.Ranking.STOCK);
+        assertThat(ids(suggestions)).containsExactly("1", "2");
+        assertThat(suggestions.get(0).getStockAvailable()).isEqualTo(99);
+        assertThat(autocomplete.stats().getPendingChanges()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSavesBeforeScanAreKept() throws Exception {
+        final ProductAutocomplete autocomplete = ProductAutocomplete.builder().build();
+        autocomplete.rebuild(Stream.of(product("1", "Red Shirt", 20, 5)));
+        // saved before the rebuild, but not visible to the scan yet
+        autocomplete.put(List.of(product("2", "Blue Shirt", 15, 50)));
+
+        autocomplete.rebuild(() -> {
+            // saved while the scan is opened, before it returns a single product
+            autocomplete.put(List.of(product("3", "Green Shirt", 10, 10)));
+            return Stream.of(product("1", "Red Shirt", 20, 5));
+        });
+
+        assertThat(ids(autocomplete.suggest("shirt", 10, ProductAutocomplete.Ranking.STOCK))).containsExactly("2", "3", "1");
+        assertThat(autocomplete.stats().getPendingChanges()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBatchSavesWithGeneratedIds() throws Exception {
+        // the bulk response generates an id for every product
+        try (StubElasticsearch stub = StubElasticsearch.start(request -> {
+            final String items = IntStream.range(0, 2)
+                    .mapToObj(i -> "{\"index\":{\"_index\":\"products\",\"_id\":\"generated-" + i + "\",\"status\":201}}")
+                    .collect(Collectors.joining(","));
+            return StubElasticsearch.Response.ok("{\"took\":1,\"errors\":false,\"items\":[" + items + "]}");
+        })) {
+            final ProductAutocomplete autocomplete = ProductAutocomplete.builder().build();
+            final ProductServiceImpl productService = ProductServiceImpl.builder("products", stub.createClient())
+                    .autocomplete(autocomplete)
+                    .build();
+            productService.save(ProductBatch.of(List.of(product(null, "Red Shirt", 20, 5), product(null, "Blue Shirt", 15, 50))));
+
+            assertThat(ids(productService.suggest("shirt", 10, ProductAutocomplete.Ranking.STOCK)))
+                    .containsExactly("generated-1", "generated-0");
+        }
+    }
+
+    @Test
+    public void testStats() {
+        final ProductAutocomplete autocomplete = ProductAutocomplete.builder().build();
+        assertThat(autocomplete.stats().getProducts()).isEqualTo(0);
+        autocomplete.rebuild(Stream.of(product("1", "Red Shirt", 20, 5), product("2", "Blue Shirt", 15, 50)));
+
+        final AutocompleteStats stats = autocomplete.stats();
+        assertThat(stats.getProducts()).isEqualTo(2);
+        assertThat(stats.getEntries()).isEqualTo(4);
+        assertThat(stats.getNodes()).isGreaterThan(1);
+        assertThat(stats.getMemoryBytes()).isPositive();
+        assertThat(stats.getLastRebuildTime()).isPositive();
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        final Random random = new Random(42);
+        final String[] words = { "red", "redder", "blue", "shirt", "shirts", "shoe", "sh", "hat", "hats", "green", "t-shirt", "x" };
+        final List<Product> products = new ArrayList<>();
+        final List<Integer> stocks = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            stocks.add(i);
+        }
+        Collections.shuffle(stocks, random);
+        for (int i = 0; i < 500; i++) {
+            final int length = 1 + random.nextInt(4);
+            final StringBuilder name = new StringBuilder();
+            for (int w = 0; w < length; w++) {
+                name.append(w > 0 ? " " : "").append(words[random.nextInt(words.length)]);
+            }
+            products.add(product(String.valueOf(i), name.toString(), i, stocks.get(i)));
+        }
+
+        for (int maxDepth : new int[] { 1, 3, 8 }) {
+            final ProductAutocomplete autocomplete = ProductAutocomplete.builder().maxDepth(maxDepth).maxPendingChanges(1000).build();
+            autocomplete.rebuild(products.subList(0, 400).stream());
+            autocomplete.put(products.subList(400, 500));
+            final ProductAutocomplete rebuilt = ProductAutocomplete.builder().maxDepth(maxDepth).build();
+            rebuilt.rebuild(products.stream());
+            for (String prefix : List.of("r", "re", "red", "red s", "redder shirt", "sh", "shirt", "shirts h", "t", "x", "shoe x", "z")) {
+                final List<String> expected = products.stream()
+                        .filter(product -> matchesAnyWordStart(product.getName(), prefix))
+                        .sorted(Comparator.comparingInt(Product::getStockAvailable).reversed())
+                        .limit(10)
+                        .map(Product::getId)
+                        .collect(Collectors.toList());
+                assertThat(ids(autocomplete.suggest(prefix, 10, ProductAutocomplete.Ranking.STOCK)))
+                        .as("prefix [%s], max depth [%s]", prefix, maxDepth)
+                        .isEqualTo(expected);
+                assertThat(ids(rebuilt.suggest(prefix, 10, ProductAutocomplete.Ranking.STOCK)))
+                        .as("prefix [%s], max depth [%s], without pending changes", prefix, maxDepth)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    private static boolean matchesAnyWordStart(String name, String prefix) {
+        final String lowerCase = name.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lowerCase.length(); i++) {
+            final boolean wordStart = Character.isLetterOrDigit(lowerCase.charAt(i)) &&
+                    (i == 0 || Character.isLetterOrDigit(lowerCase.charAt(i - 1)) == false);
+            if (wordStart && lowerCase.startsWith(prefix, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> ids(List<ProductSummary> summaries) {
+        return summaries.stream().map(ProductSummary::getId).collect(Collectors.toList());
+    }
+
+    private static Product product(String id, String name, double price, int stock) {
+        final Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setPrice(price);
+        product.setStockAvailable(stock);
+        return product;
+    }
+}
@@ -0,0 +1,190 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BulkIndexerTests {
+
+    private static final Pattern ID = Pattern.compile("\"_id\":\"([^\"]+)\"");
+    private static final String REJECTED = "{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}";
+    private static final String INVALID = "{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\"}";
+
+    private StubElasticsearch stub;
+    private ElasticsearchAsyncClient client;
+    // the status of the n-th request and of the item with the given id within the n-th request
+    private volatile IntUnaryOperator requestStatuses = request -> 200;
+    private volatile BiFunction<Integer, String, Integer> itemStatuses = (request, id) -> 200;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        stub = StubElasticsearch.start(request -> {
+            final int number = stub.getRequests().size() - 1;
+            final int requestStatus = requestStatuses.applyAsInt(number);
+            if (requestStatus != 200) {
+                return StubElasticsearch.Response.error(requestStatus, "unavailable_shards_exception", "unavailable");
+            }
+            final StringBuilder items = new StringBuilder();
+            for (String id : ids(request)) {
+                final int status = itemStatuses.apply(number, id);
+                items.append(items.length() > 0 ? "," : "")
+                        .append("{\"index\":{\"_index\":\"products\",\"_id\":\"").append(id)
+                        .append("\",\"status\":").append(status);
+                if (status == 200) {
+                    items.append(",\"result\":\"updated\"}}");
+                } else {
+                    items.append(",\"error\":").append(status == 429 ? REJECTED : INVALID).append("}}");
+                }
+            }
+            return StubElasticsearch.Response.ok("{\"took\":1,\"errors\":false,\"items\":[" + items + "]}");
+        });
+        client = stub.createAsyncClient();
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        stub.close();
+    }
+
+    @Test
+    public void testRetriesRejectedItemsWithBackoff() throws Exception {
+        // the second product is rejected twice
+        itemStatuses = (request, id) -> "2".equals(id) && request < 2 ? 429 : 200;
+        try (BulkIndexer indexer = indexer(3, Duration.ofMillis(50))) {
+            final CompletableFuture<String> first = indexer.add(product("1"));
+            final CompletableFuture<String> second = indexer.add(product("2"));
+            indexer.flush();
+
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("2");
+            assertThat(first.get()).isEqualTo("1");
+        }
+
+        assertThat(requests()).containsExactly(List.of("1", "2"), List.of("2"), List.of("2"));
+        // exponential backoff between the attempts, at least half of it is not random
+        assertThat(requestNanos(1) - requestNanos(0)).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(25));
+        assertThat(requestNanos(2) - requestNanos(1)).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testRetriesFailedRequests() throws Exception {
+        requestStatuses = request -> request == 0 ? 503 : 200;
+        try (BulkIndexer indexer = indexer(3, Duration.ofMillis(10))) {
+            final CompletableFuture<String> future = indexer.add(product("1"));
+            indexer.flush();
+            assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo("1");
+        }
+
+        assertThat(requests()).containsExactly(List.of("1"), List.of("1"));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() throws Exception {
+        itemStatuses = (request, id) -> 429;
+        try (BulkIndexer indexer = indexer(2, Duration.ofMillis(10))) {
+            final CompletableFuture<String> future = indexer.add(product("1"));
+            indexer.flush();
+            assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IOException.class)
+                    .hasMessageContaining("status [429]");
+        }
+
+        assertThat(requests()).hasSize(3);
+    }
+
+    @Test
+    public void testDoesNotRetryOtherFailures() throws Exception {
+        itemStatuses = (request, id) -> "1".equals(id) ? 400 : 200;
+        try (BulkIndexer indexer = indexer(3, Duration.ofMillis(10))) {
+            final CompletableFuture<String> failed = indexer.add(product("1"));
+            final CompletableFuture<String> indexed = indexer.add(product("2"));
+            indexer.flush();
+            assertThat(indexed.get(5, TimeUnit.SECONDS)).isEqualTo("2");
+            assertThatThrownBy(() -> failed.get(5, TimeUnit.SECONDS)).hasMessageContaining("status [400]");
+        }
+
+        assertThat(requests()).hasSize(1);
+    }
+
+    @Test
+    public void testRetryDoesNotOverwriteNewerSave() throws Exception {
+        // the first save of product 1 is rejected, the newer one is added during the backoff
+        itemStatuses = (request, id) -> request == 0 ? 429 : 200;
+        try (BulkIndexer indexer = indexer(3, Duration.ofMillis(500))) {
+            final CompletableFuture<String> older = indexer.add(product("1"));
+            indexer.flush();
+            while (stub.getRequests().isEmpty()) {
+                Thread.sleep(1);
+            }
+            final CompletableFuture<String> newer = indexer.add(product("1"));
+            indexer.flush();
+
+            assertThat(newer.get(5, TimeUnit.SECONDS)).isEqualTo("1");
+            assertThat(older.get(5, TimeUnit.SECONDS)).isEqualTo("1");
+        }
+
+        // the retry of the older save was dropped
+        assertThat(requests()).containsExactly(List.of("1"), List.of("1"));
+    }
+
+    @Test
+    public void testCloseSendsQueuedProducts() throws Exception {
+        final BulkIndexer indexer = indexer(3, Duration.ofMillis(10));
+        final CompletableFuture<String> future = indexer.add(product("1"));
+        indexer.close();
+
+        assertThat(future).isCompletedWithValue("1");
+        assertThat(indexer.add(product("2"))).isCompletedExceptionally();
+        assertThat(requests()).containsExactly(List.of("1"));
+    }
+
+    private BulkIndexer indexer(int maxRetries, Duration initialBackoff) {
+        return BulkIndexer.builder(client, "products")
+                .flushInterval(Duration.ofMinutes(1))
+                .maxRetries(maxRetries)
+                .initialBackoff(initialBackoff)
+                .build();
+    }
+
+    // ids of every received bulk request
+    private List<List<String>> requests() {
+        return stub.getRequests().stream().map(BulkIndexerTests::ids).collect(Collectors.toList());
+    }
+
+    private long requestNanos(int request) {
+        return stub.getRequests().get(request).nanoTime();
+    }
+
+    private static List<String> ids(StubElasticsearch.Request request) {
+        final List<String> ids = new ArrayList<>();
+        final Matcher matcher = ID.matcher(request.bodyAsString());
+        while (matcher.find()) {
+            ids.add(matcher.group(1));
+        }
+        return ids;
+    }
+
+    private static Product product(String id) {
+        final Product product = new Product();
+        product.setId(id);
+        product.setName("product " + id);
+        return product;
+    }
+}
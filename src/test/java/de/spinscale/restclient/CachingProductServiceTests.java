@@ -0,0 +1,252 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachingProductServiceTests {
+
+    private final CountingProductService delegate = new CountingProductService();
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    public void testFindByIdIsCached() throws Exception {
+        final CachingProductService service = CachingProductService.builder(delegate).ticker(nanos::get).build();
+
+        assertThat(service.findById("1").getName()).isEqualTo("Product 1");
+        assertThat(service.findById("1").getName()).isEqualTo("Product 1");
+        assertThat(delegate.gets.get()).isEqualTo(1);
+
+        final CacheStats stats = service.stats();
+        assertThat(stats.getHits()).isEqualTo(1);
+        assertThat(stats.getMisses()).isEqualTo(1);
+        assertThat(stats.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReturnedProductsAreCopies() throws Exception {
+        final CachingProductService service = CachingProductService.builder(delegate).ticker(nanos::get).build();
+
+        service.findById("1").setName("changed");
+        assertThat(service.findById("1").getName()).isEqualTo("Product 1");
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        final CachingProductService service = CachingProductService.builder(delegate)
+                .ttl(Duration.ofSeconds(10))
+                .ticker(nanos::get)
+                .build();
+
+        service.findById("1");
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        service.findById("1");
+        assertThat(delegate.gets.get()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        service.findById("1");
+        assertThat(delegate.gets.get()).isEqualTo(2);
+        assertThat(service.stats().getExpirations()).isEqualTo(1);
+    }
+
+    @Test
+    public void testEvictionByEntriesAndWeight() throws Exception {
+        final CachingProductService byEntries = CachingProductService.builder(delegate)
+                .maximumEntries(2)
+                .ticker(nanos::get)
+                .build();
+        byEntries.findById("1");
+        byEntries.findById("2");
+        byEntries.findById("1");
+        byEntries.findById("3");
+        // 2 was least recently used
+        assertThat(byEntries.stats().getEvictions()).isEqualTo(1);
+        byEntries.findById("1");
+        assertThat(delegate.gets.get()).isEqualTo(3);
+
+        final Product product = delegate.findById("1");
+        final CachingProductService byWeight = CachingProductService.builder(delegate)
+                .maximumWeight(CachingProductService.weigh(product) * 3)
+                .ticker(nanos::get)
+                .build();
+        for (int i = 0; i < 5; i++) {
+            byWeight.findById(String.valueOf(i));
+        }
+        assertThat(byWeight.stats().getSize()).isEqualTo(3);
+        assertThat(byWeight.stats().getWeight()).isLessThanOrEqualTo(CachingProductService.weigh(product) * 3);
+    }
+
+    @Test
+    public void testSaveUpdatesCache() throws Exception {
+        final CachingProductService service = CachingProductService.builder(delegate).ticker(nanos::get).build();
+        service.findById("1");
+
+        final Product product = delegate.findById("1");
+        product.setName("new name");
+        service.save(product);
+
+        assertThat(service.findById("1").getName()).isEqualTo("new name");
+        // one get from the cache miss, one from the test itself
+        assertThat(delegate.gets.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testProductsWithoutIdAreNotCached() throws Exception {
+        final CachingProductService service = CachingProductService.builder(delegate).ticker(nanos::get).build();
+        // the delegate did not set an id on the second product, like for a bulk item that failed
+        final Product failed = new Product();
+        failed.setName("failed");
+        service.save(List.of(delegate.findById("1"), failed));
+        service.save(failed);
+
+        assertThat(service.stats().getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFindByIdsOnlyFetchesMissingProducts() throws Exception {
+        final CachingProductService service = CachingProductService.builder(delegate).ticker(nanos::get).build();
+        service.findById("2");
+
+        final List<Optional<Product>> products = service.findByIds(List.of("1", "2", "missing", "3"));
+        assertThat(products).hasSize(4);
+        assertThat(products.get(0)).hasValueSatisfying(p -> assertThat(p.getId()).isEqualTo("1"));
+        assertThat(products.get(1)).hasValueSatisfying(p -> assertThat(p.getId()).isEqualTo("2"));
+        assertThat(products.get(2)).isEmpty();
+        assertThat(products.get(3)).hasValueSatisfying(p -> assertThat(p.getId()).isEqualTo("3"));
+        assertThat(delegate.gets.get()).isEqualTo(3);
+
+        service.findByIds(List.of("1", "2", "3"));
+        assertThat(delegate.gets.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testConcurrentMissesAreCoalesced() throws Exception {
+        delegate.blockGets = new CountDownLatch(1);
+        final CachingProductService service = CachingProductService.builder(delegate).ticker(nanos::get).build();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Product>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> service.findById("1")));
+            }
+            // wait until all threads are either loading or waiting for the load
+            while (service.stats().getMisses() < 8) {
+                Thread.sleep(1);
+            }
+            delegate.blockGets.countDown();
+
+            for (Future<Product> future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS).getId()).isEqualTo("1");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(delegate.gets.get()).isEqualTo(1);
+        assertThat(service.stats().getCoalesced()).isEqualTo(7);
+    }
+
+    private static class CountingProductService implements ProductService {
+
+        private final AtomicInteger gets = new AtomicInteger();
+        private volatile CountDownLatch blockGets = new CountDownLatch(0);
+
+        @Override
+        public Product findById(String id) throws IOException {
+            gets.incrementAndGet();
+            try {
+                blockGets.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            Product product = new Product();
+            product.setId(id);
+            product.setName("Product " + id);
+            product.setDescription("Description of " + id);
+            return product;
+        }
+
+        @Override
+        public List<Optional<Product>> findByIds(Collection<String> ids) throws IOException {
+            final List<Optional<Product>> products = new ArrayList<>();
+            for (String id : ids) {
+                products.add(id.startsWith("missing") ? Optional.empty() : Optional.of(findById(id)));
+            }
+            return products;
+        }
+
+        @Override
+        public Page<Product> search(String query) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page<Product> search(String query, Duration keepAlive) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Page<Product>> searchBatch(List<PageRequest> requests) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FacetedPage searchWithFacets(String query, int size, FacetRequest facets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VersionedProduct findVersionedById(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VersionedProduct save(VersionedProduct product) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page<Product> next(Page page) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close(Page page) {
+        }
+
+        @Override
+        public void save(Product product) {
+        }
+
+        @Override
+        public void save(List<Product> products) {
+        }
+
+        @Override
+        public void save(ProductBatch batch) {
+        }
+
+        @Override
+        public void update(ProductUpdate update) {
+        }
+
+        @Override
+        public void update(List<ProductUpdate> updates) {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.indices.IndicesStatsResponse;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CatalogSyncTests {
+
+    private static final String SHARD_COPY = "{\"routing\":{\"state\":\"STARTED\",\"primary\":%s,\"node\":\"node\"}," +
+            "\"seq_no\":{\"max_seq_no\":%2$d,\"local_checkpoint\":%2$d,\"global_checkpoint\":%2$d}}";
+
+    private final JsonpMapper mapper = new JacksonJsonpMapper();
+
+    @Test
+    public void testChangesRequest() {
+        final SearchRequest request = CatalogSync.createChangesRequest("products-1", 2, 41, 97, 500);
+        assertThat(request.preference()).isEqualTo("_shards:2");
+        assertThat(request.index()).containsExactly("products-1");
+
+        final StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            request.serialize(generator, mapper);
+        }
+        assertThat(writer.toString())
+                .contains("\"query\":{\"range\":{\"_seq_no\":{\"gt\":41,\"lte\":97}}}")
+                .contains("\"sort\":[{\"_seq_no\":{\"order\":\"asc\"}}]")
+                .contains("\"seq_no_primary_term\":true")
+                .contains("\"track_total_hits\":false")
+                .contains("\"size\":500");
+    }
+
+    @Test
+    public void testGlobalCheckpointsOfPrimaries() {
+        final String json = "{\"_shards\":{\"total\":4,\"successful\":4,\"failed\":0},\"_all\":{},\"indices\":{\"products-1\":{" +
+                "\"uuid\":\"abc\",\"shards\":{" +
+                "\"0\":[" + String.format(SHARD_COPY, true, 12) + "," + String.format(SHARD_COPY, false, 11) + "]," +
+                "\"1\":[" + String.format(SHARD_COPY, false, 6) + "," + String.format(SHARD_COPY, true, 7) + "]}}}}";
+        final IndicesStatsResponse response;
+        try (JsonParser parser = mapper.jsonProvider().createParser(new StringReader(json))) {
+            response = IndicesStatsResponse._DESERIALIZER.deserialize(parser, mapper);
+        }
+
+        assertThat(CatalogSync.globalCheckpoints(response.indices().get("products-1"))).isEqualTo(Map.of(0, 12L, 1, 7L));
+    }
+
+    @Test
+    public void testCheckpoint() {
+        final SyncCheckpoint empty = SyncCheckpoint.empty();
+        assertThat(empty.getIndexUuid()).isNull();
+        assertThat(empty.getSeqNo(0)).isEqualTo(-1);
+
+        final SyncCheckpoint checkpoint = new SyncCheckpoint("abc", Map.of(0, 5L)).withSeqNo(1, 9);
+        assertThat(checkpoint.getSeqNo(0)).isEqualTo(5);
+        assertThat(checkpoint.getSeqNo(1)).isEqualTo(9);
+        assertThat(checkpoint.withSeqNo(0, 6).getSeqNo(0)).isEqualTo(6);
+        // checkpoints are immutable
+        assertThat(checkpoint.getSeqNo(0)).isEqualTo(5);
+        assertThat(checkpoint).isEqualTo(new SyncCheckpoint("abc", Map.of(1, 9L, 0, 5L)));
+    }
+
+    @Test
+    public void testBatchSizeValidation() {
+        assertThatThrownBy(() -> CatalogSync.builder(null, "products").batchSize(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
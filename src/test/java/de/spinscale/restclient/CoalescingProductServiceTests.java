@@ -0,0 +1,283 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CoalescingProductServiceTests {
+
+    private final SearchingProductService delegate = new SearchingProductService();
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    public void testConcurrentIdenticalSearchesAreCoalesced() throws Exception {
+        delegate.blockSearches = new CountDownLatch(1);
+        final CoalescingProductService service = CoalescingProductService.builder(delegate).build();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Page<Product>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> service.search("shirt")));
+            }
+            // wait until all threads are either searching or waiting for the search
+            while (service.getSearches() < 8) {
+                Thread.sleep(1);
+            }
+            delegate.blockSearches.countDown();
+
+            final List<Page<Product>> pages = new ArrayList<>();
+            for (Future<Page<Product>> future : futures) {
+                pages.add(future.get(10, TimeUnit.SECONDS));
+            }
+            assertThat(pages).allSatisfy(page -> assertThat(page.get()).hasSize(10));
+            // every caller gets its own products
+            pages.get(0).get().get(0).setName("changed");
+            assertThat(pages.get(1).get().get(0).getName()).isEqualTo("shirt 0");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(delegate.searches.get()).isEqualTo(1);
+        assertThat(service.getCoalesced()).isEqualTo(7);
+        assertThat(service.getCoalescingRate()).isEqualTo(7.0 / 8);
+    }
+
+    @Test
+    public void testDifferentPagesAreNotCoalesced() throws Exception {
+        final CoalescingProductService service = CoalescingProductService.builder(delegate).build();
+
+        final Page<Product> first = service.search("shirt");
+        final Page<Product> second = service.next(first);
+        assertThat(second.getFrom()).isEqualTo(10);
+        service.search("pants");
+
+        assertThat(delegate.searches.get()).isEqualTo(3);
+        assertThat(service.getCoalesced()).isEqualTo(0);
+        assertThat(service.firstPageCacheStats().getHits()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFailuresArePassedToWaitingCallers() throws Exception {
+        delegate.blockSearches = new CountDownLatch(1);
+        delegate.failure = new IOException("search failed");
+        final CoalescingProductService service = CoalescingProductService.builder(delegate).build();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Page<Product>> first = executor.submit(() -> service.search("shirt"));
+            final Future<Page<Product>> second = executor.submit(() -> service.search("shirt"));
+            while (service.getSearches() < 2) {
+                Thread.sleep(1);
+            }
+            delegate.blockSearches.countDown();
+
+            assertThatThrownBy(() -> first.get(10, TimeUnit.SECONDS)).hasRootCauseMessage("search failed");
+            assertThatThrownBy(() -> second.get(10, TimeUnit.SECONDS)).hasRootCauseMessage("search failed");
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(delegate.searches.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFirstPagesAreCachedForTtl() throws Exception {
+        final CoalescingProductService service = CoalescingProductService.builder(delegate)
+                .firstPageTtl(Duration.ofSeconds(1))
+                .ticker(nanos::get)
+                .build();
+
+        final Page<Product> first = service.search("shirt");
+        service.search("shirt").get().get(0).setName("changed");
+        assertThat(service.search("shirt").get().get(0).getName()).isEqualTo("shirt 0");
+        assertThat(delegate.searches.get()).isEqualTo(1);
+
+        // later pages are not cached
+        service.next(first);
+        service.next(first);
+        assertThat(delegate.searches.get()).isEqualTo(3);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        service.search("shirt");
+        assertThat(delegate.searches.get()).isEqualTo(4);
+
+        final CacheStats stats = service.firstPageCacheStats();
+        assertThat(stats.getHits()).isEqualTo(2);
+        assertThat(stats.getExpirations()).isEqualTo(1);
+    }
+
+    @Test
+    public void testWritesInvalidateCachedPages() throws Exception {
+        final CoalescingProductService service = CoalescingProductService.builder(delegate)
+                .firstPageTtl(Duration.ofSeconds(1))
+                .ticker(nanos::get)
+                .build();
+
+        service.search("shirt");
+        service.save(new Product());
+        service.search("shirt");
+        service.update(ProductUpdate.setPrice("1", 9.99));
+        service.search("shirt");
+        assertThat(delegate.searches.get()).isEqualTo(3);
+        assertThat(service.firstPageCacheStats().getHits()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPointInTimeSearchesAreNotCoalesced() throws Exception {
+        final CoalescingProductService service = CoalescingProductService.builder(delegate)
+                .firstPageTtl(Duration.ofSeconds(1))
+                .ticker(nanos::get)
+                .build();
+
+        final Page<Product> page = service.search("shirt", Duration.ofMinutes(1));
+        service.next(page);
+        service.next(page);
+        assertThat(delegate.searches.get()).isEqualTo(3);
+        assertThat(service.getSearches()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPrefetchedPagesAreCopied() throws Exception {
+        final CoalescingProductService service = CoalescingProductService.builder(delegate).build();
+        delegate.prefetch = true;
+
+        final Page<Product> first = service.search("shirt");
+        first.getPrefetched().get().get(0).setName("changed");
+        final Page<Product> second = service.search("shirt");
+        assertThat(second.getPrefetched().get().get(0).getName()).isEqualTo("shirt 10");
+
+        assertThat(service.next(second)).isSameAs(second.getPrefetched());
+        assertThat(delegate.searches.get()).isEqualTo(2);
+        assertThat(service.getSearches()).isEqualTo(2);
+    }
+
+    private static class SearchingProductService implements ProductService {
+
+        private final AtomicInteger searches = new AtomicInteger();
+        private volatile CountDownLatch blockSearches = new CountDownLatch(0);
+        private volatile IOException failure;
+        private volatile boolean prefetch;
+
+        @Override
+        public Page<Product> search(String query) throws IOException {
+            return search(query, 0, 10, null);
+        }
+
+        @Override
+        public Page<Product> search(String query, Duration keepAlive) throws IOException {
+            return search(query, 0, 10, "pit");
+        }
+
+        @Override
+        public FacetedPage searchWithFacets(String query, int size, FacetRequest facets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VersionedProduct findVersionedById(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VersionedProduct save(VersionedProduct product) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page<Product> next(Page page) throws IOException {
+            if (page.getPrefetched() != null) {
+                return page.getPrefetched();
+            }
+            return search(page.getInput(), page.getFrom() + page.getSize(), page.getSize(), page.getPointInTimeId());
+        }
+
+        @Override
+        public List<Page<Product>> searchBatch(List<PageRequest> requests) throws IOException {
+            final List<Page<Product>> pages = new ArrayList<>();
+            for (PageRequest request : requests) {
+                pages.add(search(request.getInput(), request.getFrom(), request.getSize(), null));
+            }
+            return pages;
+        }
+
+        private Page<Product> search(String query, int from, int size, String pointInTimeId) throws IOException {
+            searches.incrementAndGet();
+            try {
+                blockSearches.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            final List<Product> products = products(query, from, size);
+            if (prefetch) {
+                return new Page<>(products, query, from, size, new Page<>(products(query, from + size, size), query, from + size, size));
+            }
+            if (pointInTimeId == null) {
+                return new Page<>(products, query, from, size);
+            }
+            return new Page<>(products, query, from, size, List.of(), pointInTimeId, Duration.ofMinutes(1));
+        }
+
+        private static List<Product> products(String query, int from, int size) {
+            final List<Product> products = new ArrayList<>();
+            for (int i = from; i < from + size; i++) {
+                final Product product = new Product();
+                product.setId(String.valueOf(i));
+                product.setName(query + " " + i);
+                products.add(product);
+            }
+            return products;
+        }
+
+        @Override
+        public Product findById(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Optional<Product>> findByIds(Collection<String> ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close(Page page) {
+        }
+
+        @Override
+        public void save(Product product) {
+        }
+
+        @Override
+        public void save(List<Product> products) {
+        }
+
+        @Override
+        public void save(ProductBatch batch) {
+        }
+
+        @Override
+        public void update(ProductUpdate update) {
+        }
+
+        @Override
+        public void update(List<ProductUpdate> updates) {
+        }
+    }
+}
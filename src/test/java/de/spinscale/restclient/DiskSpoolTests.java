@@ -0,0 +1,159 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DiskSpoolTests {
+
+    @TempDir
+    Path directory;
+
+    private final AtomicLong clock = new AtomicLong(1_000);
+
+    @Test
+    public void testAppendPeekCommit() throws Exception {
+        try (DiskSpool spool = open(1024, 4)) {
+            spool.append(List.of(bytes("first"), bytes("second")));
+            spool.append(bytes("third"));
+            assertThat(spool.pendingRecords()).isEqualTo(3);
+            assertThat(spool.pendingBytes()).isEqualTo(16);
+
+            clock.addAndGet(500);
+            assertThat(spool.lagMillis()).isEqualTo(500);
+
+            final DiskSpool.Batch batch = spool.peek(2);
+            assertThat(strings(batch)).containsExactly("first", "second");
+            // peeking does not remove anything
+            assertThat(strings(spool.peek(10))).containsExactly("first", "second", "third");
+
+            spool.commit(batch);
+            assertThat(spool.pendingRecords()).isEqualTo(1);
+            assertThat(strings(spool.peek(10))).containsExactly("third");
+            assertThat(spool.committed()).isEqualTo(2);
+
+            spool.commit(spool.peek(10));
+            assertThat(spool.peek(10).isEmpty()).isTrue();
+            assertThat(spool.lagMillis()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testSegmentRotation() throws Exception {
+        try (DiskSpool spool = open(128, 10)) {
+            final List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                expected.add("record number " + i);
+                spool.append(bytes("record number " + i));
+            }
+            assertThat(spool.segmentCount()).isGreaterThan(3);
+            assertThat(segmentFiles()).hasSize(spool.segmentCount());
+
+            final List<String> read = new ArrayList<>();
+            DiskSpool.Batch batch;
+            while ((batch = spool.peek(3)).isEmpty() == false) {
+                read.addAll(strings(batch));
+                spool.commit(batch);
+            }
+            assertThat(read).containsExactlyElementsOf(expected);
+            // fully read segments are deleted, only the one appended to is kept
+            assertThat(spool.segmentCount()).isEqualTo(1);
+            assertThat(segmentFiles()).hasSize(1);
+        }
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception {
+        try (DiskSpool spool = open(128, 10)) {
+            for (int i = 0; i < 10; i++) {
+                spool.append(bytes("record " + i));
+            }
+            spool.commit(spool.peek(4));
+            // read, but not committed before the restart
+            spool.peek(3);
+        }
+
+        try (DiskSpool spool = open(128, 10)) {
+            assertThat(spool.pendingRecords()).isEqualTo(6);
+            spool.append(bytes("record 10"));
+            assertThat(strings(spool.peek(100))).containsExactly("record 4", "record 5", "record 6", "record 7", "record 8",
+                    "record 9", "record 10");
+        }
+    }
+
+    @Test
+    public void testTornWriteIsTruncated() throws Exception {
+        try (DiskSpool spool = open(1024, 4)) {
+            spool.append(bytes("first"));
+            spool.append(bytes("second"));
+            spool.append(bytes("third"));
+        }
+        // flip a byte of the payload of the last record
+        final long lastRecord = 2L * DiskSpool.HEADER_SIZE + "first".length() + "second".length();
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            file.seek(lastRecord + DiskSpool.HEADER_SIZE);
+            file.write('T');
+        }
+
+        try (DiskSpool spool = open(1024, 4)) {
+            assertThat(spool.corrupted()).isEqualTo(1);
+            assertThat(spool.pendingRecords()).isEqualTo(2);
+            spool.append(bytes("fourth"));
+            assertThat(strings(spool.peek(10))).containsExactly("first", "second", "fourth");
+        }
+        try (DiskSpool spool = open(1024, 4)) {
+            assertThat(spool.corrupted()).isEqualTo(0);
+            assertThat(strings(spool.peek(10))).containsExactly("first", "second", "fourth");
+        }
+    }
+
+    @Test
+    public void testFullSpoolRejectsAppends() throws Exception {
+        try (DiskSpool spool = open(64, 2)) {
+            spool.append(bytes("a".repeat(40)));
+            spool.append(bytes("b".repeat(40)));
+            assertThatThrownBy(() -> spool.append(bytes("c".repeat(40)))).isInstanceOf(RejectedExecutionException.class);
+            // nothing of a rejected list is appended
+            assertThatThrownBy(() -> spool.append(List.of(bytes("d"), bytes("e".repeat(40)))))
+                    .isInstanceOf(RejectedExecutionException.class);
+            assertThat(spool.pendingRecords()).isEqualTo(2);
+            assertThatThrownBy(() -> spool.append(bytes("f".repeat(60)))).isInstanceOf(IllegalArgumentException.class);
+
+            spool.commit(spool.peek(1));
+            spool.append(bytes("c".repeat(40)));
+            assertThat(spool.pendingRecords()).isEqualTo(2);
+        }
+    }
+
+    private DiskSpool open(int segmentSize, int maxSegments) throws IOException {
+        return new DiskSpool(directory, segmentSize, maxSegments, false, clock::get);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".spool")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(DiskSpool.Batch batch) {
+        return batch.records().stream().map(record -> new String(record, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+}
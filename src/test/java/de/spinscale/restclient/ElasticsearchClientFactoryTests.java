@@ -0,0 +1,89 @@
+package de.spinscale.restclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ElasticsearchClientFactoryTests {
+
+    private StubElasticsearch stub;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        stub = StubElasticsearch.start(request -> StubElasticsearch.Response.ok("{}"));
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        stub.close();
+    }
+
+    @Test
+    public void testCompressionAndApiKey() throws Exception {
+        final ClientConfig config = ClientConfig.builder(host()).apiKey("c2VjcmV0").build();
+        try (RestClient restClient = ElasticsearchClientFactory.createRestClient(config)) {
+            restClient.performRequest(createRequest());
+        }
+
+        final StubElasticsearch.Request request = stub.getRequests().get(0);
+        assertThat(request.headers().getFirst("Authorization")).isEqualTo("ApiKey c2VjcmV0");
+        assertThat(request.headers().getFirst("Accept-Encoding")).contains("gzip");
+        assertThat(request.headers().getFirst("Content-Encoding")).isEqualTo("gzip");
+        assertThat(request.bodyAsString()).isEqualTo("{\"name\":\"product\"}");
+    }
+
+    @Test
+    public void testWithoutCompression() throws Exception {
+        final ClientConfig config = ClientConfig.builder(host()).basicAuth("elastic", "s3cret").compression(false).build();
+        try (RestClient restClient = ElasticsearchClientFactory.createRestClient(config)) {
+            restClient.performRequest(createRequest());
+        }
+
+        final StubElasticsearch.Request request = stub.getRequests().get(0);
+        assertThat(request.headers().containsKey("Content-Encoding")).isFalse();
+        assertThat(request.bodyAsString()).isEqualTo("{\"name\":\"product\"}");
+        assertThat(stub.getBytesReceived()).isEqualTo(request.body().length);
+    }
+
+    @Test
+    public void testMetricsCountCompressedRequests() throws Exception {
+        final ProductServiceMetrics metrics = new ProductServiceMetrics();
+        final ClientConfig config = ClientConfig.builder(host()).metrics(metrics).build();
+        try (RestClient restClient = ElasticsearchClientFactory.createRestClient(config)) {
+            restClient.performRequest(createRequest());
+            restClient.performRequest(createRequest());
+        }
+
+        assertThat(stub.getRequests().get(1).headers().getFirst("Content-Encoding")).isEqualTo("gzip");
+        // the compressed bodies plus request line and headers of each request
+        assertThat(metrics.snapshot().getBytesSent()).isBetween(stub.getBytesReceived() + 200, stub.getBytesReceived() + 2000);
+        assertThat(metrics.snapshot().getBytesReceived()).isEqualTo(stub.getBytesSent());
+    }
+
+    @Test
+    public void testConfigValidation() {
+        assertThatThrownBy(ClientConfig::builder).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ClientConfig.builder(host()).maxConnections(10, 20))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private HttpHost host() {
+        return stub.getHost();
+    }
+
+    private static Request createRequest() {
+        final Request request = new Request("POST", "/products/_doc");
+        request.setEntity(new StringEntity("{\"name\":\"product\"}", ContentType.APPLICATION_JSON));
+        return request;
+    }
+}
@@ -2,45 +2,52 @@ package de.spinscale.restclient;
 
 import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.FieldSort;
 import co.elastic.clients.elasticsearch._types.HealthStatus;
 import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.aggregations.HistogramAggregate;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch.cluster.HealthResponse;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.search.TotalHitsRelation;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
 import co.elastic.clients.json.JsonData;
-import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.ElasticsearchTransport;
-import co.elastic.clients.transport.rest_client.RestClientTransport;
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.elasticsearch.client.Node;
 import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
-import org.elasticsearch.client.RestClientBuilder;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.testcontainers.elasticsearch.ElasticsearchContainer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
 
 public class ElasticsearchTests {
     private static final String IMAGE_NAME = "docker.elastic.co/elasticsearch/elasticsearch:8.3.3";
@@ -64,32 +71,28 @@ public class ElasticsearchTests {
     private static RestClient restClient;
     private static ProductServiceImpl productService;
     private static ElasticsearchAsyncClient asyncClient;
+    private static AsyncProductServiceImpl asyncProductService;
+    private static final ProductServiceMetrics metrics = new ProductServiceMetrics();
+    private static final AdaptiveNodeSelector nodeSelector = AdaptiveNodeSelector.builder().delegate(INGEST_NODE_SELECTOR).build();
 
     @BeforeAll
     public static void startElasticsearchCreateLocalClient() throws Exception {
         container.start();
 
         HttpHost host = new HttpHost("localhost", container.getMappedPort(9200), "https");
-        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials("elastic", "s3cret"));
-        final RestClientBuilder builder = RestClient.builder(host);
-
-        builder.setHttpClientConfigCallback(clientBuilder -> {
-            clientBuilder.setSSLContext(container.createSslContextFromCa());
-            clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-            return clientBuilder;
-        });
-        builder.setNodeSelector(INGEST_NODE_SELECTOR);
-
-        final ObjectMapper mapper = new ObjectMapper();
-        mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
-        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-
-        restClient = builder.build();
-        ElasticsearchTransport transport = new RestClientTransport(restClient, new JacksonJsonpMapper(mapper));
+        final ClientConfig config = ClientConfig.builder(host)
+                .sslContext(container.createSslContextFromCa())
+                .basicAuth("elastic", "s3cret")
+                .metrics(metrics)
+                .nodeSelector(nodeSelector)
+                .build();
+
+        restClient = ElasticsearchClientFactory.createRestClient(config);
+        ElasticsearchTransport transport = ElasticsearchClientFactory.createTransport(restClient);
         client = new ElasticsearchClient(transport);
         asyncClient = new ElasticsearchAsyncClient(transport);
-        productService = new ProductServiceImpl(INDEX, client);
+        productService = new ProductServiceImpl(INDEX, client, null, metrics);
+        asyncProductService = new AsyncProductServiceImpl(INDEX, asyncClient);
     }
 
 //    @BeforeAll
@@ -98,14 +101,7 @@ public class ElasticsearchTests {
 //        String user = "elastic";
 //        String password = "";
 //
-//        // basic auth, preemptive authentication
-//        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-//        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(user, password));
-//
-//        final RestClientBuilder builder = RestClient.builder(cloudId);
-//        builder.setHttpClientConfigCallback(b -> b.setDefaultCredentialsProvider(credentialsProvider));
-//
-//        client = new RestHighLevelClient(builder);
+//        client = ElasticsearchClientFactory.createClient(ClientConfig.cloud(cloudId).basicAuth(user, password).build());
 //        productService = new ProductServiceImpl(INDEX, client);
 //    }
 
@@ -172,6 +168,46 @@ public class ElasticsearchTests {
         assertThat(product3.getId()).isEqualTo("2");
     }
 
+    @Test
+    public void testFindProductByIdMissing() throws Exception {
+        productService.save(createProducts(1));
+
+        assertThat(productService.findById("does-not-exist")).isNull();
+    }
+
+    @Test
+    public void testFindProductsByIds() throws Exception {
+        productService.save(createProducts(5));
+
+        final List<Optional<Product>> products = productService.findByIds(List.of("3", "does-not-exist", "0"));
+        assertThat(products).hasSize(3);
+        assertThat(products.get(0)).hasValueSatisfying(p -> assertThat(p.getId()).isEqualTo("3"));
+        assertThat(products.get(1)).isEmpty();
+        assertThat(products.get(2)).hasValueSatisfying(p -> assertThat(p.getId()).isEqualTo("0"));
+
+        final List<Optional<Product>> asyncProducts = asyncProductService.findByIds(List.of("4", "1")).get(10, TimeUnit.SECONDS);
+        assertThat(asyncProducts).extracting(p -> p.map(Product::getId).orElse(null)).containsExactly("4", "1");
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final MetricsSnapshot before = metrics.snapshot();
+        productService.save(createProducts(10));
+        productService.findById("1");
+        client.indices().refresh(b -> b.index(INDEX));
+        productService.search("name");
+
+        final MetricsSnapshot after = metrics.snapshot();
+        for (ProductServiceMetrics.Operation operation : List.of(ProductServiceMetrics.Operation.SAVE,
+                ProductServiceMetrics.Operation.FIND_BY_ID, ProductServiceMetrics.Operation.SEARCH)) {
+            assertThat(after.get(operation).getRequests()).isEqualTo(before.get(operation).getRequests() + 1);
+            assertThat(after.get(operation).getLatency().getMax()).isPositive();
+        }
+        assertThat(after.getBulkItems()).isEqualTo(before.getBulkItems() + 10);
+        assertThat(after.getBytesSent()).isGreaterThan(before.getBytesSent());
+        assertThat(after.getBytesReceived()).isGreaterThan(before.getBytesReceived());
+    }
+
     @Test
     public void testSearch() throws Exception {
         productService.save(createProducts(10));
@@ -199,6 +235,56 @@ public class ElasticsearchTests {
         assertThat(thirdPage.get()).hasSize(1);
     }
 
+    @Test
+    public void testPaginationWithPointInTime() throws Exception {
+        productService.save(createProducts(21));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Page<Product> page = productService.search("name", Duration.ofMinutes(1));
+        assertThat(page.hasPointInTime()).isTrue();
+        assertThat(page.get()).hasSize(10);
+
+        // documents indexed after the point in time was opened are not visible
+        productService.save(createProducts(30).subList(21, 30));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Page<Product> secondPage = productService.next(page);
+        final Page<Product> thirdPage = productService.next(secondPage);
+        assertThat(secondPage.get()).hasSize(10);
+        assertThat(thirdPage.get()).hasSize(1);
+        assertThat(thirdPage.getFrom()).isEqualTo(20);
+
+        final Set<String> ids = new HashSet<>();
+        for (Page<Product> p : List.of(page, secondPage, thirdPage)) {
+            p.get().forEach(product -> ids.add(product.getId()));
+        }
+        assertThat(ids).hasSize(21);
+
+        final Page<Product> lastPage = productService.next(thirdPage);
+        assertThat(lastPage.get()).isEmpty();
+        productService.close(lastPage);
+    }
+
+    @Test
+    public void testStreamAll() throws Exception {
+        client.indices().create(b -> b.index(INDEX).settings(s -> s.numberOfShards("3")));
+        productService.save(createProducts(2500));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        try (Stream<Product> stream = productService.streamAll(Query.of(q -> q.matchAll(m -> m)))) {
+            assertThat(stream.map(Product::getId).distinct().count()).isEqualTo(2500);
+        }
+
+        try (Stream<Product> stream = productService.streamAll(Query.of(q -> q.matchAll(m -> m)), 3)) {
+            assertThat(stream.map(Product::getId).distinct().count()).isEqualTo(2500);
+        }
+
+        // only read a part of the stream
+        try (Stream<Product> stream = productService.streamAll(Query.of(q -> q.range(r -> r.field("price").lt(JsonData.of(12)))), 2)) {
+            assertThat(stream.limit(5).count()).isEqualTo(5);
+        }
+    }
+
     @Test
     public void testSearchAfter() throws Exception {
         productService.save(createProducts(21));
@@ -226,6 +312,384 @@ public class ElasticsearchTests {
         assertThat(ids).isNotEqualTo(searchAfterIds);
     }
 
+    @Test
+    public void testAsyncProductService() throws Exception {
+        asyncProductService.save(createProducts(21)).get(10, TimeUnit.SECONDS);
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Product product = asyncProductService.findById("5").get(10, TimeUnit.SECONDS);
+        assertThat(product.getId()).isEqualTo("5");
+
+        final Page<Product> page = asyncProductService.search("name").get(10, TimeUnit.SECONDS);
+        assertThat(page.get()).hasSize(10);
+        final Page<Product> thirdPage = asyncProductService.next(page)
+                .thenCompose(asyncProductService::next)
+                .get(10, TimeUnit.SECONDS);
+        assertThat(thirdPage.get()).hasSize(1);
+    }
+
+    @Test
+    public void testAsyncProductServiceRejectsWhenQueueIsFull() throws Exception {
+        productService.save(createProducts(1));
+        final AsyncProductServiceImpl service = new AsyncProductServiceImpl(INDEX, asyncClient, 1, 1);
+
+        final List<CompletableFuture<Product>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(service.findById("0"));
+        }
+
+        // the first request is in flight, the second one is queued, all others get rejected
+        assertThat(futures.get(9)).isCompletedExceptionally();
+        assertThatThrownBy(() -> futures.get(9).get()).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(futures.get(0).get(10, TimeUnit.SECONDS).getId()).isEqualTo("0");
+        assertThat(futures.get(1).get(10, TimeUnit.SECONDS).getId()).isEqualTo("0");
+    }
+
+    @Test
+    public void testSaveWithBulkIndexer() throws Exception {
+        try (BulkIndexer bulkIndexer = BulkIndexer.builder(asyncClient, INDEX)
+                .maxDocuments(50)
+                .flushInterval(Duration.ofMillis(100))
+                .build()) {
+            final ProductServiceImpl service = new ProductServiceImpl(INDEX, client, bulkIndexer);
+
+            final List<Product> products = createProducts(200);
+            products.get(0).setId(null);
+            products.parallelStream().forEach(product -> {
+                try {
+                    service.save(product);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            assertThat(products).extracting("id").doesNotContainNull();
+        }
+
+        client.indices().refresh(b -> b.index(INDEX));
+        assertThat(client.count(b -> b.index(INDEX)).count()).isEqualTo(200);
+    }
+
+    @Test
+    public void testSaveAndSearchProductBatch() throws Exception {
+        final ProductBatch batch = ProductBatch.of(createProducts(2500));
+        batch.setId(0, null);
+        productService.save(batch);
+        assertThat(batch.getId(0)).isNotNull();
+
+        client.indices().refresh(b -> b.index(INDEX));
+        assertThat(client.count(b -> b.index(INDEX)).count()).isEqualTo(2500);
+
+        final ProductBatch results = new ProductBatch();
+        assertThat(productService.search("Name", 0, 100, results)).isEqualTo(100);
+        assertThat(productService.search("Name", 100, 100, results)).isEqualTo(100);
+        assertThat(results.size()).isEqualTo(200);
+        final Product product = productService.findById(results.getId(150));
+        assertThat(results.getName(150)).isEqualTo(product.getName());
+        assertThat(results.getPrice(150)).isEqualTo(product.getPrice());
+    }
+
+    @Test
+    public void testSearchBatch() throws Exception {
+        productService.save(createProducts(21));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final List<Page<Product>> pages = productService.searchBatch(List.of(PageRequest.of("name"),
+                PageRequest.of("name", 10, 10), PageRequest.of("9"), PageRequest.of("nothing matches")));
+        assertThat(pages).hasSize(4);
+        assertThat(pages.get(0).get()).hasSize(10);
+        assertThat(pages.get(1).get()).hasSize(10);
+        assertThat(pages.get(1).getFrom()).isEqualTo(10);
+        assertThat(pages.get(2).get()).first().extracting("id").isEqualTo("9");
+        assertThat(pages.get(3)).isSameAs(Page.EMPTY);
+
+        final ProductServiceMetrics metrics = productService.getMetrics();
+        assertThat(metrics.snapshot().get(ProductServiceMetrics.Operation.SEARCH_BATCH).getRequests()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSearchWithPrefetch() throws Exception {
+        productService.save(createProducts(21));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final ProductServiceImpl prefetchingService = ProductServiceImpl.builder(INDEX, client).prefetch(true).build();
+        final Page<Product> page = prefetchingService.search("name");
+        assertThat(page.get()).hasSize(10);
+        assertThat(page.getPrefetched().get()).hasSize(10);
+
+        final Page<Product> secondPage = prefetchingService.next(page);
+        assertThat(secondPage).isSameAs(page.getPrefetched());
+        final Page<Product> thirdPage = prefetchingService.next(secondPage);
+        assertThat(thirdPage.get()).hasSize(1);
+        assertThat(thirdPage.getPrefetched()).isSameAs(Page.EMPTY);
+
+        // the second page was served without a request
+        final MetricsSnapshot snapshot = prefetchingService.getMetrics().snapshot();
+        assertThat(snapshot.get(ProductServiceMetrics.Operation.NEXT).getRequests()).isEqualTo(2);
+        assertThat(snapshot.get(ProductServiceMetrics.Operation.NEXT).getTook().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSearchWithProjection() throws Exception {
+        productService.save(createProducts(21));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final Page<ProductSummary> page = productService.search("name", Projection.summaries());
+        assertThat(page.get()).hasSize(10);
+        final ProductSummary summary = page.get().get(0);
+        final Product product = productService.findById(summary.getId());
+        assertThat(summary.getName()).isEqualTo(product.getName());
+        assertThat(summary.getPrice()).isEqualTo(product.getPrice());
+        assertThat(summary.getStockAvailable()).isEqualTo(product.getStockAvailable());
+
+        final Page<ProductSummary> thirdPage = productService.next(productService.next(page, Projection.summaries()), Projection.summaries());
+        assertThat(thirdPage.get()).hasSize(1);
+
+        final Page<String> ids = productService.search("name", Projection.ids());
+        assertThat(ids.get()).containsExactlyElementsOf(page.get().stream().map(ProductSummary::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSearchWithFacets() throws Exception {
+        productService.save(createProducts(21));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final ProductServiceImpl service = ProductServiceImpl.builder(INDEX, client).facetCache(Duration.ofMinutes(1), 100).build();
+        final FacetedPage page = service.searchWithFacets("name", 5, FacetRequest.categoryPage());
+        assertThat(page.get()).hasSize(5);
+        final Facets facets = page.getFacets();
+        assertThat(facets.getTotal()).isEqualTo(21);
+        assertThat(facets.getPriceHistogram()).extracting(Facets.HistogramBucket::getDocCount).containsExactly(9L, 8L, 4L);
+        assertThat(facets.getPriceHistogram().get(0).getStockAverage()).isEqualTo(40.0);
+        assertThat(facets.getStockRanges()).extracting(Facets.RangeBucket::getDocCount).containsExactly(1L, 0L, 20L);
+
+        // served from the facet cache, only the hits are searched
+        final FacetedPage facetsOnly = service.searchWithFacets("  NAME ", 0, FacetRequest.categoryPage());
+        assertThat(facetsOnly.get()).isEmpty();
+        assertThat(facetsOnly.getFacets()).isSameAs(facets);
+        assertThat(service.searchWithFacets("name", 10, FacetRequest.categoryPage()).get()).hasSize(10);
+        assertThat(service.facetCacheStats().getHits()).isEqualTo(2);
+        assertThat(service.facetCacheStats().getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSaveWithSpool(@TempDir Path directory) throws Exception {
+        try (ProductSpool spool = ProductSpool.builder(client, INDEX, directory).batchSize(10).build()) {
+            final ProductServiceImpl service = ProductServiceImpl.builder(INDEX, client).spool(spool).build();
+            final List<Product> products = createProducts(25);
+            products.get(0).setId(null);
+            service.save(products);
+            assertThat(products.get(0).getId()).isNotNull();
+
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(30))).isTrue();
+            client.indices().refresh(b -> b.index(INDEX));
+            assertThat(client.count(b -> b.index(INDEX)).count()).isEqualTo(25);
+            assertThat(service.findById(products.get(0).getId()).getName()).isEqualTo(products.get(0).getName());
+            final SpoolStats stats = spool.stats();
+            assertThat(stats.getReplayed()).isEqualTo(25);
+            assertThat(stats.getPendingRecords()).isEqualTo(0);
+            assertThat(stats.getSegments()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testCatalogSync() throws Exception {
+        final List<Product> products = createProducts(25);
+        productService.save(products);
+        final CatalogSync sync = CatalogSync.builder(client, INDEX).batchSize(10).build();
+        final List<VersionedProduct> changes = new ArrayList<>();
+
+        assertThat(sync.sync(changes::addAll)).isEqualTo(25);
+        assertThat(changes).extracting(VersionedProduct::getSeqNo).isSorted().doesNotHaveDuplicates();
+        final SyncCheckpoint checkpoint = sync.getCheckpoint();
+        assertThat(checkpoint.getIndexUuid()).isNotNull();
+
+        // nothing changed, nothing is read
+        changes.clear();
+        assertThat(sync.sync(changes::addAll)).isEqualTo(0);
+        assertThat(sync.getCheckpoint()).isEqualTo(checkpoint);
+
+        products.get(3).setPrice(999);
+        products.get(7).setPrice(999);
+        productService.save(List.of(products.get(3), products.get(7)));
+        // a new sync continues from the persisted checkpoint
+        final CatalogSync resumed = CatalogSync.builder(client, INDEX).checkpoint(checkpoint).build();
+        assertThat(resumed.sync(changes::addAll)).isEqualTo(2);
+        assertThat(changes).extracting(change -> change.getProduct().getId()).containsExactlyInAnyOrder("3", "7");
+        assertThat(changes).extracting(change -> change.getProduct().getPrice()).containsOnly(999.0);
+    }
+
+    @Test
+    public void testSaveWithSeqNo() throws Exception {
+        productService.save(createProducts(1));
+        final VersionedProduct first = productService.findVersionedById("0");
+        final VersionedProduct second = productService.findVersionedById("0");
+
+        first.getProduct().setName("first writer");
+        final VersionedProduct saved = productService.save(first);
+        assertThat(saved.getSeqNo()).isGreaterThan(first.getSeqNo());
+
+        second.getProduct().setName("second writer");
+        assertThatThrownBy(() -> productService.save(second))
+                .isInstanceOfSatisfying(ElasticsearchException.class, e -> assertThat(e.status()).isEqualTo(409));
+        assertThat(productService.findById("0").getName()).isEqualTo("first writer");
+
+        saved.getProduct().setName("first writer again");
+        productService.save(saved);
+        assertThat(productService.findById("0").getName()).isEqualTo("first writer again");
+    }
+
+    @Test
+    public void testAutocomplete() throws Exception {
+        final ProductServiceImpl service = ProductServiceImpl.builder(INDEX, client)
+                .autocomplete(ProductAutocomplete.builder().build())
+                .build();
+        service.save(createProducts(20));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        final AutocompleteStats stats = service.rebuildAutocomplete();
+        assertThat(stats.getProducts()).isEqualTo(20);
+        assertThat(stats.getMemoryBytes()).isPositive();
+        assertThat(service.suggest("name of 1", 3, ProductAutocomplete.Ranking.STOCK))
+                .extracting(ProductSummary::getId).containsExactly("19", "18", "17");
+
+        // saved products are suggested right away, without a refresh
+        final Product product = createProducts(1).get(0);
+        product.setId("new");
+        product.setName("Brand new product");
+        service.save(product);
+        assertThat(service.suggest("bra", 10, ProductAutocomplete.Ranking.PRICE)).extracting(ProductSummary::getId).containsExactly("new");
+    }
+
+    @Test
+    public void testProductIndexManagerBulkLoad() throws Exception {
+        final ProductIndexManager manager = ProductIndexManager.builder(client, INDEX).replicas(0).build();
+        manager.createIfMissing();
+        assertThat(client.indices().getMapping(b -> b.index(INDEX)).result().get(INDEX).mappings().properties().get("price").isScaledFloat())
+                .isTrue();
+
+        try (ProductIndexManager.BulkLoad bulkLoad = manager.startBulkLoad()) {
+            final IndexSettings settings = client.indices().getSettings(b -> b.index(bulkLoad.getIndex())).result().get(INDEX).settings().index();
+            assertThat(settings.refreshInterval().time()).isEqualTo("-1");
+            productService.save(createProducts(100));
+        }
+
+        final IndexSettings settings = client.indices().getSettings(b -> b.index(INDEX)).result().get(INDEX).settings().index();
+        assertThat(settings.refreshInterval().time()).isEqualTo("1000ms");
+        assertThat(settings.numberOfReplicas()).isEqualTo("0");
+        // refreshed when the bulk load finished
+        assertThat(client.count(b -> b.index(INDEX)).count()).isEqualTo(100);
+    }
+
+    @Test
+    public void testProductIndexManagerReindexSwapsAlias() throws Exception {
+        // the index deletion after each test requires the index to exist
+        productService.save(createProducts(1));
+        // the concrete index cannot be turned into an alias, checked before anything is loaded
+        final ProductIndexManager concrete = ProductIndexManager.builder(client, INDEX).build();
+        assertThatThrownBy(() -> concrete.reindex(index -> fail("must not load [" + index + "]")))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(client.indices().get(b -> b.index(INDEX + "-*")).result()).isEmpty();
+
+        final String alias = "products_alias";
+        final ProductIndexManager manager = ProductIndexManager.builder(client, alias).replicas(0).build();
+        final String first = manager.reindex(index -> new ProductServiceImpl(index, client).save(createProducts(10)));
+        final ProductServiceImpl aliasService = new ProductServiceImpl(alias, client);
+        assertThat(aliasService.search("name").get()).hasSize(10);
+
+        final String second = manager.reindex(index -> new ProductServiceImpl(index, client).save(createProducts(5)));
+        try {
+            assertThat(manager.getAliasedIndices()).containsExactly(second);
+            assertThat(client.indices().exists(b -> b.index(first)).value()).isFalse();
+            assertThat(aliasService.search("name").get()).hasSize(5);
+
+            // a failed load leaves the alias untouched
+            assertThatThrownBy(() -> manager.reindex(index -> {
+                throw new IOException("load failed");
+            })).hasMessage("load failed");
+            assertThat(manager.getAliasedIndices()).containsExactly(second);
+        } finally {
+            client.indices().delete(b -> b.index(second));
+        }
+    }
+
+    @Test
+    public void testPartialUpdates() throws Exception {
+        productService.save(createProducts(2));
+        final Product product = new Product();
+        product.setId("new");
+        product.setName("New product");
+        product.setStockAvailable(5);
+
+        productService.update(List.of(
+                ProductUpdate.setPrice("0", 99.5),
+                ProductUpdate.decrementStock("0", 1),
+                ProductUpdate.decrementStock("0", 2),
+                ProductUpdate.incrementStock("1", 10),
+                ProductUpdate.upsert(product),
+                ProductUpdate.decrementStock("new", 1)));
+
+        assertThat(productService.findById("0").getPrice()).isEqualTo(99.5);
+        assertThat(productService.findById("0").getStockAvailable()).isEqualTo(-3);
+        assertThat(productService.findById("1").getStockAvailable()).isEqualTo(20);
+        assertThat(productService.findById("new").getName()).isEqualTo("New product");
+        assertThat(productService.findById("new").getStockAvailable()).isEqualTo(4);
+
+        assertThatThrownBy(() -> productService.update(ProductUpdate.setPrice("missing", 1)))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("[missing], status [404]");
+    }
+
+    @Test
+    public void testProductUpdaterCoalescesUpdates() throws Exception {
+        productService.save(createProducts(10));
+        try (ProductUpdater updater = ProductUpdater.builder(asyncClient, INDEX)
+                .flushInterval(Duration.ofMillis(200))
+                .metrics(metrics)
+                .build()) {
+            final ProductServiceImpl service = ProductServiceImpl.builder(INDEX, client).updater(updater).metrics(metrics).build();
+            final long bulkItems = metrics.snapshot().getBulkItems();
+
+            IntStream.range(0, 1000).parallel().forEach(i -> {
+                try {
+                    service.update(ProductUpdate.decrementStock(String.valueOf(i % 10), 1));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            // updates of the same product within one window end up in a single operation
+            assertThat(metrics.snapshot().getBulkItems() - bulkItems).isLessThan(1000);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(productService.findById(String.valueOf(i)).getStockAvailable()).isEqualTo(i * 10 - 100);
+        }
+    }
+
+    @Test
+    public void testHedgedRequests() throws Exception {
+        productService.save(createProducts(10));
+        client.indices().refresh(b -> b.index(INDEX));
+
+        try (RequestHedger hedger = RequestHedger.builder(nodeSelector)
+                .minimumSamples(10)
+                .minimumBudget(Duration.ofMillis(1))
+                .budgetRefreshInterval(Duration.ZERO)
+                .build()) {
+            final ProductServiceImpl service = ProductServiceImpl.builder(INDEX, client).hedger(hedger).build();
+            for (int i = 0; i < 50; i++) {
+                assertThat(service.findById(String.valueOf(i % 10)).getName()).isEqualTo("Name of " + (i % 10) + " product");
+                assertThat(service.search("Name").get()).hasSize(10);
+            }
+            assertThat(service.findById("missing")).isNull();
+
+            assertThat(hedger.getRequests()).isEqualTo(101);
+            assertThat(hedger.getBudget(ProductServiceMetrics.Operation.SEARCH)).isPositive();
+        }
+        assertThat(nodeSelector.getLatencies()).isNotEmpty();
+    }
+
     private List<Product> createProducts(int count) {
         List<Product> products = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
@@ -0,0 +1,110 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FacetTests {
+
+    // aggregations are returned with typed keys by the client
+    private static final String RESPONSE = "{\"took\":3,\"timed_out\":false," +
+            "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+            "\"hits\":{\"total\":{\"value\":5,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}," +
+            "\"aggregations\":{" +
+            "\"histogram#price_histogram\":{\"buckets\":[" +
+            "{\"key\":0.0,\"doc_count\":3,\"avg#stock_average\":{\"value\":4.0}}," +
+            "{\"key\":10.0,\"doc_count\":0,\"avg#stock_average\":{\"value\":null}}," +
+            "{\"key\":20.0,\"doc_count\":2,\"avg#stock_average\":{\"value\":1.5}}]}," +
+            "\"range#stock_ranges\":{\"buckets\":[" +
+            "{\"key\":\"*-1.0\",\"to\":1.0,\"doc_count\":1}," +
+            "{\"key\":\"1.0-10.0\",\"from\":1.0,\"to\":10.0,\"doc_count\":3}," +
+            "{\"key\":\"10.0-*\",\"from\":10.0,\"doc_count\":1}]}}}";
+
+    private final JsonpMapper mapper = new JacksonJsonpMapper();
+
+    @Test
+    public void testFacetSearchRequest() {
+        final FacetRequest facets = FacetRequest.builder().priceHistogram(10).priceRanges(10, 50).stockRanges(1, 10).build();
+
+        final String json = toJson(ProductServiceImpl.createFacetSearchRequest("products", "shirt", 0, facets));
+        assertThat(json)
+                .contains("\"size\":0")
+                .contains("\"track_total_hits\":true")
+                .contains("\"price_histogram\":{\"aggregations\":{\"stock_average\":{\"avg\":{\"field\":\"stock_available\"}}}," +
+                        "\"histogram\":{\"field\":\"price\",\"interval\":10.0}}")
+                .contains("\"price_ranges\":{\"range\":{\"field\":\"price\",\"ranges\":[{\"to\":\"10.0\"}," +
+                        "{\"from\":\"10.0\",\"to\":\"50.0\"},{\"from\":\"50.0\"}]}}")
+                .contains("\"stock_ranges\":{\"range\":{\"field\":\"stock_available\",\"ranges\":[{\"to\":\"1.0\"}," +
+                        "{\"from\":\"1.0\",\"to\":\"10.0\"},{\"from\":\"10.0\"}]}}");
+        assertThat(ProductServiceImpl.createFacetSearchRequest("products", "shirt", 0, facets).requestCache()).isTrue();
+        assertThat(ProductServiceImpl.createFacetSearchRequest("products", "shirt", 20, facets).requestCache()).isNull();
+
+        final String histogramOnly = toJson(ProductServiceImpl.createFacetSearchRequest("products", "shirt", 10,
+                FacetRequest.builder().priceHistogram(5).build()));
+        assertThat(histogramOnly).contains("\"size\":10").doesNotContain("price_ranges").doesNotContain("stock_ranges");
+    }
+
+    @Test
+    public void testCreateFacets() {
+        final JsonpDeserializer<SearchResponse<Product>> deserializer =
+                SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(Product.class));
+        final SearchResponse<Product> response;
+        try (JsonParser parser = mapper.jsonProvider().createParser(new StringReader(RESPONSE))) {
+            response = deserializer.deserialize(parser, mapper);
+        }
+
+        final Facets facets = ProductServiceImpl.createFacets(response, FacetRequest.categoryPage());
+        assertThat(facets.getTotal()).isEqualTo(5);
+        assertThat(facets.getPriceHistogram()).hasSize(3);
+        assertThat(facets.getPriceHistogram().get(0).getKey()).isEqualTo(0.0);
+        assertThat(facets.getPriceHistogram().get(0).getDocCount()).isEqualTo(3);
+        assertThat(facets.getPriceHistogram().get(0).getStockAverage()).isEqualTo(4.0);
+        assertThat(facets.getPriceHistogram().get(1).getDocCount()).isEqualTo(0);
+        assertThat(facets.getPriceHistogram().get(2).getStockAverage()).isEqualTo(1.5);
+        assertThat(facets.getPriceRanges()).isEmpty();
+
+        assertThat(facets.getStockRanges()).hasSize(3);
+        assertThat(facets.getStockRanges().get(0).getFrom()).isNull();
+        assertThat(facets.getStockRanges().get(0).getTo()).isEqualTo(1.0);
+        assertThat(facets.getStockRanges().get(0).getDocCount()).isEqualTo(1);
+        assertThat(facets.getStockRanges().get(1).getDocCount()).isEqualTo(3);
+        assertThat(facets.getStockRanges().get(2).getFrom()).isEqualTo(10.0);
+        assertThat(facets.getStockRanges().get(2).getTo()).isNull();
+    }
+
+    @Test
+    public void testFacetCacheKey() {
+        assertThat(ProductServiceImpl.normalizeQuery("  Red   Shirt\t")).isEqualTo("red shirt");
+        assertThat(new ProductServiceImpl.FacetKey(ProductServiceImpl.normalizeQuery("Red Shirt"), FacetRequest.categoryPage()))
+                .isEqualTo(new ProductServiceImpl.FacetKey(ProductServiceImpl.normalizeQuery("red  shirt"), FacetRequest.categoryPage()));
+        assertThat(FacetRequest.builder().stockRanges(1, 10).build())
+                .isNotEqualTo(FacetRequest.builder().stockRanges(1, 20).build());
+    }
+
+    @Test
+    public void testBoundariesMustBeAscending() {
+        assertThatThrownBy(() -> FacetRequest.builder().priceRanges(50, 10))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FacetRequest.builder().priceHistogram(0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private String toJson(JsonpSerializable value) {
+        final StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            value.serialize(generator, mapper);
+        }
+        return writer.toString();
+    }
+}
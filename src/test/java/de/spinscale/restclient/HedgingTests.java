@@ -0,0 +1,156 @@
+package de.spinscale.restclient;
+
+import de.spinscale.restclient.ProductServiceMetrics.Operation;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HedgingTests {
+
+    private static final HttpHost FAST = new HttpHost("fast", 9200);
+    private static final HttpHost MEDIUM = new HttpHost("medium", 9200);
+    private static final HttpHost SLOW = new HttpHost("slow", 9200);
+
+    @Test
+    public void testSelectorPrefersFastNodes() {
+        final AdaptiveNodeSelector selector = AdaptiveNodeSelector.builder().explorationRate(0).tolerance(1.5).build();
+        // nodes without measurements get requests first
+        assertThat(select(selector)).containsExactly(FAST, MEDIUM, SLOW);
+
+        selector.record(FAST, TimeUnit.MILLISECONDS.toNanos(10));
+        selector.record(MEDIUM, TimeUnit.MILLISECONDS.toNanos(14));
+        selector.record(SLOW, TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(select(selector)).containsExactly(FAST, MEDIUM);
+        assertThat(selector.getLatencies()).containsEntry(SLOW, TimeUnit.MILLISECONDS.toNanos(100));
+
+        // the moving average follows the slow node getting faster
+        for (int i = 0; i < 20; i++) {
+            selector.record(SLOW, TimeUnit.MILLISECONDS.toNanos(12));
+        }
+        assertThat(select(selector)).containsExactly(FAST, MEDIUM, SLOW);
+
+        selector.recordFailure(SLOW);
+        assertThat(select(selector)).containsExactly(FAST, MEDIUM);
+    }
+
+    @Test
+    public void testSelectorKeepsNodesThatAllFailed() {
+        final AdaptiveNodeSelector selector = AdaptiveNodeSelector.builder().explorationRate(0).build();
+        selector.recordFailure(FAST);
+        selector.recordFailure(MEDIUM);
+        selector.recordFailure(SLOW);
+        assertThat(select(selector)).containsExactly(FAST, MEDIUM, SLOW);
+    }
+
+    @Test
+    public void testPinnedSelectsSingleNode() {
+        final AdaptiveNodeSelector selector = AdaptiveNodeSelector.builder().explorationRate(0).build();
+        selector.record(FAST, 10);
+        selector.record(MEDIUM, 20);
+        selector.record(SLOW, 30);
+
+        final AdaptiveNodeSelector.Pinned<List<HttpHost>> pinned = selector.pinned(null, () -> select(selector));
+        assertThat(pinned.result()).containsExactly(FAST);
+        assertThat(pinned.host()).isEqualTo(FAST);
+
+        assertThat(selector.pinned(Set.of(FAST), () -> select(selector)).result()).containsExactly(MEDIUM);
+        assertThat(selector.pinned(Set.of(FAST, MEDIUM, SLOW), () -> select(selector)).result()).containsExactly(FAST);
+        for (int i = 0; i < 5; i++) {
+            selector.record(MEDIUM, 10);
+        }
+        // outside of pinned calls all nodes within the tolerance are kept
+        assertThat(select(selector)).containsExactly(FAST, MEDIUM);
+    }
+
+    @Test
+    public void testNoHedgingWithoutEnoughSamples() throws Exception {
+        try (RequestHedger hedger = hedger(100)) {
+            final CompletableFuture<String> slow = new CompletableFuture<>();
+            final CompletableFuture<String> result = hedger.execute(Operation.SEARCH, () -> slow);
+            Thread.sleep(50);
+            assertThat(result).isNotDone();
+            assertThat(hedger.getHedgedRequests()).isZero();
+            slow.complete("primary");
+            assertThat(result.get()).isEqualTo("primary");
+            assertThat(hedger.getBudget(Operation.SEARCH)).isZero();
+        }
+    }
+
+    @Test
+    public void testHedgeWinsAfterBudget() throws Exception {
+        try (RequestHedger hedger = hedger(10)) {
+            warmUp(hedger);
+            assertThat(hedger.getBudget(Operation.SEARCH)).isEqualTo(Duration.ofMillis(20));
+
+            final CompletableFuture<String> slow = new CompletableFuture<>();
+            final AtomicInteger calls = new AtomicInteger();
+            final CompletableFuture<String> result = hedger.execute(Operation.SEARCH,
+                    () -> calls.incrementAndGet() == 1 ? slow : CompletableFuture.completedFuture("hedge"));
+
+            assertThat(result.get()).isEqualTo("hedge");
+            assertThat(calls.get()).isEqualTo(2);
+            assertThat(slow).isCancelled();
+            assertThat(hedger.getHedgedRequests()).isEqualTo(1);
+            assertThat(hedger.getHedgeWins()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testRetryableFailureHedgesImmediately() throws Exception {
+        try (RequestHedger hedger = hedger(10)) {
+            warmUp(hedger);
+
+            final AtomicInteger calls = new AtomicInteger();
+            final CompletableFuture<String> result = hedger.execute(Operation.FIND_BY_ID, () -> calls.incrementAndGet() == 1
+                    ? CompletableFuture.failedFuture(new IOException("connection reset"))
+                    : CompletableFuture.completedFuture("hedge"));
+            assertThat(result.get()).isEqualTo("hedge");
+
+            // both attempts failed
+            final CompletableFuture<String> failed = hedger.execute(Operation.FIND_BY_ID,
+                    () -> CompletableFuture.failedFuture(new IOException("connection reset")));
+            assertThatThrownBy(failed::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(IOException.class);
+
+            final CompletableFuture<String> notRetryable = hedger.execute(Operation.FIND_BY_ID,
+                    () -> CompletableFuture.failedFuture(new IllegalArgumentException("bad request")));
+            assertThatThrownBy(notRetryable::get).hasCauseInstanceOf(IllegalArgumentException.class);
+            assertThat(hedger.getHedgedRequests()).isEqualTo(2);
+        }
+    }
+
+    private static RequestHedger hedger(int minimumSamples) {
+        final AdaptiveNodeSelector selector = AdaptiveNodeSelector.builder().build();
+        return RequestHedger.builder(selector)
+                .minimumSamples(minimumSamples)
+                .minimumBudget(Duration.ofMillis(20))
+                .budgetRefreshInterval(Duration.ZERO)
+                .build();
+    }
+
+    private static void warmUp(RequestHedger hedger) throws Exception {
+        for (Operation operation : List.of(Operation.SEARCH, Operation.FIND_BY_ID)) {
+            for (int i = 0; i < 10; i++) {
+                hedger.execute(operation, () -> CompletableFuture.completedFuture("warm up")).get();
+            }
+        }
+    }
+
+    private static List<HttpHost> select(AdaptiveNodeSelector selector) {
+        final List<Node> nodes = new ArrayList<>(List.of(new Node(FAST), new Node(MEDIUM), new Node(SLOW)));
+        selector.select(nodes);
+        return nodes.stream().map(Node::getHost).toList();
+    }
+}
@@ -0,0 +1,71 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PointInTimeScanTests {
+
+    private static final Pattern PIT_ID = Pattern.compile("\"id\":\"([^\"]+)\"");
+    private static final int PRODUCTS = 5;
+
+    private StubElasticsearch stub;
+    private ElasticsearchClient client;
+    // the point in time ids sent with every search and close request
+    private final List<String> searchedIds = new CopyOnWriteArrayList<>();
+    private final List<String> closedIds = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        stub = StubElasticsearch.start(request -> {
+            final Matcher matcher = PIT_ID.matcher(request.bodyAsString());
+            final String id = matcher.find() ? matcher.group(1) : null;
+            if (request.path().endsWith("/_pit") && "POST".equals(request.method())) {
+                return StubElasticsearch.Response.ok("{\"id\":\"pit-0\"}");
+            }
+            if (request.path().equals("/_pit")) {
+                closedIds.add(id);
+                return StubElasticsearch.Response.ok("{\"succeeded\":true,\"num_freed\":1}");
+            }
+            // every response returns a new point in time id, two products per page
+            final int page = searchedIds.size();
+            searchedIds.add(id);
+            final String hits = Stream.of(page * 2, page * 2 + 1)
+                    .filter(product -> product < PRODUCTS)
+                    .map(product -> "{\"_index\":\"products\",\"_id\":\"" + product + "\",\"_source\":{\"name\":\"product " +
+                            product + "\"},\"sort\":[" + product + "]}")
+                    .collect(Collectors.joining(","));
+            return StubElasticsearch.Response.ok("{\"took\":1,\"timed_out\":false,\"pit_id\":\"pit-" + (page + 1) + "\"," +
+                    "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"hits\":{\"hits\":[" + hits + "]}}");
+        });
+        client = stub.createClient();
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        stub.close();
+    }
+
+    @Test
+    public void testContinuesWithLatestPointInTimeId() throws Exception {
+        final PointInTimeScan scan = new PointInTimeScan(client, "products", null, 2, Duration.ofMinutes(1));
+        try (Stream<Product> products = scan.stream(1)) {
+            assertThat(products.map(Product::getId)).containsExactly("0", "1", "2", "3", "4");
+        }
+
+        assertThat(searchedIds).containsExactly("pit-0", "pit-1", "pit-2");
+        assertThat(closedIds).containsExactly("pit-3");
+    }
+}
@@ -0,0 +1,43 @@
+package de.spinscale.restclient;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PrefetchTests {
+
+    private static final String PAGE = "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+            "\"hits\":{\"total\":{\"value\":20,\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":[" +
+            "{\"_index\":\"products\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"id\":\"1\",\"name\":\"Red Shirt\"}}]},\"status\":200}";
+    private static final String RESULT_WINDOW_TOO_LARGE = "{\"error\":{\"type\":\"illegal_argument_exception\"," +
+            "\"reason\":\"Result window is too large\"},\"status\":400}";
+
+    @Test
+    public void testFailedPrefetchIsIgnored() throws Exception {
+        try (StubElasticsearch stub = StubElasticsearch.start(request -> request.path().endsWith("/_msearch")
+                ? StubElasticsearch.Response.ok("{\"took\":1,\"responses\":[" + PAGE + "," + RESULT_WINDOW_TOO_LARGE + "]}")
+                : StubElasticsearch.Response.ok(PAGE))) {
+            final ProductServiceImpl productService = ProductServiceImpl.builder("products", stub.createClient()).prefetch(true).build();
+
+            final Page<Product> page = productService.search("shirt");
+            assertThat(page.get()).extracting(Product::getId).containsExactly("1");
+            assertThat(page.getPrefetched()).isNull();
+
+            // the next page is searched once it is asked for
+            final Page<Product> next = productService.next(page);
+            assertThat(next.get()).extracting(Product::getId).containsExactly("1");
+            assertThat(stub.getRequests()).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testFailedPageFailsSearch() throws Exception {
+        try (StubElasticsearch stub = StubElasticsearch.start(request ->
+                StubElasticsearch.Response.ok("{\"took\":1,\"responses\":[" + RESULT_WINDOW_TOO_LARGE + "," + PAGE + "]}"))) {
+            final ProductServiceImpl productService = ProductServiceImpl.builder("products", stub.createClient()).prefetch(true).build();
+
+            assertThatThrownBy(() -> productService.search("shirt")).hasMessageContaining("Result window is too large");
+        }
+    }
+}
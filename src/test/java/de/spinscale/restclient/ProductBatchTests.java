@@ -0,0 +1,105 @@
+package de.spinscale.restclient;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProductBatchTests {
+
+    @Test
+    public void testAddAndGet() {
+        final ProductBatch batch = new ProductBatch(1);
+        for (int i = 0; i < 100; i++) {
+            batch.add(i % 2 == 0 ? "id-" + i : null, "name " + i, i % 3 == 0 ? null : "description \u00fc\u20ac " + i, i * 1.5, i);
+        }
+
+        assertThat(batch.size()).isEqualTo(100);
+        assertThat(batch.getId(10)).isEqualTo("id-10");
+        assertThat(batch.getId(11)).isNull();
+        assertThat(batch.getName(42)).isEqualTo("name 42");
+        assertThat(batch.getDescription(42)).isNull();
+        assertThat(batch.getDescription(43)).isEqualTo("description \u00fc\u20ac 43");
+        assertThat(batch.getPrice(99)).isEqualTo(148.5);
+        assertThat(batch.getStockAvailable(99)).isEqualTo(99);
+
+        batch.setId(11, "generated");
+        batch.setPrice(11, 9.99);
+        batch.setStockAvailable(11, -1);
+        final Product product = batch.get(11);
+        assertThat(product.getId()).isEqualTo("generated");
+        assertThat(product.getName()).isEqualTo("name 11");
+        assertThat(product.getPrice()).isEqualTo(9.99);
+        assertThat(product.getStockAvailable()).isEqualTo(-1);
+
+        assertThatThrownBy(() -> batch.getName(100)).isInstanceOf(IndexOutOfBoundsException.class);
+
+        final long memoryUsage = batch.memoryUsage();
+        batch.clear();
+        assertThat(batch.size()).isZero();
+        batch.add(null, "reused", null, 1, 1);
+        assertThat(batch.getName(0)).isEqualTo("reused");
+        assertThat(batch.memoryUsage()).isEqualTo(memoryUsage);
+    }
+
+    @Test
+    public void testBulkBodyMatchesCodec() throws Exception {
+        final List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final Product product = new Product();
+            product.setId(i % 2 == 0 ? String.valueOf(i) : null);
+            product.setName("name \"" + i + "\"");
+            product.setDescription(i % 3 == 0 ? null : "\u00fcber " + i);
+            product.setPrice(i / 3.0);
+            product.setStockAvailable(i);
+            products.add(product);
+        }
+        final NdjsonBulkWriter<Product> writer = new NdjsonBulkWriter<>(null, new ProductCodec());
+
+        final ByteArrayOutputStream fromProducts = new ByteArrayOutputStream();
+        writer.writeBody(products, fromProducts);
+        final ByteArrayOutputStream fromBatch = new ByteArrayOutputStream();
+        writer.writeBody(ProductBatch.of(products), fromBatch);
+        assertThat(fromBatch.toString(StandardCharsets.UTF_8)).isEqualTo(fromProducts.toString(StandardCharsets.UTF_8));
+
+        final ByteArrayOutputStream fromRange = new ByteArrayOutputStream();
+        writer.writeBody(ProductBatch.of(products).range(8, 10), fromRange);
+        final ByteArrayOutputStream fromSubList = new ByteArrayOutputStream();
+        writer.writeBody(products.subList(8, 10), fromSubList);
+        assertThat(fromRange.toString(StandardCharsets.UTF_8)).isEqualTo(fromSubList.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadSearchResponse() throws Exception {
+        final String response = "{\"took\":3,\"timed_out\":false,\"_shards\":{\"total\":1}," +
+                "\"hits\":{\"total\":{\"value\":2,\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":[" +
+                "{\"_index\":\"products\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"id\":\"ignored\",\"name\":\"\u00fcber \uD83D\uDE00\"," +
+                "\"tags\":[\"a\"],\"price\":1.5,\"stock_available\":7}}," +
+                "{\"_index\":\"products\",\"_id\":\"2\",\"_score\":0.5,\"_source\":{\"name\":\"second\",\"description\":null,\"price\":2}," +
+                "\"sort\":[1]}]}}";
+
+        final ProductBatch batch = new ProductBatch();
+        batch.add("0", "existing", null, 0, 0);
+        try (JsonParser parser = new JsonFactory().createParser(response)) {
+            assertThat(ProductServiceImpl.readSearchResponse(parser, batch)).isEqualTo(3);
+        }
+
+        assertThat(batch.size()).isEqualTo(3);
+        assertThat(batch.getId(1)).isEqualTo("1");
+        assertThat(batch.getName(1)).isEqualTo("\u00fcber \uD83D\uDE00");
+        assertThat(batch.getDescription(1)).isNull();
+        assertThat(batch.getPrice(1)).isEqualTo(1.5);
+        assertThat(batch.getStockAvailable(1)).isEqualTo(7);
+        assertThat(batch.getId(2)).isEqualTo("2");
+        assertThat(batch.getName(2)).isEqualTo("second");
+        assertThat(batch.getPrice(2)).isEqualTo(2);
+        assertThat(batch.getStockAvailable(2)).isZero();
+    }
+}
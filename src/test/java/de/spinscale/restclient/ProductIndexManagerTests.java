@@ -0,0 +1,53 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProductIndexManagerTests {
+
+    private final JsonpMapper mapper = new JacksonJsonpMapper();
+
+    @Test
+    public void testCreateIndexRequest() {
+        final ProductIndexManager manager = ProductIndexManager.builder(null, "products")
+                .shards(3)
+                .replicas(2)
+                .refreshInterval(Duration.ofSeconds(5))
+                .build();
+
+        final String json = toJson(manager.createIndexRequest("products-1"));
+        assertThat(json)
+                .contains("\"number_of_shards\":\"3\"")
+                .contains("\"number_of_replicas\":\"2\"")
+                .contains("\"refresh_interval\":\"5000ms\"")
+                .contains("\"dynamic\":false")
+                .contains("\"name\":{\"type\":\"text\"}")
+                .contains("\"description\":{\"type\":\"text\"}")
+                .contains("\"price\":{\"type\":\"scaled_float\",\"scaling_factor\":100.0}")
+                .contains("\"stock_available\":{\"type\":\"integer\"}");
+    }
+
+    @Test
+    public void testSearchesAreScopedToIndex() {
+        assertThat(ProductServiceImpl.createSearchRequest("products", "shirt", 0, 10).index()).containsExactly("products");
+        final Page<Product> page = new Page<>(List.of(), "shirt", 0, 10);
+        assertThat(ProductServiceImpl.createNextRequest("products", page).index()).containsExactly("products");
+    }
+
+    private String toJson(JsonpSerializable value) {
+        final StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            value.serialize(generator, mapper);
+        }
+        return writer.toString();
+    }
+}
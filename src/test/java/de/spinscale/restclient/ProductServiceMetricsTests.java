@@ -0,0 +1,71 @@
+package de.spinscale.restclient;
+
+import de.spinscale.restclient.ProductServiceMetrics.Operation;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class ProductServiceMetricsTests {
+
+    @Test
+    public void testHistogramBucketsRoundTrip() {
+        long previousIndex = -1;
+        for (long value = 0; value < 1_000_000; value += 7) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertThat(index).isGreaterThanOrEqualTo((int) previousIndex);
+            assertThat(LatencyHistogram.highestValue(index)).isGreaterThanOrEqualTo(value);
+            // relative error stays below 1/64
+            assertThat((double) LatencyHistogram.highestValue(index)).isCloseTo(value, within(value / 64.0 + 1));
+            previousIndex = index;
+        }
+        assertThat(LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE)).isEqualTo(2239);
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(10_000);
+        assertThat(snapshot.getMax()).isEqualTo(TimeUnit.MICROSECONDS.toNanos(10_000));
+        assertThat((double) snapshot.getP50()).isCloseTo(5_000_000, within(5_000_000 * 0.016));
+        assertThat((double) snapshot.getP99()).isCloseTo(9_900_000, within(9_900_000 * 0.016));
+        assertThat((double) snapshot.getP999()).isCloseTo(9_990_000, within(9_990_000 * 0.016));
+        assertThat((double) snapshot.getMean()).isCloseTo(5_000_500, within(1.0));
+
+        histogram.reset();
+        assertThat(histogram.snapshot().getCount()).isZero();
+    }
+
+    @Test
+    public void testRecordAndReport() {
+        final ProductServiceMetrics metrics = new ProductServiceMetrics();
+        metrics.record(Operation.FIND_BY_ID, System.nanoTime(), true);
+        metrics.record(Operation.FIND_BY_ID, System.nanoTime(), false);
+        metrics.recordTook(Operation.SEARCH, 12);
+        metrics.recordBulk(100, 3);
+        metrics.recordBytesSent(1024);
+        metrics.recordBytesReceived(2048);
+
+        final InMemoryMetricsReporter reporter = new InMemoryMetricsReporter();
+        assertThat(reporter.getLatest()).isNull();
+        metrics.reportTo(reporter);
+
+        final MetricsSnapshot snapshot = reporter.getLatest();
+        assertThat(snapshot.get(Operation.FIND_BY_ID).getRequests()).isEqualTo(2);
+        assertThat(snapshot.get(Operation.FIND_BY_ID).getErrors()).isEqualTo(1);
+        assertThat(snapshot.get(Operation.FIND_BY_ID).getLatency().getCount()).isEqualTo(2);
+        assertThat(snapshot.get(Operation.SEARCH).getRequests()).isZero();
+        assertThat(snapshot.get(Operation.SEARCH).getTook().getMax()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(12));
+        assertThat(snapshot.getBulkItems()).isEqualTo(100);
+        assertThat(snapshot.getBulkItemFailures()).isEqualTo(3);
+        assertThat(snapshot.getBytesSent()).isEqualTo(1024);
+        assertThat(snapshot.getBytesReceived()).isEqualTo(2048);
+    }
+}
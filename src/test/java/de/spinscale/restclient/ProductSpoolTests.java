@@ -0,0 +1,188 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProductSpoolTests {
+
+    @TempDir
+    Path directory;
+
+    private final List<String> indexed = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    // thrown for every bulk request, if set
+    private volatile RuntimeException rejection;
+
+    // bulk requests with more products are rejected as too large
+    private volatile int maxProducts = Integer.MAX_VALUE;
+
+    private final ProductSpool.Sink sink = products -> {
+        if (rejection != null) {
+            throw rejection;
+        }
+        if (products.size() > maxProducts) {
+            throw new ElasticsearchException("bulk", ErrorResponse.of(r -> r.status(413)
+                    .error(e -> e.type("content_too_long_exception").reason("request too large"))));
+        }
+        if (failuresLeft.getAndDecrement() > 0) {
+            throw new IOException("cluster unavailable");
+        }
+        products.forEach(product -> indexed.add(product.getId()));
+        return new NdjsonBulkWriter.Result(products.size());
+    };
+
+    @Test
+    public void testProductsAreReplayedInOrder() throws Exception {
+        try (ProductSpool spool = open()) {
+            final List<Product> products = createProducts(25);
+            products.get(3).setId(null);
+            spool.append(products.subList(0, 10));
+            spool.append(products.subList(10, 25));
+
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(10))).isTrue();
+            assertThat(products.get(3).getId()).isNotNull();
+            assertThat(indexed).containsExactlyElementsOf(products.stream().map(Product::getId).collect(Collectors.toList()));
+            assertThat(spool.stats().getReplayed()).isEqualTo(25);
+            assertThat(spool.stats().getAppended()).isEqualTo(25);
+            assertThat(spool.stats().getLag()).isEqualTo(Duration.ZERO);
+        }
+    }
+
+    @Test
+    public void testFailedBatchesAreRetried() throws Exception {
+        failuresLeft.set(3);
+        try (ProductSpool spool = open()) {
+            spool.append(createProducts(5));
+
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(10))).isTrue();
+            assertThat(indexed).containsExactly("0", "1", "2", "3", "4");
+            assertThat(spool.stats().getRetries()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void testPendingProductsSurviveRestart() throws Exception {
+        failuresLeft.set(Integer.MAX_VALUE);
+        try (ProductSpool spool = open()) {
+            spool.append(createProducts(5));
+            assertThat(spool.stats().getPendingRecords()).isEqualTo(5);
+        }
+
+        failuresLeft.set(0);
+        try (ProductSpool spool = open()) {
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(10))).isTrue();
+            assertThat(indexed).containsExactly("0", "1", "2", "3", "4");
+        }
+    }
+
+    @Test
+    public void testRejectedBatchesAreDropped() throws Exception {
+        rejection = new ElasticsearchException("bulk", ErrorResponse.of(r -> r.status(400)
+                .error(e -> e.type("illegal_argument_exception").reason("invalid bulk request"))));
+        try (ProductSpool spool = open()) {
+            spool.append(createProducts(3));
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(10))).isTrue();
+            assertThat(spool.stats().getDropped()).isEqualTo(3);
+            assertThat(spool.stats().getRetries()).isZero();
+
+            rejection = null;
+            spool.append(createProducts(1));
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(10))).isTrue();
+            assertThat(indexed).containsExactly("0");
+        }
+    }
+
+    @Test
+    public void testTooLargeBatchesAreSplit() throws Exception {
+        maxProducts = 1;
+        try (ProductSpool spool = open()) {
+            spool.append(createProducts(6));
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(10))).isTrue();
+            assertThat(indexed).containsExactly("0", "1", "2", "3", "4", "5");
+            assertThat(spool.stats().getDropped()).isZero();
+            assertThat(spool.stats().getRetries()).isZero();
+        }
+    }
+
+    @Test
+    public void testUndecodableRecordsAreQuarantined() throws Exception {
+        final byte[] garbage = "{\"id\":".getBytes(StandardCharsets.UTF_8);
+        try (DiskSpool diskSpool = new DiskSpool(directory, 1024, 16, false, System::currentTimeMillis)) {
+            diskSpool.append(garbage);
+        }
+
+        try (ProductSpool spool = open()) {
+            spool.append(createProducts(2));
+            assertThat(spool.awaitEmpty(Duration.ofSeconds(10))).isTrue();
+            assertThat(indexed).containsExactly("0", "1");
+            assertThat(spool.stats().getDropped()).isEqualTo(1);
+        }
+        assertThat(Files.readAllLines(directory.resolve(ProductSpool.QUARANTINE_FILE)))
+                .containsExactly(Base64.getEncoder().encodeToString(garbage));
+    }
+
+    @Test
+    public void testAwaitReplayed() throws Exception {
+        failuresLeft.set(Integer.MAX_VALUE);
+        try (ProductSpool spool = open()) {
+            spool.append(createProducts(5));
+            assertThat(spool.awaitReplayed(Duration.ofMillis(50))).isFalse();
+
+            failuresLeft.set(0);
+            assertThat(spool.awaitReplayed(Duration.ofSeconds(10))).isTrue();
+            assertThat(indexed).containsExactly("0", "1", "2", "3", "4");
+        }
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        try (ProductSpool spool = open()) {
+            final Product product = createProducts(1).get(0);
+            product.setDescription("\u00fcber \"quoted\"");
+            final Product decoded = spool.decode(spool.encode(product));
+            assertThat(decoded.getId()).isEqualTo(product.getId());
+            assertThat(decoded.getName()).isEqualTo(product.getName());
+            assertThat(decoded.getDescription()).isEqualTo(product.getDescription());
+            assertThat(decoded.getPrice()).isEqualTo(product.getPrice());
+            assertThat(decoded.getStockAvailable()).isEqualTo(product.getStockAvailable());
+        }
+    }
+
+    private ProductSpool open() throws IOException {
+        return ProductSpool.builder(null, "products", directory)
+                .segmentSize(1024)
+                .batchSize(4)
+                .backoff(Duration.ofMillis(1), Duration.ofMillis(10))
+                .sink(sink)
+                .build();
+    }
+
+    private static List<Product> createProducts(int count) {
+        final List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Product product = new Product();
+            product.setId(String.valueOf(i));
+            product.setName("product " + i);
+            product.setPrice(i * 1.5);
+            product.setStockAvailable(i);
+            products.add(product);
+        }
+        return products;
+    }
+}
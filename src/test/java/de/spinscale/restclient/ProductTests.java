@@ -7,6 +7,11 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ProductTests {
@@ -35,4 +40,57 @@ public class ProductTests {
         final String serializedJson = mapper.writeValueAsString(product);
         assertThat(serializedJson).isEqualTo(json);
     }
+
+    @Test
+    public void testProductCodecMatchesObjectMapper() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        final ObjectMapper codecMapper = mapper.copy().registerModule(new CodecModule<>(Product.class, new ProductCodec()));
+
+        final Product product = codecMapper.readValue(json, Product.class);
+        assertThat(product.getName()).isEqualTo("Best name ever");
+        assertThat(product.getPrice()).isEqualTo(123.32);
+        assertThat(product.getStockAvailable()).isEqualTo(123);
+        assertThat(codecMapper.writeValueAsString(product)).isEqualTo(json);
+
+        product.setId("my-id");
+        product.setDescription("with \"quotes\" and \u00fcnicode");
+        assertThat(codecMapper.writeValueAsString(product)).isEqualTo(mapper.writeValueAsString(product));
+
+        // unknown fields are skipped
+        final Product parsed = codecMapper.readValue("{\"tags\":[\"a\",{\"b\":1}],\"name\":\"foo\",\"price\":null}", Product.class);
+        assertThat(parsed.getName()).isEqualTo("foo");
+        assertThat(parsed.getPrice()).isEqualTo(0);
+    }
+
+    @Test
+    public void testNdjsonBulkWriter() throws Exception {
+        final NdjsonBulkWriter<Product> writer = new NdjsonBulkWriter<>(null, new ProductCodec());
+        final Product withId = new Product();
+        withId.setId("1");
+        withId.setName("first");
+        final Product withoutId = new Product();
+        withoutId.setName("second");
+        withoutId.setPrice(1.5);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.writeBody(List.of(withId, withoutId), output);
+        assertThat(output.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "{\"index\":{\"_id\":\"1\"}}\n{\"id\":\"1\",\"name\":\"first\",\"price\":0.0,\"stock_available\":0}\n" +
+                "{\"index\":{}}\n{\"name\":\"second\",\"price\":1.5,\"stock_available\":0}\n");
+
+        final String response = "{\"took\":7,\"errors\":true,\"items\":[" +
+                "{\"index\":{\"_index\":\"products\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1},\"status\":201}}," +
+                "{\"index\":{\"_index\":\"products\",\"_id\":\"abc\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}" +
+                "]}";
+        final NdjsonBulkWriter.Result result = writer.parseResponse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), 2);
+        assertThat(result.getTook()).isEqualTo(7);
+        assertThat(result.getFailures()).isEqualTo(1);
+        assertThat(result.getId(0)).isEqualTo("1");
+        assertThat(result.getStatus(0)).isEqualTo(201);
+        assertThat(result.getError(0)).isNull();
+        assertThat(result.getStatus(1)).isEqualTo(429);
+        assertThat(result.getError(1)).isEqualTo("rejected");
+    }
 }
@@ -0,0 +1,183 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProductUpdateTests {
+
+    @Test
+    public void testMergeDeltasAndPrices() {
+        final ProductUpdate update = ProductUpdate.decrementStock("1", 2)
+                .merge(ProductUpdate.setPrice("1", 10))
+                .merge(ProductUpdate.incrementStock("1", 5))
+                .merge(ProductUpdate.setPrice("1", 12.5));
+
+        assertThat(update.getId()).isEqualTo("1");
+        assertThat(update.getStockDelta()).isEqualTo(3);
+        assertThat(update.getPrice()).isEqualTo(12.5);
+        assertThat(update.isUpsert()).isFalse();
+
+        assertThatThrownBy(() -> update.merge(ProductUpdate.setPrice("2", 1))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testMergeIntoUpsert() {
+        final Product product = new Product();
+        product.setId("1");
+        product.setName("name");
+        product.setPrice(5);
+        product.setStockAvailable(10);
+
+        final ProductUpdate upsert = ProductUpdate.decrementStock("1", 100)
+                .merge(ProductUpdate.upsert(product))
+                .merge(ProductUpdate.decrementStock("1", 3))
+                .merge(ProductUpdate.setPrice("1", 4));
+
+        assertThat(upsert.isUpsert()).isTrue();
+        assertThat(upsert.getDocument().getName()).isEqualTo("name");
+        assertThat(upsert.getDocument().getStockAvailable()).isEqualTo(7);
+        assertThat(upsert.getDocument().getPrice()).isEqualTo(4);
+        // the product passed to upsert is not modified
+        assertThat(product.getStockAvailable()).isEqualTo(10);
+    }
+
+    @Test
+    public void testCoalesceKeepsOrder() {
+        final List<ProductUpdate> updates = ProductUpdater.coalesce(List.of(
+                ProductUpdate.decrementStock("b", 1),
+                ProductUpdate.decrementStock("a", 1),
+                ProductUpdate.decrementStock("b", 1),
+                ProductUpdate.setPrice("c", 1),
+                ProductUpdate.decrementStock("a", 1)));
+
+        assertThat(updates).extracting(ProductUpdate::getId).containsExactly("b", "a", "c");
+        assertThat(updates).extracting(ProductUpdate::getStockDelta).containsExactly(-2, -2, 0);
+    }
+
+    @Test
+    public void testToOperation() {
+        final BulkOperation price = ProductUpdater.toOperation(ProductUpdate.setPrice("1", 9.99), "script", 3);
+        assertThat(price.update().id()).isEqualTo("1");
+        assertThat(price.update().retryOnConflict()).isEqualTo(3);
+        assertThat(price.update().action().doc()).isEqualTo(Map.of("price", 9.99));
+        assertThat(price.update().action().script()).isNull();
+
+        final BulkOperation stock = ProductUpdater.toOperation(ProductUpdate.decrementStock("1", 1)
+                .merge(ProductUpdate.setPrice("1", 9.99)), "script", 3);
+        assertThat(stock.update().action().doc()).isNull();
+        assertThat(stock.update().action().script().stored().id()).isEqualTo("script");
+        assertThat(stock.update().action().script().stored().params()).containsOnlyKeys("price", "stock_delta");
+        assertThat(stock.update().action().script().stored().params().get("stock_delta").to(Integer.class)).isEqualTo(-1);
+
+        final Product product = new Product();
+        product.setId("1");
+        final BulkOperation upsert = ProductUpdater.toOperation(ProductUpdate.upsert(product), "script", 3);
+        assertThat(upsert.update().action().docAsUpsert()).isTrue();
+        assertThat(upsert.update().action().doc()).isInstanceOf(Product.class);
+    }
+
+    @Test
+    public void testIdempotent() {
+        final Product product = new Product();
+        product.setId("1");
+        assertThat(ProductUpdate.setPrice("1", 1).isIdempotent()).isTrue();
+        assertThat(ProductUpdate.upsert(product).isIdempotent()).isTrue();
+        assertThat(ProductUpdate.upsert(product).merge(ProductUpdate.decrementStock("1", 1)).isIdempotent()).isTrue();
+        assertThat(ProductUpdate.decrementStock("1", 1).isIdempotent()).isFalse();
+        assertThat(ProductUpdate.setPrice("1", 1).merge(ProductUpdate.incrementStock("1", 1)).isIdempotent()).isFalse();
+    }
+
+    @Test
+    public void testRequestFailureOnlyRetriesIdempotentUpdates() throws Exception {
+        // the first bulk fails as a whole, so it is unknown whether it has been applied
+        final List<String> bulks = new CopyOnWriteArrayList<>();
+        try (StubElasticsearch stub = StubElasticsearch.start(request -> {
+            if (request.path().endsWith("/_bulk") == false) {
+                return StubElasticsearch.Response.ok("{\"acknowledged\":true}");
+            }
+            bulks.add(request.bodyAsString());
+            if (bulks.size() == 1) {
+                return StubElasticsearch.Response.error(503, "unavailable_shards_exception", "unavailable");
+            }
+            return StubElasticsearch.Response.ok("{\"took\":1,\"errors\":false,\"items\":[{\"update\":{\"_index\":\"products\",\"_id\":\"1\",\"status\":200}}]}");
+        })) {
+            final ElasticsearchAsyncClient client = stub.createAsyncClient();
+            final CompletableFuture<Void> price;
+            final CompletableFuture<Void> stock;
+            try (ProductUpdater updater = ProductUpdater.builder(client, "products").flushInterval(Duration.ofMinutes(1)).build()) {
+                price = updater.update(ProductUpdate.setPrice("1", 9.99));
+                stock = updater.update(ProductUpdate.decrementStock("2", 1));
+                updater.flush();
+            }
+
+            // the retried price change goes out with the next bulk, which close() sends
+            assertThat(price.get(5, TimeUnit.SECONDS)).isNull();
+            assertThatThrownBy(() -> stock.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IOException.class)
+                    .hasMessageContaining("may or may not have been applied");
+            assertThat(bulks).hasSize(2);
+            assertThat(bulks.get(0)).contains("\"_id\":\"1\"", "\"_id\":\"2\"");
+            assertThat(bulks.get(1)).contains("\"_id\":\"1\"").doesNotContain("\"_id\":\"2\"");
+        }
+    }
+
+    @Test
+    public void testUpdatesRacingCloseComplete() throws Exception {
+        try (StubElasticsearch stub = StubElasticsearch.start(request -> {
+            if (request.path().endsWith("/_bulk") == false) {
+                return StubElasticsearch.Response.ok("{\"acknowledged\":true}");
+            }
+            final String items = Arrays.stream(request.bodyAsString().split("\n"))
+                    .filter(line -> line.startsWith("{\"update\""))
+                    .map(line -> "{\"update\":{\"_index\":\"products\",\"_id\":\"1\",\"status\":200}}")
+                    .collect(Collectors.joining(","));
+            return StubElasticsearch.Response.ok("{\"took\":1,\"errors\":false,\"items\":[" + items + "]}");
+        })) {
+            final ProductUpdater updater = ProductUpdater.builder(stub.createAsyncClient(), "products")
+                    .flushInterval(Duration.ofMillis(5))
+                    .build();
+            final List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+            final CountDownLatch started = new CountDownLatch(4);
+            final List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final String id = String.valueOf(t);
+                final Thread thread = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 500; i++) {
+                        futures.add(updater.update(ProductUpdate.setPrice(id, i)));
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            started.await();
+            updater.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // every update was either sent by close() or rejected as closed, none is left waiting
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(e -> null).get(5, TimeUnit.SECONDS);
+            assertThat(futures).allMatch(CompletableFuture::isDone);
+            assertThat(updater.update(ProductUpdate.setPrice("1", 1))).isCompletedExceptionally();
+        }
+    }
+}
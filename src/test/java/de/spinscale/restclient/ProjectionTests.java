@@ -0,0 +1,90 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import jakarta.json.stream.JsonGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProjectionTests {
+
+    private static final String RESPONSE = "{\"took\":4,\"timed_out\":false," +
+            "\"hits\":{\"total\":{\"value\":2,\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":[" +
+            "{\"_index\":\"products\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"name\":\"first\",\"price\":1.5}," +
+            "\"fields\":{\"stock_available\":[7]}}," +
+            "{\"_index\":\"products\",\"_id\":\"2\",\"_score\":0.5,\"_source\":{\"name\":\"second\",\"tags\":[\"a\"]}," +
+            "\"fields\":{\"stock_available\":[3],\"tags\":[\"a\"]}}]}}";
+
+    private final JsonpMapper mapper = new JacksonJsonpMapper();
+
+    @Test
+    public void testSearchRequest() {
+        assertThat(toJson(ProductServiceImpl.createSearchRequest("products", "shirt", 10, 20, Projection.summaries())))
+                .contains("\"from\":10")
+                .contains("\"size\":20")
+                .contains("\"_source\":{\"includes\":[\"name\",\"price\"]}")
+                .contains("\"docvalue_fields\":[{\"field\":\"stock_available\"}]");
+
+        assertThat(toJson(ProductServiceImpl.createSearchRequest("products", "shirt", 0, 10, Projection.ids())))
+                .contains("\"_source\":false")
+                .doesNotContain("docvalue_fields");
+
+        final Projection<Product> withoutDescription = Projection.builder((id, source) -> new Product())
+                .excludes("description")
+                .build();
+        assertThat(toJson(ProductServiceImpl.createSearchRequest("products", "shirt", 0, 10, withoutDescription)))
+                .contains("\"_source\":{\"excludes\":[\"description\"]}");
+    }
+
+    @Test
+    public void testDecodeSummaries() throws Exception {
+        final List<ProductSummary> summaries = new ArrayList<>();
+        try (JsonParser parser = new JsonFactory().createParser(RESPONSE)) {
+            assertThat(ProductServiceImpl.readSearchResponse(parser, Projection.summaries(), summaries)).isEqualTo(4);
+        }
+
+        assertThat(summaries).hasSize(2);
+        assertThat(summaries.get(0).getId()).isEqualTo("1");
+        assertThat(summaries.get(0).getName()).isEqualTo("first");
+        assertThat(summaries.get(0).getPrice()).isEqualTo(1.5);
+        assertThat(summaries.get(0).getStockAvailable()).isEqualTo(7);
+        assertThat(summaries.get(1).getName()).isEqualTo("second");
+        assertThat(summaries.get(1).getStockAvailable()).isEqualTo(3);
+    }
+
+    @Test
+    public void testDecodeIdsAndCodec() throws Exception {
+        final String idsResponse = "{\"took\":1,\"hits\":{\"hits\":[{\"_id\":\"1\",\"_score\":1.0},{\"_id\":\"2\",\"_score\":0.5}]}}";
+        final List<String> ids = new ArrayList<>();
+        try (JsonParser parser = new JsonFactory().createParser(idsResponse)) {
+            ProductServiceImpl.readSearchResponse(parser, Projection.ids(), ids);
+        }
+        assertThat(ids).containsExactly("1", "2");
+
+        final List<Product> products = new ArrayList<>();
+        try (JsonParser parser = new JsonFactory().createParser(RESPONSE)) {
+            ProductServiceImpl.readSearchResponse(parser, Projection.of(new ProductCodec(), "name", "price"), products);
+        }
+        assertThat(products).hasSize(2);
+        assertThat(products.get(0).getId()).isEqualTo("1");
+        assertThat(products.get(0).getPrice()).isEqualTo(1.5);
+        assertThat(products.get(0).getDescription()).isNull();
+        assertThat(products.get(1).getName()).isEqualTo("second");
+    }
+
+    private String toJson(SearchRequest request) {
+        final StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            request.serialize(generator, mapper);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,300 @@
+package de.spinscale.restclient;
+
+import de.spinscale.restclient.ResilienceStats.CircuitState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ResilientProductServiceTests {
+
+    private final FlakyProductService delegate = new FlakyProductService();
+    private final AtomicLong nanos = new AtomicLong();
+    private ResilientProductService service;
+
+    @AfterEach
+    public void closeService() {
+        delegate.block.countDown();
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        delegate.block = new CountDownLatch(1);
+        service = ResilientProductService.builder(delegate)
+                .timeout(ProductServiceMetrics.Operation.FIND_BY_ID, Duration.ofMillis(50))
+                .maxRetries(0)
+                .build();
+
+        assertThatThrownBy(() -> service.findById("1")).isInstanceOf(IOException.class).hasMessageContaining("timed out");
+        assertThat(service.stats().getTimeouts()).isEqualTo(1);
+    }
+
+    @Test
+    public void testLoadShedding() throws Exception {
+        delegate.block = new CountDownLatch(1);
+        service = ResilientProductService.builder(delegate).maxConcurrent(1).maxQueued(1).build();
+
+        final CompletableFuture<Product> running = CompletableFuture.supplyAsync(() -> findById("1"));
+        while (delegate.calls.get() == 0) {
+            Thread.sleep(1);
+        }
+        final CompletableFuture<Product> queued = CompletableFuture.supplyAsync(() -> findById("2"));
+        while (service.stats().getQueued() == 0) {
+            Thread.sleep(1);
+        }
+
+        assertThatThrownBy(() -> service.findById("3")).isInstanceOf(RejectedExecutionException.class);
+        assertThat(service.stats().getShed()).isEqualTo(1);
+        assertThat(service.stats().getActive()).isEqualTo(1);
+
+        delegate.block.countDown();
+        assertThat(running.get(10, TimeUnit.SECONDS).getId()).isEqualTo("1");
+        assertThat(queued.get(10, TimeUnit.SECONDS).getId()).isEqualTo("2");
+    }
+
+    @Test
+    public void testCircuitBreakerOpensOnFailures() throws Exception {
+        delegate.failures.set(Integer.MAX_VALUE);
+        service = ResilientProductService.builder(delegate)
+                .maxRetries(0)
+                .window(10, 5)
+                .openDuration(Duration.ofSeconds(10), 2)
+                .ticker(nanos::get)
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            assertThatThrownBy(() -> service.findById("1")).isInstanceOf(IOException.class);
+        }
+        assertThat(service.stats().getState()).isEqualTo(CircuitState.OPEN);
+        assertThat(service.stats().getFailureRate()).isEqualTo(1.0);
+
+        // fails fast without calling the delegate
+        assertThatThrownBy(() -> service.findById("1")).isInstanceOf(RejectedExecutionException.class);
+        assertThat(delegate.calls.get()).isEqualTo(5);
+        assertThat(service.stats().getShortCircuited()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(service.stats().getState()).isEqualTo(CircuitState.HALF_OPEN);
+        delegate.failures.set(0);
+        service.findById("1");
+        assertThat(service.stats().getState()).isEqualTo(CircuitState.HALF_OPEN);
+        service.findById("1");
+        assertThat(service.stats().getState()).isEqualTo(CircuitState.CLOSED);
+        assertThat(service.stats().getOpened()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailedProbeOpensAgain() throws Exception {
+        delegate.failures.set(Integer.MAX_VALUE);
+        service = ResilientProductService.builder(delegate)
+                .maxRetries(0)
+                .window(10, 5)
+                .openDuration(Duration.ofSeconds(10), 2)
+                .ticker(nanos::get)
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            assertThatThrownBy(() -> service.findById("1")).isInstanceOf(IOException.class);
+        }
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThatThrownBy(() -> service.findById("1")).isInstanceOf(IOException.class);
+        assertThat(service.stats().getState()).isEqualTo(CircuitState.OPEN);
+        assertThat(service.stats().getOpened()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCircuitBreakerOpensOnSlowCalls() throws Exception {
+        delegate.latency = () -> nanos.addAndGet(TimeUnit.SECONDS.toNanos(3));
+        service = ResilientProductService.builder(delegate)
+                .window(10, 5)
+                .slowCalls(Duration.ofSeconds(2), 0.8)
+                .ticker(nanos::get)
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            service.findById("1");
+        }
+        assertThat(service.stats().getSlowCallRate()).isEqualTo(1.0);
+        assertThat(service.stats().getState()).isEqualTo(CircuitState.OPEN);
+    }
+
+    @Test
+    public void testClientErrorsDoNotOpenCircuitBreaker() throws Exception {
+        delegate.clientError = true;
+        service = ResilientProductService.builder(delegate).window(10, 5).build();
+
+        for (int i = 0; i < 10; i++) {
+            assertThatThrownBy(() -> service.findById("1")).isInstanceOf(IllegalArgumentException.class);
+        }
+        assertThat(service.stats().getState()).isEqualTo(CircuitState.CLOSED);
+        // not retryable
+        assertThat(delegate.calls.get()).isEqualTo(10);
+    }
+
+    @Test
+    public void testRetryBudget() throws Exception {
+        service = ResilientProductService.builder(delegate).maxRetries(2).retryBudget(0.5, 1).build();
+
+        delegate.failures.set(1);
+        assertThat(service.findById("1").getId()).isEqualTo("1");
+        assertThat(service.stats().getRetries()).isEqualTo(1);
+
+        // the single token was used up, half a token was deposited by the next call
+        delegate.failures.set(1);
+        assertThatThrownBy(() -> service.findById("1")).isInstanceOf(IOException.class);
+        assertThat(service.stats().getRetriesDenied()).isEqualTo(1);
+
+        // another half token, enough for one retry
+        delegate.failures.set(1);
+        assertThat(service.findById("1").getId()).isEqualTo("1");
+        assertThat(service.stats().getRetries()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRetriesBackOff() throws Exception {
+        service = ResilientProductService.builder(delegate).maxRetries(2).retryBackoff(Duration.ofMillis(40)).build();
+
+        delegate.failures.set(2);
+        final long start = System.nanoTime();
+        assertThat(service.findById("1").getId()).isEqualTo("1");
+        // at least half of 40ms before the first and half of 80ms before the second retry
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(60));
+        assertThat(service.stats().getRetries()).isEqualTo(2);
+    }
+
+    @Test
+    public void testWritesAreNotRetried() throws Exception {
+        service = ResilientProductService.builder(delegate).build();
+
+        delegate.failures.set(1);
+        assertThatThrownBy(() -> service.save(new Product())).isInstanceOf(IOException.class);
+        assertThat(delegate.calls.get()).isEqualTo(1);
+        assertThat(service.stats().getRetries()).isZero();
+    }
+
+    private Product findById(String id) {
+        try {
+            return service.findById(id);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class FlakyProductService implements ProductService {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile CountDownLatch block = new CountDownLatch(0);
+        private volatile Runnable latency = () -> {};
+        private volatile boolean clientError = false;
+
+        private void call() throws IOException {
+            calls.incrementAndGet();
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            latency.run();
+            if (clientError) {
+                throw new IllegalArgumentException("bad request");
+            }
+            if (failures.getAndUpdate(f -> Math.max(0, f - 1)) > 0) {
+                throw new IOException("connection refused");
+            }
+        }
+
+        @Override
+        public Product findById(String id) throws IOException {
+            call();
+            final Product product = new Product();
+            product.setId(id);
+            return product;
+        }
+
+        @Override
+        public List<Optional<Product>> findByIds(Collection<String> ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page<Product> search(String query) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page<Product> search(String query, Duration keepAlive) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Page<Product>> searchBatch(List<PageRequest> requests) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FacetedPage searchWithFacets(String query, int size, FacetRequest facets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VersionedProduct findVersionedById(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VersionedProduct save(VersionedProduct product) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page<Product> next(Page page) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close(Page page) {
+        }
+
+        @Override
+        public void save(Product product) throws IOException {
+            call();
+        }
+
+        @Override
+        public void save(List<Product> products) throws IOException {
+            call();
+        }
+
+        @Override
+        public void save(ProductBatch batch) throws IOException {
+            call();
+        }
+
+        @Override
+        public void update(ProductUpdate update) throws IOException {
+            call();
+        }
+
+        @Override
+        public void update(List<ProductUpdate> updates) throws IOException {
+            call();
+        }
+    }
+}
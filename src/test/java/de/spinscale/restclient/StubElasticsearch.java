@@ -0,0 +1,210 @@
+package de.spinscale.restclient;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP server on the loopback interface, that answers like an Elasticsearch node, so that the client can be
+ * tested and benchmarked without a cluster. Every request is handed to the handler with its body decompressed
+ * and is kept for assertions, unless disabled. Responses are gzipped if the client accepts it, the body bytes
+ * that went over the wire in either direction are counted.
+ */
+public class StubElasticsearch implements Closeable {
+
+    static {
+        // without this headers and body are sent as separate packets and every request
+        // waits for a delayed ACK, read once when the http server is first used
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * @param nanoTime when the request was received, as returned by {@link System#nanoTime()}
+     */
+    public record Request(String method, String path, Headers headers, byte[] body, long nanoTime) {
+
+        public String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    public record Response(int status, byte[] body) {
+
+        public static Response ok(String json) {
+            return of(200, json);
+        }
+
+        public static Response of(int status, String json) {
+            return new Response(status, json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * A request that failed as a whole, like Elasticsearch reports it
+         */
+        public static Response error(int status, String type, String reason) {
+            return of(status, "{\"error\":{\"type\":\"" + type + "\",\"reason\":\"" + reason + "\"},\"status\":" + status + "}");
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Handler handler;
+    private final boolean recordRequests;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    // canned responses are compressed once, arrays are compared by identity
+    private final Map<byte[], byte[]> compressedResponses = Collections.synchronizedMap(new WeakHashMap<>());
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private RestClient restClient;
+    private ElasticsearchTransport transport;
+
+    private StubElasticsearch(Handler handler, int threads, boolean recordRequests) throws IOException {
+        this.handler = handler;
+        this.recordRequests = recordRequests;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        // a single thread answers the requests one by one
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public static StubElasticsearch start(Handler handler) throws IOException {
+        return new StubElasticsearch(handler, 1, true);
+    }
+
+    /**
+     * @param threads        the number of threads answering requests concurrently
+     * @param recordRequests whether to keep all requests for {@link #getRequests()}
+     */
+    public static StubElasticsearch start(Handler handler, int threads, boolean recordRequests) throws IOException {
+        return new StubElasticsearch(handler, threads, recordRequests);
+    }
+
+    public HttpHost getHost() {
+        return new HttpHost("localhost", server.getAddress().getPort(), "http");
+    }
+
+    /**
+     * @return a client with the default object mapper and without compression, closed with the server
+     */
+    public ElasticsearchClient createClient() {
+        return new ElasticsearchClient(transport());
+    }
+
+    public ElasticsearchAsyncClient createAsyncClient() {
+        return new ElasticsearchAsyncClient(transport());
+    }
+
+    private synchronized ElasticsearchTransport transport() {
+        if (transport == null) {
+            restClient = RestClient.builder(getHost()).build();
+            transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
+        }
+        return transport;
+    }
+
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public void resetBytes() {
+        bytesReceived.reset();
+        bytesSent.reset();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final long nanoTime = System.nanoTime();
+        byte[] body;
+        try (InputStream input = exchange.getRequestBody()) {
+            body = input.readAllBytes();
+        }
+        bytesReceived.add(body.length);
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = input.readAllBytes();
+            }
+        }
+        final Request request = new Request(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                exchange.getRequestHeaders(), body, nanoTime);
+        if (recordRequests) {
+            requests.add(request);
+        }
+
+        final Response response = handler.handle(request);
+        byte[] responseBody = response.body();
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("X-Elastic-Product", "Elasticsearch");
+        final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            responseBody = compressedResponses.computeIfAbsent(responseBody, StubElasticsearch::gzip);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        bytesSent.add(responseBody.length);
+        exchange.sendResponseHeaders(response.status(), responseBody.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(responseBody);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (restClient != null) {
+            restClient.close();
+        }
+        server.stop(0);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}